@@ -0,0 +1,407 @@
+package com.ggp.noob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/9 10:00
+ * @Description: 批量签发的归档输出，一个批次的所有产物追加到同一个文件，代替每个证书一个目录若干小文件
+ * 文件头 ECA1
+ * 条目   名称长度(2)||名称(UTF-8)||内容长度(4)||crc32(4)||内容
+ * 索引   每个条目 名称长度(2)||名称||内容偏移(8)||内容长度(4)||crc32(4)
+ * 尾部   索引偏移(8)||条目数(4)||索引crc32(4)||ECAX
+ * 条目先攒在内存缓冲区，满了才整块顺序写出；关闭时写出索引和尾部。
+ * 条目自带名称和长度，没有正常关闭(没有尾部)的归档可以顺序扫描重建索引
+ */
+public class ArtifactArchive implements ArtifactSink, Closeable {
+    private static final byte[] HEAD_MAGIC = {'E', 'C', 'A', '1'};
+    private static final byte[] TAIL_MAGIC = {'E', 'C', 'A', 'X'};
+    private static final int TRAILER = 20;
+    private static final int BUFFER = 4 * 1024 * 1024;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream index = new DataOutputStream(indexBytes);
+    /**
+     * 下一个字节在文件中的位置，包括缓冲区中还没写出的
+     */
+    private long position;
+    private int count;
+    private boolean closed;
+
+    /**
+     * 创建归档，文件已存在时覆盖
+     *
+     * @param path
+     * @throws IOException
+     */
+    public ArtifactArchive(String path) throws IOException {
+        this.file = new File(path);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (null != parent) {
+            parent.mkdirs();
+        }
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.put(HEAD_MAGIC);
+        position = HEAD_MAGIC.length;
+    }
+
+    /**
+     * 追加一个条目，只写入缓冲区，返回时已完成
+     *
+     * @param name     条目名，如 p10名称/signCert.p7b
+     * @param contents 内容
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public synchronized CompletableFuture<Void> write(String name, byte[]... contents) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("归档已关闭:" + file);
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("条目名过长:" + name);
+        }
+        long length = 0;
+        CRC32 crc = new CRC32();
+        for (byte[] content : contents) {
+            length += content.length;
+            crc.update(content);
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("条目过大:" + name);
+        }
+        int header = 2 + nameBytes.length + 8;
+        if (buffer.remaining() < header + length) {
+            flush();
+        }
+        if (buffer.remaining() < header + length) {
+            /** 比缓冲区还大的条目直接聚集写出 */
+            ByteBuffer[] buffers = new ByteBuffer[contents.length + 1];
+            buffers[0] = ByteBuffer.allocate(header);
+            putHeader(buffers[0], nameBytes, (int) length, (int) crc.getValue());
+            buffers[0].flip();
+            for (int i = 0; i < contents.length; i++) {
+                buffers[i + 1] = ByteBuffer.wrap(contents[i]);
+            }
+            long remaining = header + length;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        } else {
+            putHeader(buffer, nameBytes, (int) length, (int) crc.getValue());
+            for (byte[] content : contents) {
+                buffer.put(content);
+            }
+        }
+        long offset = position + header;
+        position = offset + length;
+        index.writeShort(nameBytes.length);
+        index.write(nameBytes);
+        index.writeLong(offset);
+        index.writeInt((int) length);
+        index.writeInt((int) crc.getValue());
+        count++;
+        return DONE;
+    }
+
+    private static void putHeader(ByteBuffer target, byte[] nameBytes, int length, int crc) {
+        target.putShort((short) nameBytes.length);
+        target.put(nameBytes);
+        target.putInt(length);
+        target.putInt(crc);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * 写出剩余条目、索引和尾部，Constant.outputFsync时落盘
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            index.flush();
+            byte[] indexData = indexBytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(indexData);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            trailer.putLong(position).putInt(count).putInt((int) crc.getValue()).put(TAIL_MAGIC);
+            trailer.flip();
+            ByteBuffer[] buffers = {ByteBuffer.wrap(indexData), trailer};
+            long remaining = indexData.length + TRAILER;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            if (Constant.outputFsync) {
+                channel.force(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * 打开归档读取
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static Reader open(String path) throws IOException {
+        return new Reader(new File(path));
+    }
+
+    /**
+     * 索引中的一项
+     */
+    private static final class Entry {
+        private final String name;
+        private final long offset;
+        private final int length;
+        private final int crc;
+
+        private Entry(String name, long offset, int length, int crc) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * 按索引随机读取条目
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final List<Entry> entries;
+        private final boolean recovered;
+        private Map<String, Entry> lookup;
+
+        private Reader(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                ByteBuffer head = read(0, HEAD_MAGIC.length);
+                if (!Arrays.equals(head.array(), HEAD_MAGIC)) {
+                    throw new IOException("不是归档文件:" + file);
+                }
+                List<Entry> indexed = readIndex();
+                this.recovered = null == indexed;
+                this.entries = recovered ? scan() : indexed;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return 尾部缺失或损坏时返回null
+         */
+        private List<Entry> readIndex() throws IOException {
+            long size = channel.size();
+            if (size < HEAD_MAGIC.length + TRAILER) {
+                return null;
+            }
+            ByteBuffer trailer = read(size - TRAILER, TRAILER);
+            long indexOffset = trailer.getLong();
+            int count = trailer.getInt();
+            int indexCrc = trailer.getInt();
+            byte[] magic = new byte[4];
+            trailer.get(magic);
+            if (!Arrays.equals(magic, TAIL_MAGIC) || indexOffset < HEAD_MAGIC.length || indexOffset > size - TRAILER) {
+                return null;
+            }
+            ByteBuffer data = read(indexOffset, (int) (size - TRAILER - indexOffset));
+            CRC32 crc = new CRC32();
+            crc.update(data.array());
+            if ((int) crc.getValue() != indexCrc) {
+                return null;
+            }
+            List<Entry> indexed = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[data.getShort() & 0xFFFF];
+                data.get(name);
+                indexed.add(new Entry(new String(name, StandardCharsets.UTF_8), data.getLong(), data.getInt(), data.getInt()));
+            }
+            return indexed;
+        }
+
+        /**
+         * 没有尾部时顺序扫描条目，遇到不完整或校验失败的条目为止
+         */
+        private List<Entry> scan() throws IOException {
+            List<Entry> scanned = new ArrayList<>();
+            long size = channel.size();
+            long offset = HEAD_MAGIC.length;
+            while (offset + 2 <= size) {
+                int nameLength = read(offset, 2).getShort() & 0xFFFF;
+                if (offset + 2 + nameLength + 8 > size) {
+                    break;
+                }
+                ByteBuffer header = read(offset + 2, nameLength + 8);
+                byte[] name = new byte[nameLength];
+                header.get(name);
+                int length = header.getInt();
+                int crc = header.getInt();
+                long data = offset + 2 + nameLength + 8;
+                if (length < 0 || data + length > size || crc(data, length) != crc) {
+                    break;
+                }
+                scanned.add(new Entry(new String(name, StandardCharsets.UTF_8), data, length, crc));
+                offset = data + length;
+            }
+            return scanned;
+        }
+
+        private int crc(long offset, int length) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(read(offset, length).array());
+            return (int) crc.getValue();
+        }
+
+        private ByteBuffer read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("归档文件不完整");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * @return 条目名，按写入顺序
+         */
+        public List<String> list() {
+            List<String> names = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                names.add(entry.name);
+            }
+            return names;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        /**
+         * @return 是否由顺序扫描重建的索引(归档没有正常关闭)
+         */
+        public boolean isRecovered() {
+            return recovered;
+        }
+
+        /**
+         * 读取条目，同名条目取最后写入的
+         *
+         * @param name
+         * @return 不存在时返回null
+         * @throws IOException 校验失败
+         */
+        public synchronized byte[] read(String name) throws IOException {
+            if (null == lookup) {
+                lookup = new HashMap<>(entries.size() * 2);
+                for (Entry entry : entries) {
+                    lookup.put(entry.name, entry);
+                }
+            }
+            Entry entry = lookup.get(name);
+            return null == entry ? null : read(entry);
+        }
+
+        /**
+         * 按写入顺序的下标读取条目
+         *
+         * @param i
+         * @return
+         * @throws IOException 校验失败
+         */
+        public byte[] read(int i) throws IOException {
+            return read(entries.get(i));
+        }
+
+        private byte[] read(Entry entry) throws IOException {
+            byte[] data = read(entry.offset, entry.length).array();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if ((int) crc.getValue() != entry.crc) {
+                throw new IOException("条目校验失败:" + entry.name);
+            }
+            return data;
+        }
+
+        /**
+         * 把条目解出为 dir/条目名
+         *
+         * @param dir    目标目录
+         * @param prefix 只解出以此开头的条目，null表示全部
+         * @return 解出的条目数
+         * @throws IOException
+         */
+        public int extract(String dir, String prefix) throws IOException {
+            File root = new File(dir).getCanonicalFile();
+            int extracted = 0;
+            for (Entry entry : entries) {
+                if (null != prefix && !entry.name.startsWith(prefix)) {
+                    continue;
+                }
+                File target = new File(root, entry.name).getCanonicalFile();
+                if (!target.getPath().startsWith(root.getPath() + File.separator)) {
+                    throw new IOException("条目名不合法:" + entry.name);
+                }
+                target.getParentFile().mkdirs();
+                FileOutputStream os = new FileOutputStream(target);
+                try {
+                    os.write(read(entry));
+                } finally {
+                    os.close();
+                }
+                extracted++;
+            }
+            return extracted;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.ggp.noob;
+
+import com.ggp.noob.util.CertUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/9 9:30
+ * @Description: 签发产物的输出目标，ArtifactWriter写成单独的文件，ArtifactArchive追加到一个归档文件
+ */
+public interface ArtifactSink {
+    /**
+     * 写入若干段内容，按顺序拼接为一个产物
+     *
+     * @param name     ArtifactWriter中为文件路径，ArtifactArchive中为条目名
+     * @param contents 内容
+     * @return 写入完成时完成
+     * @throws Exception
+     */
+    CompletableFuture<Void> write(String name, byte[]... contents) throws Exception;
+
+    default CompletableFuture<Void> writeString(String name, String content) throws Exception {
+        return write(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 以PEM格式写出证书、私钥等，编码在调用线程完成
+     *
+     * @param name
+     * @param object 见CertUtil.writeObjectToString
+     * @return
+     * @throws Exception
+     */
+    default CompletableFuture<Void> writeObject(String name, Object object) throws Exception {
+        return writeString(name, CertUtil.writeObjectToString(object));
+    }
+}
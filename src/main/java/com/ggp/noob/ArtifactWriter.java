@@ -0,0 +1,271 @@
+package com.ggp.noob;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/30 10:00
+ * @Description: 签发产物(证书、p7b、数字信封、私钥)的异步写出
+ * 所有签发线程把要写的文件放入有界队列，队列满时阻塞，形成背压；
+ * 单独的写线程每次取走队列中已有的全部文件作为一批，每个文件用FileChannel一次聚集写出各段内容，
+ * 开启fsync时整批写完后再逐个force，落盘的等待由整批分摊，而不是每个小文件各等一次。
+ * 写入结果通过CompletableFuture通知，批次完成(及fsync)后才完成
+ */
+public class ArtifactWriter implements ArtifactSink, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ArtifactWriter.class);
+    /**
+     * 一批最多的文件数，批内的文件在fsync之前保持打开
+     */
+    private static final int MAX_BATCH = 256;
+    private static volatile ArtifactWriter shared;
+
+    /**
+     * 一个待写文件
+     */
+    private static final class Artifact {
+        private final File file;
+        private final ByteBuffer[] contents;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Artifact(File file, ByteBuffer[] contents) {
+            this.file = file;
+            this.contents = contents;
+        }
+    }
+
+    private static final Artifact SHUTDOWN = new Artifact(null, null);
+
+    private final BlockingQueue<Artifact> queue;
+    private final boolean fsync;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile long batches;
+    private volatile long files;
+
+    /**
+     * @param capacity 队列中最多等待写出的文件数
+     * @param fsync    每批写完后是否fsync
+     */
+    public ArtifactWriter(int capacity, boolean fsync) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive:" + capacity);
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.fsync = fsync;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "artifact-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 获取进程内共享的实例，参数见Constant.outputQueue、Constant.outputFsync
+     *
+     * @return
+     */
+    public static ArtifactWriter shared() {
+        ArtifactWriter writer = shared;
+        if (null == writer) {
+            synchronized (ArtifactWriter.class) {
+                writer = shared;
+                if (null == writer) {
+                    writer = new ArtifactWriter(Constant.outputQueue, Constant.outputFsync);
+                    shared = writer;
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * 写入若干段内容，按顺序聚集写到同一个文件，已存在时覆盖
+     *
+     * @param path     文件路径，上级目录不存在时创建
+     * @param contents 文件内容
+     * @return 写入(及fsync)完成时完成
+     * @throws InterruptedException 队列满时等待被中断
+     */
+    @Override
+    public CompletableFuture<Void> write(String path, byte[]... contents) throws InterruptedException {
+        ByteBuffer[] buffers = new ByteBuffer[contents.length];
+        for (int i = 0; i < contents.length; i++) {
+            buffers[i] = ByteBuffer.wrap(contents[i]);
+        }
+        Artifact artifact = new Artifact(new File(path), buffers);
+        if (closed) {
+            throw new IllegalStateException("ArtifactWriter已关闭");
+        }
+        queue.put(artifact);
+        return artifact.future;
+    }
+
+    /**
+     * 等待若干写入全部完成，有失败时抛出第一个失败原因
+     *
+     * @param futures
+     * @throws Exception
+     */
+    public static void await(CompletableFuture<?>... futures) throws Exception {
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void loop() {
+        List<Artifact> batch = new ArrayList<>(MAX_BATCH);
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            int end = batch.indexOf(SHUTDOWN);
+            if (end >= 0) {
+                /** 关闭标记之后不会再有文件，标记之前的照常写完 */
+                batch.remove(end);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+        /** 和close同时提交的文件不会再写出 */
+        Artifact rest;
+        while (null != (rest = queue.poll())) {
+            if (rest != SHUTDOWN) {
+                rest.future.completeExceptionally(new IllegalStateException("ArtifactWriter已关闭"));
+            }
+        }
+    }
+
+    private void writeBatch(List<Artifact> batch) {
+        FileChannel[] channels = new FileChannel[batch.size()];
+        Throwable[] errors = new Throwable[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Artifact artifact = batch.get(i);
+            try {
+                File parent = artifact.file.getAbsoluteFile().getParentFile();
+                if (null != parent && !parent.isDirectory()) {
+                    parent.mkdirs();
+                }
+                channels[i] = FileChannel.open(artifact.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                long remaining = 0;
+                for (ByteBuffer buffer : artifact.contents) {
+                    remaining += buffer.remaining();
+                }
+                while (remaining > 0) {
+                    remaining -= channels[i].write(artifact.contents);
+                }
+            } catch (Throwable e) {
+                errors[i] = e;
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (null == channels[i]) {
+                continue;
+            }
+            try {
+                if (fsync && null == errors[i]) {
+                    channels[i].force(true);
+                }
+            } catch (Throwable e) {
+                errors[i] = e;
+            } finally {
+                try {
+                    channels[i].close();
+                } catch (IOException e) {
+                    if (null == errors[i]) {
+                        errors[i] = e;
+                    }
+                }
+            }
+        }
+        batches++;
+        files += batch.size();
+        for (int i = 0; i < batch.size(); i++) {
+            if (null == errors[i]) {
+                batch.get(i).future.complete(null);
+            } else {
+                logger.warn("写入文件失败 {}", batch.get(i).file, errors[i]);
+                batch.get(i).future.completeExceptionally(errors[i]);
+            }
+        }
+    }
+
+    /**
+     * 写出已提交的全部文件后停止写线程。等待时被中断则恢复中断标记后返回，写线程仍会写完已提交的文件
+     *
+     * @throws IOException 写线程1分钟内没有写完
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            queue.put(SHUTDOWN);
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (ArtifactWriter.class) {
+            if (shared == this) {
+                shared = null;
+            }
+        }
+        if (thread.isAlive() && !Thread.currentThread().isInterrupted()) {
+            throw new IOException("写线程未在1分钟内写完已提交的文件");
+        }
+    }
+
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * @return 已写出的批数
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return 已写出的文件数
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    @Override
+    public String toString() {
+        return "ArtifactWriter{fsync=" + fsync + ", queued=" + queue.size() + ", batches=" + batches + ", files=" + files + "}";
+    }
+}
@@ -0,0 +1,198 @@
+package com.ggp.noob;
+
+import com.ggp.noob.util.Asn1Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/12 10:30
+ * @Description: 批量生成GM/T 0010数字信封(加密私钥托管)
+ * 私钥分发到固定大小的线程池并行封装，结果按提交顺序逐个回调，单个失败不影响其他。
+ * 同一批次的签发者标识只编码一次，算法标识在Asn1Util中预先编码；
+ * 每个工作线程复用EngineCache中的SM2/RSA引擎、签名实例和随机数源，不再每个信封都新建
+ */
+public class BatchEnveloper implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchEnveloper.class);
+    /**
+     * 每个线程最多排队的任务数
+     */
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    private final ExecutorService executor;
+    private final int maxInFlight;
+
+    public BatchEnveloper() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchEnveloper(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive:" + threads);
+        }
+        this.maxInFlight = threads * IN_FLIGHT_PER_THREAD;
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "batch-enveloper-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 待封装的加密私钥
+     */
+    public static class Item {
+        private final String name;
+        private final int alg;
+        private final PublicKey signPublic;
+        private final PrivateKey encPrivate;
+
+        /**
+         * @param name       名称，回调时原样带回
+         * @param alg        AlgTypeEnum
+         * @param signPublic 用户签名公钥，用于加密会话秘钥
+         * @param encPrivate 要托管的加密私钥
+         */
+        public Item(String name, int alg, PublicKey signPublic, PrivateKey encPrivate) {
+            this.name = name;
+            this.alg = alg;
+            this.signPublic = signPublic;
+            this.encPrivate = encPrivate;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * 一个批次的统计
+     */
+    public static class Report {
+        private final int count;
+        private final int failed;
+        private final long nanos;
+
+        private Report(int count, int failed, long nanos) {
+            this.count = count;
+            this.failed = failed;
+            this.nanos = nanos;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        /**
+         * @return 每秒生成的信封数
+         */
+        public double getThroughput() {
+            return nanos == 0 ? 0 : count * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Report{count=%d, failed=%d, millis=%d, throughput=%.1f/s}", count, failed, getMillis(), getThroughput());
+        }
+    }
+
+    /**
+     * 批量生成数字信封
+     *
+     * @param items         待封装的私钥
+     * @param issuerSubject 签发者dn
+     * @param issuerSn      签发者sn
+     * @param consumer      结果回调，按items顺序在调用线程上执行
+     * @return 本批次的数量、失败数和吞吐
+     */
+    public Report envelop(List<Item> items, String issuerSubject, String issuerSn, Consumer<EnvelopeResult> consumer) {
+        long start = System.nanoTime();
+        final byte[] issuerAndSerialNumber = Asn1Util.encodeIssuerAndSerialNumber(issuerSubject, issuerSn);
+        int failed = 0;
+        Deque<CompletableFuture<EnvelopeResult>> inFlight = new ArrayDeque<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (inFlight.size() >= maxInFlight) {
+                failed += accept(take(inFlight.pollFirst()), consumer);
+            }
+            final int index = i;
+            final Item item = items.get(i);
+            inFlight.addLast(CompletableFuture.supplyAsync(() -> envelopOne(index, item, issuerAndSerialNumber), executor));
+        }
+        while (!inFlight.isEmpty()) {
+            failed += accept(take(inFlight.pollFirst()), consumer);
+        }
+        Report report = new Report(items.size(), failed, System.nanoTime() - start);
+        logger.info("批量数字信封完成 {}", report);
+        return report;
+    }
+
+    /**
+     * 批量生成并收集全部结果
+     *
+     * @param items
+     * @param issuerSubject
+     * @param issuerSn
+     * @return 与items顺序一致的结果
+     */
+    public List<EnvelopeResult> envelop(List<Item> items, String issuerSubject, String issuerSn) {
+        List<EnvelopeResult> results = new ArrayList<>(items.size());
+        envelop(items, issuerSubject, issuerSn, results::add);
+        return results;
+    }
+
+    private static EnvelopeResult envelopOne(int index, Item item, byte[] issuerAndSerialNumber) {
+        try {
+            byte[] envelope = Asn1Util.encodeSignedAndEnvelopedData(item.alg, item.signPublic, item.encPrivate, issuerAndSerialNumber);
+            return new EnvelopeResult(index, item.name, envelope, null);
+        } catch (Exception e) {
+            return new EnvelopeResult(index, item.name, null, e);
+        }
+    }
+
+    private static int accept(EnvelopeResult result, Consumer<EnvelopeResult> consumer) {
+        consumer.accept(result);
+        return result.isSuccess() ? 0 : 1;
+    }
+
+    private static EnvelopeResult take(CompletableFuture<EnvelopeResult> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            /**
+             * envelopOne已捕获所有异常，这里只可能是Error
+             */
+            throw new IllegalStateException("批量数字信封任务异常", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
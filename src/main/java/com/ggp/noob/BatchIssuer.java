@@ -0,0 +1,258 @@
+package com.ggp.noob;
+
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.FileUtil;
+import com.ggp.noob.util.P10Request;
+
+import java.io.File;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/2 10:20
+ * @Description: 批量p10签发
+ * p10分发到固定大小的线程池并行签发，结果按提交顺序逐个回调，单个p10失败不影响其他p10
+ * 同时在途的任务数有上限，几万个p10也不会一次性堆积在内存中。
+ * 签发线程只把结果文件交给ArtifactWriter，不等待写盘，回调前才等待该p10的文件写完。
+ * p10的解析和签名验证(私钥持有证明)是签发前单独的一级，在另一个同样大小的线程池中并行执行，
+ * 验证不通过的p10直接失败，不占用签发线程和根私钥签名
+ */
+public class BatchIssuer implements AutoCloseable {
+    /**
+     * 每个线程最多排队的任务数
+     */
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    private final CaService service;
+    private final ExecutorService executor;
+    private final ExecutorService verifier;
+    private final int maxInFlight;
+
+    public BatchIssuer(CaService service) {
+        this(service, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchIssuer(CaService service, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive:" + threads);
+        }
+        this.service = service;
+        this.maxInFlight = threads * IN_FLIGHT_PER_THREAD;
+        this.executor = Executors.newFixedThreadPool(threads, threadFactory("batch-issuer-"));
+        this.verifier = Executors.newFixedThreadPool(threads, threadFactory("batch-p10-verifier-"));
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * 待签发的p10
+     */
+    public static class Item {
+        private final String name;
+        private final String p10;
+
+        public Item(String name, String p10) {
+            this.name = name;
+            this.p10 = p10;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getP10() {
+            return p10;
+        }
+    }
+
+    /**
+     * 批量签发，每个p10的结果保存在savePath/name目录下
+     *
+     * @param items    待签发的p10
+     * @param type     single|double
+     * @param savePath 保存路径
+     * @param consumer 结果回调，按items顺序在调用线程上执行
+     * @throws InterruptedException
+     */
+    public void issue(List<Item> items, final String type, final String savePath, Consumer<IssueResult> consumer) throws InterruptedException {
+        issue(items, type, ArtifactWriter.shared(), savePath, consumer);
+    }
+
+    /**
+     * 批量签发，结果写入指定的输出目标
+     *
+     * @param items    待签发的p10
+     * @param type     single|double
+     * @param sink     输出目标
+     * @param savePath 每个p10的产物放在savePath/name下，为null时直接放在name下(归档条目名)
+     * @param consumer 结果回调，按items顺序在调用线程上执行
+     * @throws InterruptedException
+     */
+    public void issue(List<Item> items, final String type, final ArtifactSink sink, final String savePath, Consumer<IssueResult> consumer) throws InterruptedException {
+        if (!type.equalsIgnoreCase("single") && !type.equalsIgnoreCase("double")) {
+            throw new IllegalArgumentException("type is only support [single|double]!");
+        }
+        Deque<CompletableFuture<IssueResult>> inFlight = new ArrayDeque<>();
+        for (int i = 0; i < items.size(); i++) {
+            if (inFlight.size() >= maxInFlight) {
+                consumer.accept(take(inFlight.pollFirst()));
+            }
+            final int index = i;
+            final Item item = items.get(i);
+            inFlight.addLast(CompletableFuture.supplyAsync(() -> verifyOne(item), verifier)
+                    .thenComposeAsync(request -> issueOne(request, item, type, sink, savePath), executor)
+                    .handle((certs, e) -> null == e ? new IssueResult(index, item.getName(), certs, null)
+                            : new IssueResult(index, item.getName(), null, unwrap(e))));
+        }
+        while (!inFlight.isEmpty()) {
+            consumer.accept(take(inFlight.pollFirst()));
+        }
+    }
+
+    /**
+     * 批量签发并收集全部结果
+     *
+     * @param items
+     * @param type
+     * @param savePath
+     * @return 与items顺序一致的结果
+     * @throws InterruptedException
+     */
+    public List<IssueResult> issue(List<Item> items, String type, String savePath) throws InterruptedException {
+        List<IssueResult> results = new ArrayList<>(items.size());
+        issue(items, type, savePath, results::add);
+        return results;
+    }
+
+    /**
+     * 第一级：解析p10并验证签名
+     */
+    private P10Request verifyOne(Item item) {
+        try {
+            P10Request request = P10Request.parse(item.getP10());
+            service.verifyP10(request);
+            return request;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * 第二级：签发已验证的p10
+     */
+    private CompletableFuture<X509Certificate[]> issueOne(P10Request request, Item item, String type, ArtifactSink sink, String savePath) {
+        try {
+            String path = null == savePath ? item.getName() : savePath + "/" + item.getName();
+            CompletableFuture<X509Certificate[]> future = service.issueCertWithP10Async(request, type, sink, path);
+            if (type.equalsIgnoreCase("single")) {
+                final CompletableFuture<Void> written = sink.writeObject(path + "/user.cer", future.join()[0]);
+                future = future.thenCombine(written, (certs, v) -> certs);
+            }
+            return future;
+        } catch (Exception e) {
+            CompletableFuture<X509Certificate[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private static Exception unwrap(Throwable e) {
+        Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+        return cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+    }
+
+    private static IssueResult take(CompletableFuture<IssueResult> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            /**
+             * 各级的异常都已在handle中转为IssueResult，这里只可能是Error
+             */
+            throw new IllegalStateException("批量签发任务异常", e.getCause());
+        }
+    }
+
+    /**
+     * 读取批量p10
+     * path为目录时目录下每个文件一个p10，按文件名排序；path为文件时文件中可包含多个PEM格式的p10
+     *
+     * @param path 目录或多PEM文件
+     * @return
+     * @throws Exception
+     */
+    public static List<Item> readP10s(String path) throws Exception {
+        File file = new File(path);
+        List<Item> items = new ArrayList<>();
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (null == files) {
+                return items;
+            }
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.isFile()) {
+                    String name = f.getName();
+                    int dot = name.lastIndexOf('.');
+                    items.add(new Item(dot > 0 ? name.substring(0, dot) : name, FileUtil.readStringFromFile(f.getPath())));
+                }
+            }
+            return items;
+        }
+        return parseP10s(FileUtil.readStringFromFile(path));
+    }
+
+    /**
+     * 拆分包含多个PEM格式p10的文本，没有PEM头尾时按单个base64编码的p10处理
+     *
+     * @param content 文本
+     * @return 名称为序号
+     */
+    public static List<Item> parseP10s(String content) {
+        List<Item> items = new ArrayList<>();
+        int from = 0;
+        int head;
+        while ((head = content.indexOf(CertUtil.P10_HEAD, from)) >= 0) {
+            int tail = content.indexOf(CertUtil.P10_TAIL, head);
+            if (tail < 0) {
+                throw new IllegalArgumentException("p10缺少结束标记，位置:" + head);
+            }
+            from = tail + CertUtil.P10_TAIL.length();
+            items.add(new Item(String.valueOf(items.size()), content.substring(head, from)));
+        }
+        if (items.isEmpty() && !content.trim().isEmpty()) {
+            /**
+             * 没有PEM头尾，按单个base64编码的p10处理
+             */
+            items.add(new Item("0", content));
+        }
+        return items;
+    }
+
+    @Override
+    public void close() {
+        verifier.shutdown();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,234 @@
+package com.ggp.noob;
+
+import com.ggp.noob.asn1.SignAlgEnum;
+import com.ggp.noob.util.EngineCache;
+import com.ggp.noob.util.P10Request;
+import com.ggp.noob.util.SignatureUtil;
+import com.ggp.noob.util.Sm2Signature;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/15 14:00
+ * @Description: 批量验签，用于证书和p10的批量核对(如每晚用根公钥核对全部已签发证书)
+ * 输入先按公钥分组，同一公钥的签名排在一起，再交给ForkJoinPool按区间拆分，空闲线程窃取剩余区间。
+ * 同一区间内公钥不变时验签实例不重新init；同一SM2公钥的签名不少于PREPARE_THRESHOLD个时，
+ * 先为公钥Q建定点窗口表，所有线程共享，每次验签的sG+tQ变成两次查表。
+ * 结果为按输入顺序的位图，第i位为1表示第i个签名验证通过，格式错误、算法不支持等异常都记为不通过
+ */
+public class BatchVerifier implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchVerifier.class);
+    /**
+     * 单个任务最多验的签名数，再多就拆分
+     */
+    private static final int LEAF_SIZE = 32;
+    /**
+     * 建表约5ms，相当于二三十次普通验签
+     */
+    private static final int PREPARE_THRESHOLD = 64;
+
+    private final ForkJoinPool pool;
+
+    public BatchVerifier() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchVerifier(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive:" + threads);
+        }
+        this.pool = new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("batch-verifier-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    /**
+     * 待验证的签名
+     */
+    public static class Item {
+        private final byte[] message;
+        private final byte[] signature;
+        private final PublicKey key;
+        private final SignAlgEnum alg;
+
+        /**
+         * @param message   原文
+         * @param signature 签名值
+         * @param key       验签公钥
+         * @param alg       签名算法
+         */
+        public Item(byte[] message, byte[] signature, PublicKey key, SignAlgEnum alg) {
+            this.message = message;
+            this.signature = signature;
+            this.key = key;
+            this.alg = alg;
+        }
+
+        /**
+         * @param cert      证书
+         * @param issuerKey 颁发者公钥
+         * @return 证书的TBSCertificate和签名值
+         * @throws CertificateEncodingException
+         */
+        public static Item of(X509Certificate cert, PublicKey issuerKey) throws CertificateEncodingException {
+            return new Item(cert.getTBSCertificate(), cert.getSignature(), issuerKey, SignatureUtil.signAlg(new ASN1ObjectIdentifier(cert.getSigAlgOID())));
+        }
+
+        /**
+         * @param request p10
+         * @return p10的CertificationRequestInfo和签名值，公钥为p10自带的公钥
+         * @throws IOException
+         */
+        public static Item of(P10Request request) throws IOException {
+            return new Item(request.getSignedContent(), request.getSignature(), request.getPublicKey(), SignatureUtil.signAlg(request.getSignatureAlgorithm().getAlgorithm()));
+        }
+
+        public byte[] getMessage() {
+            return message;
+        }
+
+        public byte[] getSignature() {
+            return signature;
+        }
+    }
+
+    /**
+     * 批量验签
+     *
+     * @param items 待验证的签名
+     * @return 与items顺序一致的结果位图
+     */
+    public BitSet verify(List<Item> items) {
+        long start = System.nanoTime();
+        /** 按公钥分组，组内保持原顺序 */
+        Map<PublicKey, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            List<Integer> group = groups.get(items.get(i).key);
+            if (null == group) {
+                group = new ArrayList<>();
+                groups.put(items.get(i).key, group);
+            }
+            group.add(i);
+        }
+        int[] order = new int[items.size()];
+        PublicKey[] keys = new PublicKey[items.size()];
+        Sm2Signature.PreparedKey[] prepared = new Sm2Signature.PreparedKey[items.size()];
+        int position = 0;
+        for (Map.Entry<PublicKey, List<Integer>> entry : groups.entrySet()) {
+            Sm2Signature.PreparedKey preparedKey = prepare(entry.getKey(), entry.getValue().size());
+            for (Integer index : entry.getValue()) {
+                order[position] = index;
+                /** 同组统一用第一个公钥对象，EngineCache按对象判断是否需要重新init */
+                keys[position] = entry.getKey();
+                prepared[position] = preparedKey;
+                position++;
+            }
+        }
+        boolean[] valid = new boolean[items.size()];
+        pool.invoke(new VerifyTask(items, order, keys, prepared, valid, 0, order.length));
+        BitSet result = new BitSet(items.size());
+        for (int i = 0; i < valid.length; i++) {
+            if (valid[i]) {
+                result.set(i);
+            }
+        }
+        logger.info("批量验签完成 count={}, keys={}, passed={}, millis={}", items.size(), groups.size(), result.cardinality(), (System.nanoTime() - start) / 1000000);
+        return result;
+    }
+
+    private static Sm2Signature.PreparedKey prepare(PublicKey key, int count) {
+        if (count < PREPARE_THRESHOLD || !(key instanceof ECPublicKey)) {
+            return null;
+        }
+        try {
+            return Sm2Signature.prepare(key);
+        } catch (Exception e) {
+            /** 不是SM2公钥，逐个验签时再报错 */
+            return null;
+        }
+    }
+
+    private static final class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Item> items;
+        private final int[] order;
+        private final PublicKey[] keys;
+        private final Sm2Signature.PreparedKey[] prepared;
+        private final boolean[] valid;
+        private final int from;
+        private final int to;
+
+        private VerifyTask(List<Item> items, int[] order, PublicKey[] keys, Sm2Signature.PreparedKey[] prepared, boolean[] valid, int from, int to) {
+            this.items = items;
+            this.order = order;
+            this.keys = keys;
+            this.prepared = prepared;
+            this.valid = valid;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > LEAF_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new VerifyTask(items, order, keys, prepared, valid, from, middle),
+                        new VerifyTask(items, order, keys, prepared, valid, middle, to));
+                return;
+            }
+            Sm2Signature signature = null;
+            Sm2Signature.PreparedKey current = null;
+            for (int i = from; i < to; i++) {
+                Item item = items.get(order[i]);
+                try {
+                    if (null != prepared[i] && item.alg == SignAlgEnum.SM3_WITH_SM2) {
+                        if (null == signature) {
+                            signature = new Sm2Signature();
+                        }
+                        if (current != prepared[i]) {
+                            signature.initVerify(prepared[i]);
+                            current = prepared[i];
+                        }
+                        signature.update(item.message, 0, item.message.length);
+                        valid[order[i]] = signature.verify(item.signature);
+                    } else {
+                        valid[order[i]] = EngineCache.verify(item.alg.value, keys[i], item.message, item.signature);
+                    }
+                } catch (Exception e) {
+                    logger.debug("第{}个签名验证异常", order[i], e);
+                    valid[order[i]] = false;
+                    /** 异常时摘要可能停在中间状态，下一个重新init */
+                    current = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,338 @@
+package com.ggp.noob;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.P10Request;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.util.encoders.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/21 10:30
+ * @Description: 内嵌的http签发服务，基于jdk自带的HttpServer，不引入额外依赖
+ * 请求由HttpExecutor执行，同时处理和等待的请求数有上限，超出时返回503，不占用接收线程。
+ * 接口没有认证，/issueWithNoP10和/p12直接返回私钥，所以默认只监听本机回环地址，需要对外时放在带认证的代理之后。
+ * 所有请求都是POST，签发结果只在内存中，不落盘：
+ * /issue?type=single|double  请求体为p10(PEM或base64)，返回json
+ * /issueBatch?type=single|double  请求体为多个PEM格式的p10，交给BatchIssuer并行签发，
+ *                             返回{"rootCert":..,"results":[..]}，results与p10顺序一致，单个失败时该项为{"name":..,"error":..}
+ * /issueWithNoP10             无请求体，返回证书、根证书和私钥的json
+ * /p12                        请求体为p12密码(UTF-8)，不能为空，返回p12文件。密码不放在url中，避免出现在访问日志和代理中
+ * 出错时返回400和{"error":"..."}，请求过多时返回503和{"error":"server busy"}
+ */
+public class CaHttpServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CaHttpServer.class);
+    /**
+     * 请求体上限，p10一般只有1K左右
+     */
+    private static final int MAX_BODY = 64 * 1024;
+    /**
+     * 批量签发的请求体上限，约800个p10
+     */
+    private static final int MAX_BATCH_BODY = 1024 * 1024;
+
+    private final CaService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final BatchIssuer batchIssuer;
+
+    /**
+     * 只监听本机回环地址
+     *
+     * @param service
+     * @param port    端口，0表示随机
+     * @throws IOException
+     */
+    public CaHttpServer(CaService service, int port) throws IOException {
+        this(service, null, port);
+    }
+
+    /**
+     * @param service
+     * @param host    监听地址，null表示本机回环地址；接口没有认证，监听外部地址时要自行做好访问控制
+     * @param port    端口，0表示随机
+     * @throws IOException
+     */
+    public CaHttpServer(CaService service, String host, int port) throws IOException {
+        this(service, host, port, Constant.httpThreads, Constant.httpQueue);
+    }
+
+    /**
+     * @param service
+     * @param host    监听地址，null表示本机回环地址
+     * @param port    端口，0表示随机
+     * @param threads 同时处理的请求数
+     * @param queue   等待的请求数，再多的请求返回503
+     * @throws IOException
+     */
+    public CaHttpServer(CaService service, String host, int port, int threads, int queue) throws IOException {
+        this.service = service;
+        this.server = createServer(null == host ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(host, port));
+        this.executor = HttpExecutor.create("ca-http", threads, queue);
+        this.batchIssuer = new BatchIssuer(service);
+        server.setExecutor(executor);
+        server.createContext("/issue", new IssueHandler());
+        server.createContext("/issueBatch", new BatchHandler());
+        server.createContext("/issueWithNoP10", new NoP10Handler());
+        server.createContext("/p12", new P12Handler());
+    }
+
+    public void start() {
+        server.start();
+        logger.info("签发服务已启动，地址:{}", server.getAddress());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+        batchIssuer.close();
+    }
+
+    /**
+     * HttpServer的响应头和响应体分两次写出，开着Nagle时小响应会被客户端的延迟确认卡住约40ms，
+     * 所以没有显式配置时关闭Nagle。该属性在第一次创建HttpServer时读取
+     *
+     * @param address
+     * @return
+     * @throws IOException
+     */
+    static HttpServer createServer(InetSocketAddress address) throws IOException {
+        if (null == System.getProperty("sun.net.httpserver.nodelay")) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        return HttpServer.create(address, 0);
+    }
+
+    /**
+     * 统一处理方法校验、异常和响应
+     */
+    private abstract class Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (HttpExecutor.isOverloaded()) {
+                    JSONObject error = new JSONObject();
+                    error.put("error", "server busy");
+                    send(exchange, 503, "application/json", error.toJSONString().getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    JSONObject error = new JSONObject();
+                    error.put("error", "only POST is supported");
+                    send(exchange, 405, "application/json", error.toJSONString().getBytes(StandardCharsets.UTF_8));
+                    return;
+                }
+                byte[] body = readBody(exchange.getRequestBody(), maxBody());
+                Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                handle(exchange, body, query);
+            } catch (Exception e) {
+                logger.warn("处理请求失败 {}", exchange.getRequestURI(), e);
+                JSONObject error = new JSONObject();
+                error.put("error", null == e.getMessage() ? e.toString() : e.getMessage());
+                send(exchange, 400, "application/json", error.toJSONString().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        protected abstract void handle(HttpExchange exchange, byte[] body, Map<String, String> query) throws Exception;
+
+        protected int maxBody() {
+            return MAX_BODY;
+        }
+    }
+
+    private class IssueHandler extends Handler {
+        @Override
+        protected void handle(HttpExchange exchange, byte[] body, Map<String, String> query) throws Exception {
+            if (body.length == 0) {
+                throw new IllegalArgumentException("p10 is empty");
+            }
+            String type = query.containsKey("type") ? query.get("type") : "single";
+            P10Request request = P10Request.parse(new String(body, StandardCharsets.US_ASCII));
+            IssuedCert issued = service.issue(request, type);
+            JSONObject json = new JSONObject();
+            json.put("signCert", CertUtil.writeObjectToString(issued.getSignCert()));
+            json.put("rootCert", CertUtil.writeObjectToString(issued.getRootCert()));
+            if (issued.isDouble()) {
+                json.put("encCert", CertUtil.writeObjectToString(issued.getEncCert()));
+                json.put("signCertChain", issued.getSignCertChain());
+                json.put("encCertChain", issued.getEncCertChain());
+                json.put("signedAndEnvelopedData", Base64.toBase64String(issued.getEnvelope()));
+            }
+            sendJson(exchange, json);
+        }
+    }
+
+    private class BatchHandler extends Handler {
+        @Override
+        protected void handle(HttpExchange exchange, byte[] body, Map<String, String> query) throws Exception {
+            List<BatchIssuer.Item> items = BatchIssuer.parseP10s(new String(body, StandardCharsets.US_ASCII));
+            if (items.isEmpty()) {
+                throw new IllegalArgumentException("p10 is empty");
+            }
+            String type = query.containsKey("type") ? query.get("type") : "single";
+            MemorySink sink = new MemorySink();
+            List<IssueResult> issued = new ArrayList<>(items.size());
+            batchIssuer.issue(items, type, sink, null, issued::add);
+            JSONArray results = new JSONArray();
+            for (IssueResult result : issued) {
+                JSONObject json = new JSONObject();
+                json.put("name", result.getName());
+                if (!result.isSuccess()) {
+                    Exception e = result.getError();
+                    json.put("error", null == e.getMessage() ? e.toString() : e.getMessage());
+                    results.add(json);
+                    continue;
+                }
+                String path = result.getName() + "/";
+                /** 单证书时BatchIssuer写出的user.cer，和下面的签名证书相同 */
+                sink.remove(path + "user.cer");
+                json.put("signCert", CertUtil.writeObjectToString(result.getCerts()[0]));
+                if ("double".equalsIgnoreCase(type)) {
+                    json.put("encCert", CertUtil.writeObjectToString(result.getCerts()[1]));
+                    json.put("signCertChain", sink.getString(path + "signCert.p7b"));
+                    json.put("encCertChain", sink.getString(path + "encCert.p7b"));
+                    json.put("signedAndEnvelopedData", Base64.toBase64String(sink.remove(path + "signedAndEnvelopedData")));
+                }
+                results.add(json);
+            }
+            JSONObject json = new JSONObject();
+            json.put("rootCert", CertUtil.writeObjectToString(service.issuerContext().getCert()));
+            json.put("results", results);
+            sendJson(exchange, json);
+        }
+
+        @Override
+        protected int maxBody() {
+            return MAX_BATCH_BODY;
+        }
+    }
+
+    /**
+     * 批量签发的产物只放在内存中，回调时取出后删除
+     */
+    private static class MemorySink implements ArtifactSink {
+        private final Map<String, byte[]> artifacts = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<Void> write(String name, byte[]... contents) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] content : contents) {
+                out.write(content, 0, content.length);
+            }
+            artifacts.put(name, out.toByteArray());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        private byte[] remove(String name) {
+            return artifacts.remove(name);
+        }
+
+        private String getString(String name) {
+            byte[] content = artifacts.remove(name);
+            return null == content ? null : new String(content, StandardCharsets.UTF_8);
+        }
+    }
+
+    private class NoP10Handler extends Handler {
+        @Override
+        protected void handle(HttpExchange exchange, byte[] body, Map<String, String> query) throws Exception {
+            IssuedCert issued = service.issueWithNoP10();
+            JSONObject json = new JSONObject();
+            json.put("signCert", CertUtil.writeObjectToString(issued.getSignCert()));
+            json.put("rootCert", CertUtil.writeObjectToString(issued.getRootCert()));
+            json.put("privateKey", CertUtil.writeObjectToString(issued.getSignPrivateKey()));
+            sendJson(exchange, json);
+        }
+    }
+
+    private class P12Handler extends Handler {
+        @Override
+        protected void handle(HttpExchange exchange, byte[] body, Map<String, String> query) throws Exception {
+            if (body.length == 0) {
+                throw new IllegalArgumentException("p12 password is required in request body");
+            }
+            char[] password = new String(body, StandardCharsets.UTF_8).toCharArray();
+            Arrays.fill(body, (byte) 0);
+            byte[] p12;
+            try {
+                IssuedCert issued = service.issueWithNoP10();
+                p12 = service.createP12(issued, password);
+            } finally {
+                Arrays.fill(password, '\0');
+            }
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=user.p12");
+            send(exchange, 200, "application/x-pkcs12", p12);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, JSONObject json) throws IOException {
+        send(exchange, 200, "application/json", json.toJSONString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 带Content-Length响应，客户端可以复用连接
+     */
+    private static void send(HttpExchange exchange, int code, String contentType, byte[] data) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, data.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(data);
+        os.flush();
+    }
+
+    private static byte[] readBody(InputStream in, int maxBody) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            if (out.size() + len > maxBody) {
+                throw new IllegalArgumentException("request body too large");
+            }
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (null == rawQuery || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"), URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+}
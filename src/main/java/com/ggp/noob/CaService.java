@@ -1,51 +1,108 @@
 package com.ggp.noob;
 
-import com.ggp.noob.asn1.SignedAndEnvelopedData;
+import com.ggp.noob.asn1.AlgTypeEnum;
 import com.ggp.noob.pki.key.KeyUtil;
 import com.ggp.noob.pki.p10.P10Util;
-import com.ggp.noob.pki.pem.PemUtil;
 import com.ggp.noob.util.Asn1Util;
 import com.ggp.noob.util.CertUtil;
 import com.ggp.noob.util.FileUtil;
+import com.ggp.noob.util.P10Request;
+import com.ggp.noob.util.Sm2Util;
 import org.bouncycastle.asn1.x500.X500Name;
-import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.bouncycastle.openssl.PEMKeyPair;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 import org.bouncycastle.pkcs.PKCS10CertificationRequest;
-import org.bouncycastle.util.encoders.Base64;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.math.BigInteger;
 import java.security.*;
 import java.security.cert.X509Certificate;
-import java.security.interfaces.ECPublicKey;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * @Author:ggp
  * @Date:2020/8/11 15:00
  * @Description:
  */
-public class CaService {
+public class CaService implements Closeable {
     static {
         if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
             Security.addProvider(new BouncyCastleProvider());
         }
     }
 
+    /**
+     * 当前使用的签发者上下文，根私钥/根证书文件变化后整体替换
+     */
+    private final AtomicReference<IssuerContext> issuerContext = new AtomicReference<>();
+    /**
+     * 各算法的预生成密钥对池，首次使用时创建
+     */
+    private final Map<AlgTypeEnum, KeyPairPool> keyPairPools = new ConcurrentHashMap<>();
+    /**
+     * 签名验证不通过被拒绝的p10数
+     */
+    private final LongAdder rejectedP10s = new LongAdder();
+    /**
+     * 双证签发各级的执行器
+     */
+    private final Executor executor;
+    /**
+     * 默认构造时自己创建的线程池，随close关闭；外部传入的执行器由调用方管理，这里为null
+     */
+    private final ExecutorService ownedExecutor;
+
+    /**
+     * 双证签发用自己的线程池，线程数为CPU数，签名都是CPU密集的，不占用公共的ForkJoinPool
+     */
+    public CaService() {
+        ExecutorService executor = createExecutor(Runtime.getRuntime().availableProcessors());
+        this.executor = executor;
+        this.ownedExecutor = executor;
+    }
+
+    /**
+     * @param executor 双证签发时两张证书的签名、p7b和数字信封在其上并行执行，
+     *                 不要和调用issue的线程池用同一个有界线程池，否则调用方阻塞等待时可能占满线程
+     */
+    public CaService(Executor executor) {
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ca-issue-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     /**
      * 初始化，生成根证书
      */
     public void init(String alg) throws Exception {
         KeyPair keyPair;
         if (alg.equalsIgnoreCase("SM2")) {
-            keyPair = KeyUtil.createSm2KeyPair();
+            keyPair = Sm2Util.createKeyPair();
         } else if (alg.equalsIgnoreCase("RSA")) {
             keyPair = KeyUtil.createRSAKeyPair(2048);
         } else {
@@ -57,29 +114,37 @@ public class CaService {
         X509Certificate rootCert = CertUtil.generateCert("CN=root," + Constant.BASE_DN, "CN=root," + Constant.BASE_DN, BigInteger.valueOf(1L), notBefore, notAfter, keyPair.getPrivate(), keyPair.getPublic(), signAlg, null);
         CertUtil.writeObjectToFile(keyPair.getPrivate(), Constant.rootPri);
         CertUtil.writeObjectToFile(rootCert, Constant.rootCert);
+        issuerContext.set(null);
         System.out.println("初始化完成，生成根证书成功");
     }
     public void issueCertWithNoP10(String savePath) throws Exception{
-        X509Certificate rootCert = readRootCert();
-        String signAlg;
-        KeyPair keyPair;
-        if (rootCert.getPublicKey() instanceof ECPublicKey) {
-            signAlg = "SM3WITHSM2";
-            keyPair = KeyUtil.createSm2KeyPair();
-        } else {
-            signAlg = "SHA256WITHRSA";
-            keyPair = KeyUtil.createRSAKeyPair(2048);
-        }
+        IssuedCert issued = issueWithNoP10();
+        ArtifactWriter writer = ArtifactWriter.shared();
+        ArtifactWriter.await(writer.writeObject(savePath + "/user.cer", issued.getSignCert()),
+                writer.writeObject(savePath + "/root.cer", issued.getRootCert()),
+                writer.writeObject(savePath + "/user.key", issued.getSignPrivateKey()));
+        System.out.println("签发证书成功，证书位置" + savePath);
+    }
+
+    /**
+     * 无p10签发单证书，由CA生成用户密钥对，结果只在内存中
+     *
+     * @return 带签名私钥的签发结果
+     * @throws Exception
+     */
+    public IssuedCert issueWithNoP10() throws Exception {
+        IssuerContext context = issuerContext();
+        KeyPair keyPair = takeKeyPair(context);
         long current = System.currentTimeMillis();
         String dn = "CN=" + current + ",O=XDJA,C=CN";
         X500Name subject = new X500Name(dn);
-        PKCS10CertificationRequest p10 = P10Util.createP10(subject, signAlg, keyPair.getPublic(), keyPair.getPrivate());
-        X509Certificate[] chain = this.issueCertWithP10(false, Base64.toBase64String(p10.getEncoded()), "single", savePath);
-        PemUtil.writeObjectToFile(chain[0],savePath+"/user.cer");
-        PemUtil.writeObjectToFile(rootCert,savePath+"/root.cer");
-        PemUtil.writeObjectToFile(keyPair.getPrivate(),savePath+"/user.key");
-        System.out.println("签发证书成功，证书位置" + savePath);
+        PKCS10CertificationRequest p10 = P10Util.createP10(subject, context.getSignAlg(), keyPair.getPublic(), keyPair.getPrivate());
+        /** p10由CA自己用刚生成的私钥签出，不用再验证 */
+        IssuedCert issued = issueVerified(P10Request.parse(p10.getEncoded()), "single");
+        issued.setSignPrivateKey(keyPair.getPrivate());
+        return issued;
     }
+
     /**
      * 通过p10生成双证书
      *
@@ -87,104 +152,430 @@ public class CaService {
      * @throws Exception
      */
     public X509Certificate[] issueCertWithP10(boolean isPath, String p10PathOrStr, String type, String savePath) throws Exception {
-        X509Certificate[] certs;
         String p10 = null;
         if (isPath) {
             p10 = FileUtil.readStringFromFile(p10PathOrStr);
         }else{
             p10=p10PathOrStr;
         }
-        PublicKey signPub = CertUtil.getPublicKeyFromP10(p10);
-        String subject = CertUtil.getSubjectFromP10(p10);
-        KeyPair rootKeyPair = readRootKeyPair();
-        String signAlg;
-        KeyPair encKeyPair;
-        if (rootKeyPair.getPublic() instanceof ECPublicKey) {
-            signAlg = "SM3WITHSM2";
-            encKeyPair = KeyUtil.createSm2KeyPair();
-        } else {
-            signAlg = "SHA256WITHRSA";
-            encKeyPair = KeyUtil.createRSAKeyPair(2048);
-        }
-        long current = System.currentTimeMillis();
-        Date notBefore = new Date(current);
-        Date notAfter = new Date(current + Constant.validity);
-        X509Certificate signCert = CertUtil.generateCert("CN=root," + Constant.BASE_DN, subject, BigInteger.valueOf(current), notBefore, notAfter, rootKeyPair.getPrivate(), signPub, signAlg, null);
-        X509Certificate encCert = CertUtil.generateCert("CN=root," + Constant.BASE_DN, subject, BigInteger.valueOf(current), notBefore, notAfter, rootKeyPair.getPrivate(), encKeyPair.getPublic(), signAlg, null);
-        String path = savePath + "/";
-        if (type.equalsIgnoreCase("single")) {
+        CompletableFuture<X509Certificate[]> future = issueCertWithP10Async(p10, type, ArtifactWriter.shared(), savePath);
+        ArtifactWriter.await(future);
+        System.out.println("签发证书成功，证书位置" + savePath + "/");
+        return future.join();
+    }
+
+    /**
+     * 通过p10签发证书，双证书的p7b和数字信封交给sink异步写出
+     *
+     * @param p10  p10(PEM或base64)
+     * @param type single|double
+     * @param sink 输出目标
+     * @param dir  ArtifactWriter时为保存路径，ArtifactArchive时为条目名前缀
+     * @return 写出后完成，结果为签名证书、加密证书
+     * @throws Exception 签发失败
+     */
+    CompletableFuture<X509Certificate[]> issueCertWithP10Async(String p10, String type, ArtifactSink sink, String dir) throws Exception {
+        P10Request request = P10Request.parse(p10);
+        verifyP10(request);
+        return issueCertWithP10Async(request, type, sink, dir);
+    }
+
+    /**
+     * 用已通过{@link #verifyP10(P10Request)}的p10签发证书，批量签发时验签在前面单独的阶段完成
+     *
+     * @param request 已验证的p10
+     * @param type    single|double
+     * @param sink    输出目标
+     * @param dir     见issueCertWithP10Async(String, String, ArtifactSink, String)
+     * @return
+     * @throws Exception 签发失败
+     */
+    CompletableFuture<X509Certificate[]> issueCertWithP10Async(P10Request request, String type, final ArtifactSink sink, String dir) {
+        final String path = dir + "/";
+        return issueVerifiedAsync(request, type).thenCompose(issued -> {
+            final X509Certificate[] certs;
+            if (issued.isDouble()) {
+                certs = new X509Certificate[3];
+                certs[0] = issued.getSignCert();
+                certs[1] = issued.getEncCert();
+                try {
+                    return CompletableFuture.allOf(sink.writeString(path + "signCert.p7b", issued.getSignCertChain()),
+                            sink.writeString(path + "encCert.p7b", issued.getEncCertChain()),
+                            sink.write(path + "signedAndEnvelopedData", issued.getEnvelope())).thenApply(v -> certs);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }
             certs = new X509Certificate[2];
-            certs[0] = signCert;
-        } else if (type.equalsIgnoreCase("double")) {
-            certs = new X509Certificate[3];
-            certs[0] = signCert;
-            certs[1] = encCert;
-            this.complete(signCert, encCert, path, signPub, encKeyPair.getPrivate());
-        } else {
-            throw new IllegalArgumentException("type is only support [single|double]!");
+            certs[0] = issued.getSignCert();
+            return CompletableFuture.completedFuture(certs);
+        });
+    }
+
+    /**
+     * 通过p10签发证书，结果只在内存中
+     *
+     * @param request 已解析的p10
+     * @param type    single|double
+     * @return
+     * @throws SignatureException p10签名验证不通过
+     * @throws Exception
+     */
+    public IssuedCert issue(P10Request request, String type) throws Exception {
+        verifyP10(request);
+        return issueVerified(request, type);
+    }
+
+    /**
+     * 验证p10的签名(私钥持有证明)，不通过时计入被拒绝的p10数
+     *
+     * @param request 已解析的p10
+     * @throws SignatureException 签名不正确、算法不支持或公钥无法解析
+     */
+    public void verifyP10(P10Request request) throws SignatureException {
+        boolean valid;
+        try {
+            valid = request.verify();
+        } catch (Exception e) {
+            rejectedP10s.increment();
+            throw new SignatureException("p10签名验证失败:" + e.getMessage(), e);
+        }
+        if (!valid) {
+            rejectedP10s.increment();
+            throw new SignatureException("p10签名验证失败，主体:" + request.getSubjectString());
         }
-        System.out.println("签发证书成功，证书位置" + path);
-        return certs;
     }
 
-    public void issueP12WithNoP10(String savePath) throws Exception {
-        X509Certificate rootCert = readRootCert();
-        String signAlg;
-        KeyPair keyPair;
-        if (rootCert.getPublicKey() instanceof ECPublicKey) {
-            signAlg = "SM3WITHSM2";
-            keyPair = KeyUtil.createSm2KeyPair();
-        } else {
-            signAlg = "SHA256WITHRSA";
-            keyPair = KeyUtil.createRSAKeyPair(2048);
+    /**
+     * @return 签名验证不通过被拒绝的p10数
+     */
+    public long getRejectedP10Count() {
+        return rejectedP10s.sum();
+    }
+
+    private IssuedCert issueVerified(P10Request request, String type) throws Exception {
+        return await(issueVerifiedAsync(request, type));
+    }
+
+    /**
+     * 签发已验证的p10。单证在调用线程上直接完成；
+     * 双证拆成几级在executor上执行：签名证书和加密密钥对同时开始，
+     * 加密密钥对取到后加密证书和数字信封并行，两条p7b各自在对应证书签好后生成，全部完成后合成一个结果
+     *
+     * @param request 已验证的p10
+     * @param type    single|double
+     * @return
+     */
+    private CompletableFuture<IssuedCert> issueVerifiedAsync(P10Request request, String type) {
+        try {
+            boolean isDouble;
+            if (type.equalsIgnoreCase("single")) {
+                isDouble = false;
+            } else if (type.equalsIgnoreCase("double")) {
+                isDouble = true;
+            } else {
+                throw new IllegalArgumentException("type is only support [single|double]!");
+            }
+            final PublicKey signPub = request.getPublicKey();
+            final String subject = request.getSubjectString();
+            final IssuerContext context = issuerContext();
+            long current = System.currentTimeMillis();
+            final Date notBefore = new Date(current);
+            final Date notAfter = new Date(current + Constant.validity);
+            SerialAllocator serialAllocator = SerialAllocator.forFile(Constant.serialFile);
+            final CertRepository repository = CertRepository.forDir(Constant.repoDir);
+            if (!isDouble) {
+                X509Certificate signCert = generateCert(context, repository, subject, serialAllocator.next(), notBefore, notAfter, signPub);
+                return CompletableFuture.completedFuture(new IssuedCert(context.getCert(), signCert));
+            }
+            final BigInteger signSn = serialAllocator.next();
+            final BigInteger encSn = serialAllocator.next();
+            final CompletableFuture<X509Certificate> signCert = async(() -> generateCert(context, repository, subject, signSn, notBefore, notAfter, signPub));
+            final CompletableFuture<KeyPair> encKeyPair = async(() -> takeKeyPair(context));
+            final CompletableFuture<X509Certificate> encCert = encKeyPair.thenCompose(keyPair -> async(() -> generateCert(context, repository, subject, encSn, notBefore, notAfter, keyPair.getPublic())));
+            final CompletableFuture<byte[]> envelope = encKeyPair.thenCompose(keyPair -> async(() -> createEnvelope(context, signPub, keyPair.getPrivate())));
+            final CompletableFuture<String> signCertChain = signCert.thenCompose(cert -> async(() -> createCertChain(context, cert)));
+            final CompletableFuture<String> encCertChain = encCert.thenCompose(cert -> async(() -> createCertChain(context, cert)));
+            return CompletableFuture.allOf(signCertChain, encCertChain, envelope).thenApply(v -> {
+                IssuedCert issued = new IssuedCert(context.getCert(), signCert.join());
+                issued.setEncCert(encCert.join());
+                issued.setEncPrivateKey(encKeyPair.join().getPrivate());
+                issued.setSignCertChain(signCertChain.join());
+                issued.setEncCertChain(encCertChain.join());
+                issued.setEnvelope(envelope.join());
+                return issued;
+            });
+        } catch (Exception e) {
+            CompletableFuture<IssuedCert> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
         }
-        long current = System.currentTimeMillis();
-        String dn = "CN=" + current + ",O=XDJA,C=CN";
-        X500Name subject = new X500Name(dn);
-        PKCS10CertificationRequest p10 = P10Util.createP10(subject, signAlg, keyPair.getPublic(), keyPair.getPrivate());
-        X509Certificate[] chain = this.issueCertWithP10(false, Base64.toBase64String(p10.getEncoded()), "single", savePath);
+    }
+
+    /**
+     * 签发一张证书并加入证书库
+     */
+    private X509Certificate generateCert(IssuerContext context, CertRepository repository, String subject, BigInteger sn, Date notBefore, Date notAfter, PublicKey publicKey) throws Exception {
+        X509Certificate cert = CertUtil.generateCert(context.getIssuerName(), subject, sn, notBefore, notAfter, context.getKeyPair(), publicKey, context.getSignAlg(), null);
+        repository.add(cert);
+        return cert;
+    }
+
+    /**
+     * 在executor上执行一级，受检异常包装成CompletionException
+     */
+    private <T> CompletableFuture<T> async(final Callable<T> stage) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return stage.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * 等待完成，失败时抛出原始异常
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 批量通过p10签发证书，每个p10的结果保存在savePath下以p10名称命名的目录中
+     *
+     * @param p10Path  p10目录或包含多个p10的PEM文件
+     * @param type     single|double
+     * @param savePath 保存路径
+     * @throws Exception
+     */
+    public void issueBatch(String p10Path, String type, String savePath) throws Exception {
+        issueBatch(p10Path, type, savePath, false);
+    }
+
+    /**
+     * 批量通过p10签发证书
+     *
+     * @param p10Path  p10目录或包含多个p10的PEM文件
+     * @param type     single|double
+     * @param savePath archive为false时为保存目录；为true时为归档文件，条目名为 p10名称/文件名
+     * @param archive  是否输出为一个归档文件，见ArtifactArchive
+     * @throws Exception
+     */
+    public void issueBatch(String p10Path, String type, String savePath, boolean archive) throws Exception {
+        List<BatchIssuer.Item> items = BatchIssuer.readP10s(p10Path);
+        long start = System.currentTimeMillis();
+        long rejected = rejectedP10s.sum();
+        AtomicInteger failed = new AtomicInteger();
+        Consumer<IssueResult> consumer = result -> {
+            if (!result.isSuccess()) {
+                failed.incrementAndGet();
+                System.out.println("签发失败 " + result.getName() + ":" + result.getError());
+            }
+        };
+        try (BatchIssuer issuer = new BatchIssuer(this)) {
+            if (archive) {
+                try (ArtifactArchive output = new ArtifactArchive(savePath)) {
+                    issuer.issue(items, type, output, null, consumer);
+                }
+            } else {
+                issuer.issue(items, type, savePath, consumer);
+            }
+        }
+        long cost = System.currentTimeMillis() - start;
+        System.out.println("批量签发完成，共" + items.size() + "个，失败" + failed.get() + "个(其中p10验签不通过" + (rejectedP10s.sum() - rejected) + "个)，耗时" + cost + "ms，证书位置" + savePath);
+        for (KeyPairPool pool : keyPairPools.values()) {
+            System.out.println(pool);
+        }
+    }
+
+    public void issueP12WithNoP10(String savePath) throws Exception {
+        IssuedCert issued = issueWithNoP10();
         String path = savePath + "/user.p12";
+        char[] pwd = "111111".toCharArray();
+        ArtifactWriter.await(ArtifactWriter.shared().write(path, createP12(issued, pwd)));
+        System.out.println("文件保护密码6个1");
+    }
+
+    /**
+     * 生成p12，包含签名私钥和用户证书、根证书
+     *
+     * @param issued 无p10签发的结果
+     * @param pwd    保护密码
+     * @return p12编码
+     * @throws Exception
+     */
+    public byte[] createP12(IssuedCert issued, char[] pwd) throws Exception {
+        if (null == issued.getSignPrivateKey()) {
+            throw new IllegalArgumentException("签发结果中没有私钥，不能生成p12");
+        }
         KeyStore keyStore = KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
         keyStore.load(null, null);
-        chain[1] = rootCert;
-        char[] pwd = "111111".toCharArray();
-        keyStore.setKeyEntry("user", keyPair.getPrivate(), pwd, chain);
-        OutputStream os = new FileOutputStream(path);
+        X509Certificate[] chain = new X509Certificate[]{issued.getSignCert(), issued.getRootCert()};
+        keyStore.setKeyEntry("user", issued.getSignPrivateKey(), pwd, chain);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
         keyStore.store(os, pwd);
-        os.close();
-        System.out.println("文件保护密码6个1");
+        return os.toByteArray();
+    }
+
+    /**
+     * 吊销证书，证书必须是本CA签发、已记录在证书库中的
+     *
+     * @param serial 序列号
+     * @param reason 吊销原因，RFC5280 CRLReason，0表示未指定
+     * @return 已经吊销过时返回false
+     * @throws Exception
+     */
+    public boolean revoke(BigInteger serial, int reason) throws Exception {
+        /** 吊销可能在签发进程之外执行，只读打开证书库，查不到时先跟进签发进程新写的证书 */
+        CertRepository repository = CertRepository.forDirReadOnly(Constant.repoDir);
+        if (null == repository.findBySerial(serial)) {
+            repository.refresh();
+        }
+        if (null == repository.findBySerial(serial)) {
+            throw new IllegalArgumentException("证书不存在:" + serial.toString(16));
+        }
+        return RevocationRegistry.forDir(Constant.crlDir).revoke(serial, System.currentTimeMillis(), reason);
+    }
+
+    /**
+     * 吊销检查，供证书验证和OCSP使用，未吊销的大多由布隆过滤器直接返回
+     *
+     * @param serial 序列号
+     * @return 是否已吊销
+     */
+    public boolean isRevoked(BigInteger serial) {
+        return RevocationRegistry.forDir(Constant.crlDir).isRevoked(serial);
+    }
+
+    /**
+     * @return 吊销检查前的过滤器，可查看误判率
+     */
+    public RevocationFilter getRevocationFilter() {
+        return RevocationRegistry.forDir(Constant.crlDir).getRevoked().getFilter();
+    }
+
+    /**
+     * 生成完整CRL，同时作为之后增量CRL的基准
+     *
+     * @return DER编码
+     * @throws Exception
+     */
+    public byte[] generateCrl() throws Exception {
+        return generateCrl(RevocationRegistry.forDir(Constant.crlDir).full());
     }
 
-    private KeyPair readRootKeyPair() throws Exception {
-        JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
-        PEMKeyPair pemKeyPair = (PEMKeyPair) CertUtil.readPEM(new File(Constant.rootPri));
-        return converter.getKeyPair(pemKeyPair);
+    /**
+     * 生成增量CRL，只包含上一次完整CRL之后的吊销
+     *
+     * @return DER编码
+     * @throws Exception
+     */
+    public byte[] generateDeltaCrl() throws Exception {
+        return generateCrl(RevocationRegistry.forDir(Constant.crlDir).delta());
     }
 
-    private X509Certificate readRootCert() throws Exception {
-        X509CertificateHolder holder = (X509CertificateHolder) CertUtil.readPEM(new File(Constant.rootCert));
-        JcaX509CertificateConverter converter = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
-        return converter.getCertificate(holder);
+    private byte[] generateCrl(RevocationRegistry.Cut cut) throws Exception {
+        long current = System.currentTimeMillis();
+        return CrlGenerator.generate(issuerContext(), cut.getEntries(), cut.getCrlNumber(), cut.getBaseCrlNumber(),
+                new Date(current), new Date(current + Constant.crlNextUpdate));
     }
 
     /**
-     * 生成签名p7b，加密p7b，加密私钥数字信封0010
+     * 生成CRL文件
      *
-     * @param signCert
-     * @param encCert
-     * @param path
-     * @param privateKey
+     * @param savePath 保存目录
+     * @param delta    是否增量CRL
+     * @throws Exception
      */
-    private void complete(X509Certificate signCert, X509Certificate encCert, String path, PublicKey publicKey, PrivateKey privateKey) throws Exception {
-        X509Certificate rootCert = readRootCert();
-        List<X509Certificate> list = new ArrayList<>();
-        list.add(rootCert);
-        list.add(signCert);
-        FileUtil.writeStringToFile(path + "signCert.p7b", CertUtil.createCertChainByCerts(list));
-        list.remove(signCert);
-        list.add(encCert);
-        FileUtil.writeStringToFile(path + "encCert.p7b", CertUtil.createCertChainByCerts(list));
-        SignedAndEnvelopedData data = Asn1Util.generateSignedAndEnvelopedData(2, publicKey, privateKey, "CN=root," + Constant.BASE_DN, "1");
-        FileUtil.writeBytesToFile(path + "signedAndEnvelopedData", data.getEncoded());
+    public void generateCrl(String savePath, boolean delta) throws Exception {
+        String path = savePath + (delta ? "/delta.crl" : "/root.crl");
+        FileUtil.writeBytesToFile(path, delta ? generateDeltaCrl() : generateCrl());
+        System.out.println("生成CRL成功，文件位置" + path);
+    }
+
+    /**
+     * 从预生成池中取一个与根密钥同算法的密钥对
+     *
+     * @param context
+     * @return
+     * @throws Exception
+     */
+    private KeyPair takeKeyPair(IssuerContext context) throws Exception {
+        return keyPairPool(context.isSm2() ? AlgTypeEnum.SM2 : AlgTypeEnum.RSA).take();
+    }
+
+    /**
+     * 获取指定算法的预生成密钥对池
+     *
+     * @param alg
+     * @return
+     */
+    public KeyPairPool keyPairPool(AlgTypeEnum alg) {
+        return keyPairPools.computeIfAbsent(alg, KeyPairPool::create);
+    }
+
+    /**
+     * 获取签发者上下文，首次使用或根私钥/根证书文件变化时才重新解析PEM
+     *
+     * @return
+     * @throws Exception
+     */
+    public IssuerContext issuerContext() throws Exception {
+        IssuerContext current = issuerContext.get();
+        if (null != current && !current.isStale()) {
+            return current;
+        }
+        IssuerContext loaded = IssuerContext.load(Constant.rootPri, Constant.rootCert);
+        /**
+         * 并发加载时只保留一个，失败的一方直接使用自己加载的结果
+         */
+        issuerContext.compareAndSet(current, loaded);
+        return loaded;
+    }
+
+    /**
+     * 生成根证书+用户证书的p7b，直接拼接预先编码的根证书和SignedData结构
+     *
+     * @param context
+     * @param cert    签名证书或加密证书
+     * @return
+     */
+    private static String createCertChain(IssuerContext context, X509Certificate cert) throws Exception {
+        return context.getChainEncoder().encodePem(cert);
+    }
+
+    /**
+     * 生成加密私钥数字信封0010
+     *
+     * @param context
+     * @param publicKey  签名公钥
+     * @param encPrivate 加密私钥
+     * @return
+     */
+    private static byte[] createEnvelope(IssuerContext context, PublicKey publicKey, PrivateKey encPrivate) throws Exception {
+        int alg = context.isSm2() ? AlgTypeEnum.SM2.alg : AlgTypeEnum.RSA.alg;
+        return Asn1Util.encodeSignedAndEnvelopedData(alg, publicKey, encPrivate, "CN=root," + Constant.BASE_DN, "1");
+    }
+
+    /**
+     * 关闭自己创建的线程池和密钥对池，外部传入的执行器不关闭
+     */
+    @Override
+    public void close() {
+        if (null != ownedExecutor) {
+            ownedExecutor.shutdown();
+        }
+        for (KeyPairPool pool : keyPairPools.values()) {
+            pool.close();
+        }
+        keyPairPools.clear();
     }
 }
@@ -0,0 +1,468 @@
+package com.ggp.noob;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/23 10:10
+ * @Description: 证书库的一个有序索引，条目为定长的 key||段号(4字节)||段内偏移(8字节)，按无符号字节序排序
+ * 新条目先进内存表，攒够后整体写成一个有序的run文件并mmap，查询时在内存表和每个run上二分查找，
+ * 查询代价是O(run数 * log n)。
+ * run按大小分层，同一层的run攒够一定数量后归并为上一层的一个run（见plan），每条条目只被重写O(层数)次，
+ * 不会因为一次合并把整个索引重写一遍；归并在证书库的后台线程里做，写完后用commit整体替换。
+ * 条目里带有位置，同一个key可以有多个条目（主体、有效期索引就是这样）。
+ * 写操作（put/flush/plan/commit）由证书库持锁串行调用，Compaction.run和查询不加锁。
+ * 合并掉的run由证书库在新检查点写好后删除
+ */
+final class CertIndex {
+    static final int LOCATION_LENGTH = 12;
+    static final Comparator<byte[]> ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            return CertIndex.compare(a, b, Math.min(a.length, b.length));
+        }
+    };
+    private static final int MAGIC = 0x43495831;
+    private static final int HEADER_LENGTH = 16;
+
+    private final File dir;
+    private final String name;
+    private final int keyLength;
+    private final int entryLength;
+    /**
+     * 发布顺序：先发布新的runs再替换内存表，查询时先读内存表再读runs，条目不会在两边同时缺失
+     */
+    private volatile NavigableSet<byte[]> memtable = new ConcurrentSkipListSet<>(ORDER);
+    private volatile Run[] runs = new Run[0];
+    private long nextRunId;
+
+    CertIndex(File dir, String name, int keyLength) {
+        this.dir = dir;
+        this.name = name;
+        this.keyLength = keyLength;
+        this.entryLength = keyLength + LOCATION_LENGTH;
+    }
+
+    /**
+     * 打开检查点中记录的run文件
+     *
+     * @param runIds  检查点中的run编号
+     * @param cleanup 是否删除其余残留的run文件，只读打开时为false，那些可能是写入进程刚写出、还没进检查点的run
+     * @throws IOException
+     */
+    void open(long[] runIds, boolean cleanup) throws IOException {
+        Run[] opened = new Run[runIds.length];
+        for (int i = 0; i < runIds.length; i++) {
+            opened[i] = Run.open(runFile(runIds[i]), runIds[i], entryLength);
+            nextRunId = Math.max(nextRunId, runIds[i] + 1);
+        }
+        File[] files = cleanup ? dir.listFiles() : null;
+        if (null != files) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.startsWith(name + "-") && fileName.endsWith(".run") && !isLive(opened, file)) {
+                    file.delete();
+                }
+            }
+        }
+        runs = opened;
+    }
+
+    private static boolean isLive(Run[] runs, File file) {
+        for (Run run : runs) {
+            if (run.file.equals(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void put(byte[] key, int segment, long offset) {
+        if (key.length != keyLength) {
+            throw new IllegalArgumentException(name + " key length must be " + keyLength);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(entryLength);
+        entry.put(key).putInt(segment).putLong(offset);
+        memtable.add(entry.array());
+    }
+
+    /**
+     * 内存表写成新的run文件，不做合并
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        NavigableSet<byte[]> current = memtable;
+        if (current.isEmpty()) {
+            return;
+        }
+        long id = nextRunId++;
+        File file = runFile(id);
+        write(file, current.size(), current);
+        Run[] old = runs;
+        Run[] added = Arrays.copyOf(old, old.length + 1);
+        added[old.length] = Run.open(file, id, entryLength);
+        runs = added;
+        memtable = new ConcurrentSkipListSet<>(ORDER);
+    }
+
+    /**
+     * 挑出需要合并的run：条目数小于base*fanout的在第0层，之后每层的大小是上一层的fanout倍，
+     * 从最低层开始，某一层有fanout个run时整层合并
+     *
+     * @param fanout 每层攒够多少个run合并一次
+     * @param base   第0层run的大小，即落盘阈值
+     * @return 没有需要合并的层时返回null
+     */
+    Compaction plan(int fanout, long base) {
+        Run[] inputs = pick(runs, fanout, base);
+        return null == inputs ? null : new Compaction(inputs, nextRunId++);
+    }
+
+    boolean needsCompaction(int fanout, long base) {
+        return null != pick(runs, fanout, base);
+    }
+
+    private static Run[] pick(Run[] snapshot, int fanout, long base) {
+        if (fanout < 2 || snapshot.length < fanout) {
+            return null;
+        }
+        int[] tiers = new int[snapshot.length];
+        int top = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            tiers[i] = tier(snapshot[i].count, fanout, base);
+            top = Math.max(top, tiers[i]);
+        }
+        for (int tier = 0; tier <= top; tier++) {
+            List<Run> inputs = new ArrayList<>();
+            for (int i = 0; i < snapshot.length; i++) {
+                if (tiers[i] == tier) {
+                    inputs.add(snapshot[i]);
+                }
+            }
+            if (inputs.size() >= fanout) {
+                return inputs.toArray(new Run[0]);
+            }
+        }
+        return null;
+    }
+
+    private static int tier(long count, int fanout, long base) {
+        int tier = 0;
+        for (long limit = base * fanout; count >= limit && limit > 0; limit *= fanout) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * 查找key在[from, to]之间的条目，按key有序
+     *
+     * @param from  起始key，包含
+     * @param to    结束key，包含
+     * @param limit 最多返回的条目数
+     * @return 条目
+     */
+    List<byte[]> search(byte[] from, byte[] to, int limit) {
+        byte[] low = Arrays.copyOf(from, entryLength);
+        byte[] high = Arrays.copyOf(to, entryLength);
+        Arrays.fill(high, keyLength, entryLength, (byte) 0xFF);
+        NavigableSet<byte[]> table = memtable;
+        Run[] snapshot = runs;
+        TreeSet<byte[]> result = new TreeSet<>(ORDER);
+        for (byte[] entry : table.subSet(low, true, high, true)) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(entry);
+        }
+        for (Run run : snapshot) {
+            run.search(low, high, limit, result);
+        }
+        List<byte[]> list = new ArrayList<>(Math.min(limit, result.size()));
+        for (byte[] entry : result) {
+            if (list.size() >= limit) {
+                break;
+            }
+            list.add(entry);
+        }
+        return list;
+    }
+
+    long[] runIds() {
+        Run[] snapshot = runs;
+        long[] ids = new long[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            ids[i] = snapshot[i].id;
+        }
+        return ids;
+    }
+
+    /**
+     * @return run中的条目数，不含内存表
+     */
+    long persistedCount() {
+        long count = 0;
+        for (Run run : runs) {
+            count += run.count;
+        }
+        return count;
+    }
+
+    static int segment(byte[] entry) {
+        return ByteBuffer.wrap(entry, entry.length - LOCATION_LENGTH, 4).getInt();
+    }
+
+    static long offset(byte[] entry) {
+        return ByteBuffer.wrap(entry, entry.length - 8, 8).getLong();
+    }
+
+    private File runFile(long id) {
+        return new File(dir, String.format("%s-%08d.run", name, id));
+    }
+
+    private void write(File file, long count, Iterable<byte[]> entries) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 256 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(entryLength);
+            out.writeLong(count);
+            for (byte[] entry : entries) {
+                out.write(entry);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            int x = a[i] & 0xFF;
+            int y = b[i] & 0xFF;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * 一次合并：plan时确定输入的run和新run编号，run在后台写新文件，commit时把输入替换为新run。
+     * 输入的run文件不在这里删除：检查点还引用着它们，先删再写检查点时中间崩溃会导致检查点指向不存在的文件
+     */
+    final class Compaction {
+        private final Run[] inputs;
+        private final long id;
+        private Run output;
+
+        private Compaction(Run[] inputs, long id) {
+            this.inputs = inputs;
+            this.id = id;
+        }
+
+        /**
+         * 归并写出新的run，只读输入的run，不需要持锁
+         *
+         * @throws IOException
+         */
+        void run() throws IOException {
+            long total = 0;
+            for (Run run : inputs) {
+                total += run.count;
+            }
+            File file = runFile(id);
+            write(file, total, new Iterable<byte[]>() {
+                @Override
+                public Iterator<byte[]> iterator() {
+                    return new MergeIterator(inputs);
+                }
+            });
+            output = Run.open(file, id, entryLength);
+        }
+
+        /**
+         * 用新run替换输入的run，期间新落盘的run保留
+         *
+         * @return 被合并掉的run文件
+         */
+        List<File> commit() {
+            List<Run> kept = new ArrayList<>();
+            for (Run run : runs) {
+                if (!Arrays.asList(inputs).contains(run)) {
+                    kept.add(run);
+                }
+            }
+            kept.add(output);
+            runs = kept.toArray(new Run[0]);
+            List<File> superseded = new ArrayList<>(inputs.length);
+            for (Run run : inputs) {
+                superseded.add(run.file);
+            }
+            return superseded;
+        }
+
+        /**
+         * 合并失败或放弃时删除写了一半的新文件
+         */
+        void discard() {
+            runFile(id).delete();
+        }
+    }
+
+    /**
+     * 一个只读的有序run文件，超过2G时分多段映射
+     */
+    private static final class Run {
+        private final long id;
+        private final File file;
+        private final int entryLength;
+        private final long count;
+        private final int perChunk;
+        private final MappedByteBuffer[] chunks;
+
+        private Run(long id, File file, int entryLength, long count, MappedByteBuffer[] chunks) {
+            this.id = id;
+            this.file = file;
+            this.entryLength = entryLength;
+            this.count = count;
+            this.perChunk = Integer.MAX_VALUE / entryLength;
+            this.chunks = chunks;
+        }
+
+        private static Run open(File file, long id, int entryLength) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() < HEADER_LENGTH || header.getInt() != MAGIC || header.getInt() != entryLength) {
+                    throw new IOException("索引文件格式错误:" + file);
+                }
+                long count = header.getLong();
+                if (channel.size() < HEADER_LENGTH + count * entryLength) {
+                    throw new IOException("索引文件不完整:" + file);
+                }
+                long perChunk = Integer.MAX_VALUE / entryLength;
+                int chunkCount = (int) ((count + perChunk - 1) / perChunk);
+                MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+                for (int i = 0; i < chunkCount; i++) {
+                    long entries = Math.min(perChunk, count - i * perChunk);
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_LENGTH + i * perChunk * entryLength, entries * entryLength);
+                }
+                return new Run(id, file, entryLength, count, chunks);
+            }
+        }
+
+        private void read(long index, byte[] dst) {
+            ByteBuffer chunk = chunks[(int) (index / perChunk)].duplicate();
+            chunk.position((int) (index % perChunk) * entryLength);
+            chunk.get(dst);
+        }
+
+        /**
+         * @return 第一个不小于key的条目下标
+         */
+        private long lowerBound(byte[] key) {
+            byte[] entry = new byte[entryLength];
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                read(mid, entry);
+                if (compare(entry, key, entryLength) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void search(byte[] low, byte[] high, int limit, TreeSet<byte[]> result) {
+            int added = 0;
+            for (long i = lowerBound(low); i < count && added < limit; i++) {
+                byte[] entry = new byte[entryLength];
+                read(i, entry);
+                if (compare(entry, high, entryLength) > 0) {
+                    break;
+                }
+                result.add(entry);
+                added++;
+            }
+        }
+    }
+
+    /**
+     * 多个有序run的归并
+     */
+    private static final class MergeIterator implements Iterator<byte[]> {
+        private final PriorityQueue<Cursor> queue = new PriorityQueue<>(new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor a, Cursor b) {
+                return ORDER.compare(a.current, b.current);
+            }
+        });
+
+        private MergeIterator(Run[] runs) {
+            for (Run run : runs) {
+                Cursor cursor = new Cursor(run);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public byte[] next() {
+            Cursor cursor = queue.poll();
+            byte[] entry = cursor.current;
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+            return entry;
+        }
+    }
+
+    private static final class Cursor {
+        private final Run run;
+        private long index;
+        private byte[] current;
+
+        private Cursor(Run run) {
+            this.run = run;
+        }
+
+        private boolean advance() {
+            if (index >= run.count) {
+                return false;
+            }
+            current = new byte[run.entryLength];
+            run.read(index++, current);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,839 @@
+package com.ggp.noob;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.x500.RDN;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/23 9:30
+ * @Description: 已签发证书库
+ * 证书DER按签发顺序追加写入段文件(certs-xxxxxxxx.seg)，每条记录为 长度(4字节)||crc32(4字节)||DER；
+ * 按序列号、主体、有效期截止时间分别建有序索引(见CertIndex)，查询都是二分查找，不扫描段文件。
+ * 索引的内存部分不落盘，检查点文件记录已落盘的run和对应的段位置，重启时从该位置重放段文件恢复，
+ * 段文件末尾不完整的记录会被截掉。
+ * 索引的run按大小分层合并，合并在每个写入实例自己的后台线程里做，签发(add)只负责把内存表写成新run，
+ * 不会因为合并而停顿；合并结果在锁内整体替换并写入新检查点。
+ * 写入实例持有目录下lock文件的文件锁，同一时间只有一个进程能写入；其他进程(如单独启动的OCSP服务)
+ * 用forDirReadOnly只读打开，不截断也不清理文件，重放到第一条不完整的记录为止，之后由refresh跟进写入进程
+ */
+public class CertRepository implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(CertRepository.class);
+    private static final AtomicInteger COMPACTOR_COUNT = new AtomicInteger();
+    private static final Map<String, CertRepository> INSTANCES = new ConcurrentHashMap<>();
+    private static final Map<String, CertRepository> READ_ONLY_INSTANCES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<CertificateFactory> FACTORY = new ThreadLocal<CertificateFactory>() {
+        @Override
+        protected CertificateFactory initialValue() {
+            try {
+                return CertificateFactory.getInstance("X.509", BouncyCastleProvider.PROVIDER_NAME);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+    private static final int RECORD_HEADER = 8;
+    private static final int SERIAL_LENGTH = 20;
+    private static final int SUBJECT_LENGTH = 16;
+    private static final int NOT_AFTER_LENGTH = 8;
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOCK = "lock";
+    /**
+     * 只读打开时检查点中的run可能刚被写入进程合并删除，重新读检查点的次数
+     */
+    private static final int OPEN_RETRIES = 3;
+
+    static {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    private final File dir;
+    private final long segmentSize;
+    private final int flushThreshold;
+    private final int maxRuns;
+    private final boolean sync;
+    private final boolean readOnly;
+    /**
+     * 只读实例刷新时可能整体换成按新检查点打开的索引，所以不是final
+     */
+    private volatile CertIndex serialIndex;
+    private volatile CertIndex subjectIndex;
+    private volatile CertIndex notAfterIndex;
+    private final Map<Integer, FileChannel> readers = new ConcurrentHashMap<>();
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * 写入实例的当前段，只读实例为null
+     */
+    private FileChannel writer;
+    private FileChannel lockChannel;
+    private int segment;
+    private long position;
+    /**
+     * 最近一次检查点记录的段位置，后台合并写检查点时沿用，之后的证书还在内存表里
+     */
+    private int checkpointSegment;
+    private long checkpointPosition;
+    /**
+     * 写入实例的合并线程，只读实例为null
+     */
+    private ExecutorService compactor;
+    private boolean compactionScheduled;
+    /**
+     * 内存表中的证书数
+     */
+    private int pending;
+    private boolean closed;
+
+    /**
+     * @param dir            证书库目录
+     * @param segmentSize    单个段文件的大小上限
+     * @param flushThreshold 内存表中的证书数达到该值时落盘
+     * @param maxRuns        每层的run数量，索引中大小相近的run攒够这么多个时在后台合并为上一层的一个run
+     * @param sync           每次写入后是否fsync段文件
+     * @throws IOException 其他进程正在写入该证书库
+     */
+    public CertRepository(String dir, long segmentSize, int flushThreshold, int maxRuns, boolean sync) throws IOException {
+        this(dir, segmentSize, flushThreshold, maxRuns, sync, false);
+    }
+
+    private CertRepository(String dir, long segmentSize, int flushThreshold, int maxRuns, boolean sync, boolean readOnly) throws IOException {
+        if (segmentSize < 1 || flushThreshold < 1 || maxRuns < 1) {
+            throw new IllegalArgumentException("segmentSize, flushThreshold and maxRuns must be positive");
+        }
+        this.dir = new File(dir);
+        this.segmentSize = segmentSize;
+        this.flushThreshold = flushThreshold;
+        this.maxRuns = maxRuns;
+        this.sync = sync;
+        this.readOnly = readOnly;
+        this.serialIndex = new CertIndex(this.dir, "serial", SERIAL_LENGTH);
+        this.subjectIndex = new CertIndex(this.dir, "subject", SUBJECT_LENGTH);
+        this.notAfterIndex = new CertIndex(this.dir, "notAfter", NOT_AFTER_LENGTH);
+        if (readOnly) {
+            recoverReadOnly();
+            return;
+        }
+        this.dir.mkdirs();
+        lock();
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+        compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "cert-index-compact-" + COMPACTOR_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduleCompaction();
+    }
+
+    /**
+     * 只读打开证书库，不加锁，可以和写入进程同时打开
+     *
+     * @param dir 证书库目录
+     * @return
+     * @throws IOException
+     */
+    public static CertRepository openReadOnly(String dir) throws IOException {
+        return new CertRepository(dir, Constant.repoSegmentSize, Constant.repoFlushThreshold, Constant.repoMaxRuns, false, true);
+    }
+
+    /**
+     * 获取进程内共享的证书库，同一个目录只对应一个实例
+     *
+     * @param dir 证书库目录
+     * @return
+     */
+    public static CertRepository forDir(String dir) {
+        return INSTANCES.computeIfAbsent(new File(dir).getAbsolutePath(), d -> {
+            try {
+                return new CertRepository(d, Constant.repoSegmentSize, Constant.repoFlushThreshold, Constant.repoMaxRuns, Constant.repoSync);
+            } catch (IOException e) {
+                throw new IllegalStateException("打开证书库失败:" + d, e);
+            }
+        });
+    }
+
+    /**
+     * 获取进程内共享的只读证书库，同一个目录只对应一个实例
+     *
+     * @param dir 证书库目录
+     * @return
+     */
+    public static CertRepository forDirReadOnly(String dir) {
+        return READ_ONLY_INSTANCES.computeIfAbsent(new File(dir).getAbsolutePath(), d -> {
+            try {
+                return openReadOnly(d);
+            } catch (IOException e) {
+                throw new IllegalStateException("打开证书库失败:" + d, e);
+            }
+        });
+    }
+
+    /**
+     * 记录一张证书
+     *
+     * @param cert
+     * @throws IOException
+     */
+    public synchronized void add(X509Certificate cert) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("证书库已关闭:" + dir);
+        }
+        if (readOnly) {
+            throw new IllegalStateException("证书库是只读打开的:" + dir);
+        }
+        byte[] der;
+        try {
+            der = cert.getEncoded();
+        } catch (CertificateException e) {
+            throw new IOException("证书编码失败", e);
+        }
+        byte[] serialKey = serialKey(cert.getSerialNumber());
+        if (position > 0 && position + RECORD_HEADER + der.length > segmentSize) {
+            openSegment(segment + 1);
+        }
+        long offset = position;
+        CRC32 crc = new CRC32();
+        crc.update(der);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        header.putInt(der.length).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] record = new ByteBuffer[]{header, ByteBuffer.wrap(der)};
+        long written = 0;
+        while (written < RECORD_HEADER + der.length) {
+            written += writer.write(record);
+        }
+        if (sync) {
+            writer.force(false);
+        }
+        position += written;
+        index(cert, serialKey, segment, offset);
+        if (++pending >= flushThreshold) {
+            flushIndex();
+        }
+    }
+
+    /**
+     * 按序列号查找
+     *
+     * @param serialNumber
+     * @return 找不到时返回null
+     * @throws IOException
+     */
+    public X509Certificate findBySerial(BigInteger serialNumber) throws IOException {
+        if (serialNumber.signum() < 0 || serialNumber.bitLength() > SERIAL_LENGTH * 8) {
+            return null;
+        }
+        byte[] key = serialKey(serialNumber);
+        List<byte[]> entries = serialIndex.search(key, key, 1);
+        return entries.isEmpty() ? null : read(entries.get(0));
+    }
+
+    /**
+     * 按主体查找，同一主体可能签发过多张证书
+     *
+     * @param subject 主体dn，如CN=test,O=XDJA,C=CN
+     * @return 按签发位置排列的证书
+     * @throws IOException
+     */
+    public List<X509Certificate> findBySubject(String subject) throws IOException {
+        X500Name name = new X500Name(subject);
+        byte[] key = subjectKey(name);
+        List<X509Certificate> certs = new ArrayList<>();
+        for (byte[] entry : subjectIndex.search(key, key, Integer.MAX_VALUE)) {
+            X509Certificate cert = read(entry);
+            /**
+             * key是摘要的前16字节，排除碰撞
+             */
+            if (name.equals(X500Name.getInstance(cert.getSubjectX500Principal().getEncoded()))) {
+                certs.add(cert);
+            }
+        }
+        return certs;
+    }
+
+    /**
+     * 查找有效期截止时间在[from, to)之间的证书
+     *
+     * @param from
+     * @param to
+     * @param limit 最多返回的数量
+     * @return 按截止时间升序
+     * @throws IOException
+     */
+    public List<X509Certificate> findByNotAfter(Date from, Date to, int limit) throws IOException {
+        List<X509Certificate> certs = new ArrayList<>();
+        if (!from.before(to)) {
+            return certs;
+        }
+        byte[] low = notAfterKey(from.getTime());
+        byte[] high = notAfterKey(to.getTime() - 1);
+        for (byte[] entry : notAfterIndex.search(low, high, limit)) {
+            certs.add(read(entry));
+        }
+        return certs;
+    }
+
+    /**
+     * @return 库中的证书数
+     */
+    public long size() {
+        return count.get();
+    }
+
+    /**
+     * 内存表落盘并更新检查点
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed && !readOnly) {
+            flushIndex();
+        }
+    }
+
+    /**
+     * 等待已安排的后台合并做完，复制目录备份前调用，避免复制到一半时run文件被合并删除
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void awaitCompaction() throws IOException, InterruptedException {
+        if (null == compactor) {
+            return;
+        }
+        try {
+            /** 合并线程只有一个，排在它后面的空任务做完时之前安排的合并都已做完 */
+            compactor.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (RejectedExecutionException e) {
+            /** 已关闭 */
+        }
+    }
+
+    /**
+     * 先停掉合并线程（等正在做的合并提交完，不在锁内等，合并提交时要拿锁），再落盘内存表、释放文件锁
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (FileChannel reader : readers.values()) {
+                reader.close();
+            }
+            readers.clear();
+            if (readOnly) {
+                READ_ONLY_INSTANCES.remove(dir.getAbsolutePath(), this);
+                return;
+            }
+        }
+        compactor.shutdown();
+        boolean interrupted = false;
+        try {
+            while (!compactor.awaitTermination(1, TimeUnit.SECONDS)) {
+                /** 合并大索引可能要一会儿 */
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        synchronized (this) {
+            try {
+                flushIndex();
+                writer.close();
+            } finally {
+                /** 关闭通道即释放文件锁 */
+                lockChannel.close();
+                INSTANCES.remove(dir.getAbsolutePath(), this);
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void index(X509Certificate cert, byte[] serialKey, int segment, long offset) {
+        serialIndex.put(serialKey, segment, offset);
+        subjectIndex.put(subjectKey(X500Name.getInstance(cert.getSubjectX500Principal().getEncoded())), segment, offset);
+        notAfterIndex.put(notAfterKey(cert.getNotAfter().getTime()), segment, offset);
+        count.incrementAndGet();
+    }
+
+    private void flushIndex() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        writer.force(false);
+        serialIndex.flush();
+        subjectIndex.flush();
+        notAfterIndex.flush();
+        checkpointSegment = segment;
+        checkpointPosition = position;
+        writeCheckpoint();
+        pending = 0;
+        scheduleCompaction();
+    }
+
+    /**
+     * 有层攒够run时交给合并线程，同一时间只安排一个合并任务，任务里合并到没有可合并的层为止
+     */
+    private void scheduleCompaction() {
+        if (null == compactor || closed || compactionScheduled || !needsCompaction()) {
+            return;
+        }
+        compactionScheduled = true;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        });
+    }
+
+    private boolean needsCompaction() {
+        for (CertIndex index : indexes()) {
+            if (index.needsCompaction(maxRuns, flushThreshold)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CertIndex[] indexes() {
+        return new CertIndex[]{serialIndex, subjectIndex, notAfterIndex};
+    }
+
+    /**
+     * 合并线程：锁内挑选输入，锁外归并写文件，再回到锁内替换run、写检查点，最后删除被合并的run，
+     * 直到没有可合并的层。新检查点改名生效后才删除；删除前崩溃时，下次打开由CertIndex.open按未引用的文件清理
+     */
+    private void compact() {
+        while (true) {
+            CertIndex.Compaction compaction = null;
+            synchronized (this) {
+                for (CertIndex index : indexes()) {
+                    if (null == compaction && !closed) {
+                        compaction = index.plan(maxRuns, flushThreshold);
+                    }
+                }
+                if (null == compaction) {
+                    compactionScheduled = false;
+                    return;
+                }
+            }
+            try {
+                compaction.run();
+            } catch (IOException | RuntimeException e) {
+                compaction.discard();
+                failCompaction(e);
+                return;
+            }
+            List<File> superseded;
+            synchronized (this) {
+                superseded = compaction.commit();
+                try {
+                    writeCheckpoint();
+                } catch (IOException e) {
+                    /** 新run已生效，下次落盘的检查点会记录它，旧run留到下次打开时清理 */
+                    failCompaction(e);
+                    return;
+                }
+            }
+            for (File file : superseded) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 合并失败不影响签发，下次落盘时重新安排
+     */
+    private synchronized void failCompaction(Exception e) {
+        logger.warn("合并索引失败 {}", dir, e);
+        compactionScheduled = false;
+    }
+
+    /**
+     * 检查点先写临时文件再改名，保证任何时候都是完整的。段位置用最近一次落盘时的，
+     * 后台合并时写入线程可能已经写了更多证书，但它们还在内存表里
+     *
+     * @throws IOException
+     */
+    private void writeCheckpoint() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("segment", String.valueOf(checkpointSegment));
+        properties.setProperty("position", String.valueOf(checkpointPosition));
+        properties.setProperty("serial", join(serialIndex.runIds()));
+        properties.setProperty("subject", join(subjectIndex.runIds()));
+        properties.setProperty("notAfter", join(notAfterIndex.runIds()));
+        File tmp = new File(dir, CHECKPOINT + ".tmp");
+        FileOutputStream os = new FileOutputStream(tmp);
+        try {
+            properties.store(os, null);
+            os.getFD().sync();
+        } finally {
+            os.close();
+        }
+        Files.move(tmp.toPath(), new File(dir, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 打开检查点记录的索引，从检查点位置重放段文件
+     *
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        Properties properties = loadCheckpoint();
+        openIndexes(properties);
+        int replaySegment = Integer.parseInt(properties.getProperty("segment", "0"));
+        long replayPosition = Long.parseLong(properties.getProperty("position", "0"));
+        checkpointSegment = replaySegment;
+        checkpointPosition = replayPosition;
+        while (segmentFile(replaySegment).exists()) {
+            openSegment(replaySegment);
+            long end = replay(writer, replayPosition);
+            if (end < writer.size()) {
+                writer.truncate(end);
+            }
+            position = end;
+            replaySegment++;
+            replayPosition = 0;
+        }
+        if (null == writer) {
+            openSegment(Math.max(0, replaySegment - 1));
+        }
+    }
+
+    /**
+     * 只读打开：检查点中的run可能在读检查点和打开run之间被写入进程合并删除，这时重新读检查点
+     *
+     * @throws IOException
+     */
+    private void recoverReadOnly() throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            Properties properties = loadCheckpoint();
+            try {
+                openIndexes(properties);
+            } catch (NoSuchFileException e) {
+                if (attempt >= OPEN_RETRIES) {
+                    throw e;
+                }
+                continue;
+            }
+            segment = Integer.parseInt(properties.getProperty("segment", "0"));
+            position = Long.parseLong(properties.getProperty("position", "0"));
+            catchUp();
+            return;
+        }
+    }
+
+    /**
+     * 只读实例跟进写入进程新写的证书：从上次停下的位置继续重放段文件，不截断。
+     * 只读实例不落盘，重放的条目都留在内存表里，攒到两倍落盘阈值时（写入进程这期间至少写过一次检查点）
+     * 按最新的检查点重新打开索引。写入实例总是最新的，调用无效果
+     *
+     * @throws IOException
+     */
+    public synchronized void refresh() throws IOException {
+        if (!readOnly || closed) {
+            return;
+        }
+        if (pending >= 2L * flushThreshold) {
+            reload();
+        }
+        catchUp();
+    }
+
+    /**
+     * 按最新的检查点打开一份新的索引并重放到最新，再整体替换，查询在替换前后都能看到全部证书
+     */
+    private void reload() throws IOException {
+        CertRepository fresh = new CertRepository(dir.getPath(), segmentSize, flushThreshold, maxRuns, false, true);
+        serialIndex = fresh.serialIndex;
+        subjectIndex = fresh.subjectIndex;
+        notAfterIndex = fresh.notAfterIndex;
+        count.set(fresh.count.get());
+        segment = fresh.segment;
+        position = fresh.position;
+        pending = fresh.pending;
+        fresh.close();
+    }
+
+    /**
+     * 只读实例从上次的位置继续重放段文件，遇到不完整的记录(可能是写入进程正在写的)就停下，下次从这里继续
+     *
+     * @throws IOException
+     */
+    private void catchUp() throws IOException {
+        while (segmentFile(segment).exists()) {
+            /**
+             * 先看下一段是否存在：存在说明写入进程已换段，当前段不会再变，重放完就可以进入下一段
+             */
+            boolean sealed = segmentFile(segment + 1).exists();
+            position = replay(channel(segment), position);
+            if (!sealed) {
+                return;
+            }
+            segment++;
+            position = 0;
+        }
+    }
+
+    private Properties loadCheckpoint() throws IOException {
+        Properties properties = new Properties();
+        File checkpoint = new File(dir, CHECKPOINT);
+        if (checkpoint.exists()) {
+            InputStream in = new FileInputStream(checkpoint);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private void openIndexes(Properties properties) throws IOException {
+        serialIndex.open(split(properties.getProperty("serial")), !readOnly);
+        subjectIndex.open(split(properties.getProperty("subject")), !readOnly);
+        notAfterIndex.open(split(properties.getProperty("notAfter")), !readOnly);
+        count.set(serialIndex.persistedCount());
+    }
+
+    /**
+     * 加文件锁，防止两个进程同时写入(和截断)同一个证书库
+     *
+     * @throws IOException 锁被其他进程持有
+     */
+    private void lock() throws IOException {
+        lockChannel = FileChannel.open(new File(dir, LOCK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (null == lock) {
+            lockChannel.close();
+            throw new IOException("证书库正被其他实例写入，其他进程请只读打开:" + dir);
+        }
+    }
+
+    /**
+     * 从当前段的from位置开始重放，到第一条不完整的记录为止，截断由写入实例在外面做
+     *
+     * @return 最后一条完整记录之后的位置
+     */
+    private long replay(FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        if (from > size) {
+            throw new IOException("段文件比检查点记录的短:" + segmentFile(segment));
+        }
+        long offset = from;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (offset + RECORD_HEADER <= size) {
+            header.clear();
+            readFully(channel, header, offset);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (length <= 0 || offset + RECORD_HEADER + length > size) {
+                break;
+            }
+            byte[] der = new byte[length];
+            readFully(channel, ByteBuffer.wrap(der), offset + RECORD_HEADER);
+            CRC32 check = new CRC32();
+            check.update(der);
+            if ((int) check.getValue() != crc) {
+                break;
+            }
+            X509Certificate cert = parse(der);
+            index(cert, serialKey(cert.getSerialNumber()), segment, offset);
+            pending++;
+            offset += RECORD_HEADER + length;
+        }
+        return offset;
+    }
+
+    private void openSegment(int n) throws IOException {
+        if (null != writer) {
+            writer.force(false);
+            writer.close();
+        }
+        writer = FileChannel.open(segmentFile(n).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writer.position(writer.size());
+        segment = n;
+        position = writer.size();
+    }
+
+    private X509Certificate read(byte[] entry) throws IOException {
+        FileChannel channel = channel(CertIndex.segment(entry));
+        long offset = CertIndex.offset(entry);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(channel, header, offset);
+        header.flip();
+        byte[] der = new byte[header.getInt()];
+        readFully(channel, ByteBuffer.wrap(der), offset + RECORD_HEADER);
+        return parse(der);
+    }
+
+    /**
+     * @return 第n段的只读通道
+     */
+    private FileChannel channel(int n) throws IOException {
+        FileChannel channel = readers.get(n);
+        if (null == channel) {
+            channel = FileChannel.open(segmentFile(n).toPath(), StandardOpenOption.READ);
+            FileChannel existing = readers.putIfAbsent(n, channel);
+            if (null != existing) {
+                channel.close();
+                channel = existing;
+            }
+        }
+        return channel;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset);
+            if (n < 0) {
+                throw new IOException("段文件不完整");
+            }
+            offset += n;
+        }
+    }
+
+    private static X509Certificate parse(byte[] der) throws IOException {
+        try {
+            return (X509Certificate) FACTORY.get().generateCertificate(new ByteArrayInputStream(der));
+        } catch (CertificateException e) {
+            throw new IOException("证书解析失败", e);
+        }
+    }
+
+    private File segmentFile(int n) {
+        return new File(dir, String.format("certs-%08d.seg", n));
+    }
+
+    /**
+     * 序列号左补零到20字节，无符号字节序即数值序
+     */
+    private static byte[] serialKey(BigInteger serialNumber) {
+        byte[] bytes = serialNumber.toByteArray();
+        int start = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+        int length = bytes.length - start;
+        if (serialNumber.signum() < 0 || length > SERIAL_LENGTH) {
+            throw new IllegalArgumentException("序列号超过20字节:" + serialNumber.toString(16));
+        }
+        byte[] key = new byte[SERIAL_LENGTH];
+        System.arraycopy(bytes, start, key, SERIAL_LENGTH - length, length);
+        return key;
+    }
+
+    /**
+     * 主体各RDN的DER编码排序后整体sha256的前16字节，
+     * 与RDN顺序无关（CertUtil按RFC4519Style解析主体，顺序与字符串相反）
+     */
+    private static byte[] subjectKey(X500Name name) {
+        try {
+            RDN[] rdns = name.getRDNs();
+            byte[][] encoded = new byte[rdns.length][];
+            for (int i = 0; i < rdns.length; i++) {
+                encoded[i] = rdns[i].getEncoded(ASN1Encoding.DER);
+            }
+            Arrays.sort(encoded, CertIndex.ORDER);
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (byte[] rdn : encoded) {
+                digest.update(rdn);
+            }
+            return Arrays.copyOf(digest.digest(), SUBJECT_LENGTH);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] notAfterKey(long time) {
+        return ByteBuffer.allocate(NOT_AFTER_LENGTH).putLong(time ^ Long.MIN_VALUE).array();
+    }
+
+    private static String join(long[] ids) {
+        StringBuilder sb = new StringBuilder();
+        for (long id : ids) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    private static long[] split(String value) {
+        if (null == value || value.isEmpty()) {
+            return new long[0];
+        }
+        String[] parts = value.split(",");
+        long[] ids = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ids[i] = Long.parseLong(parts[i].trim());
+        }
+        return ids;
+    }
+}
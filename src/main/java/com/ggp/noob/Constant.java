@@ -10,5 +10,68 @@ public class Constant {
     public static final String BASE_PATH = "/cert/";
     public static final String rootPri = BASE_PATH + "root/root.private";
     public static final String rootCert = BASE_PATH + "root/root.cer";
+    /**
+     * 序列号高水位文件
+     */
+    public static final String serialFile = BASE_PATH + "root/serial";
+    /**
+     * 已签发证书库目录
+     */
+    public static final String repoDir = BASE_PATH + "repo";
+    /**
+     * 吊销登记和CRL编号目录
+     */
+    public static final String crlDir = BASE_PATH + "crl";
     public static final Long validity = 10 * 365 * 24 * 60 * 60 * 1000L;
+    /**
+     * 预生成密钥对池的低水位、高水位和补充线程数，高水位为0时不预生成
+     */
+    public static final int keyPoolLow = Integer.getInteger("easyca.keyPool.low", 16);
+    public static final int keyPoolHigh = Integer.getInteger("easyca.keyPool.high", 64);
+    public static final int keyPoolThreads = Integer.getInteger("easyca.keyPool.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    /**
+     * 每次向高水位文件预留的序列号数量，以及序列号是否附加64位随机数
+     */
+    public static final long serialBlockSize = Long.getLong("easyca.serial.blockSize", 4096L);
+    public static final boolean serialRandomBits = Boolean.parseBoolean(System.getProperty("easyca.serial.randomBits", "true"));
+    /**
+     * http服务同时处理的请求数和等待的请求数，超出时返回503；jdk21+默认用虚拟线程加信号量限制，easyca.http.virtual=false可强制使用线程池
+     */
+    public static final int httpThreads = Integer.getInteger("easyca.http.threads", Runtime.getRuntime().availableProcessors() * 2);
+    public static final int httpQueue = Integer.getInteger("easyca.http.queue", 1024);
+    public static final boolean httpVirtualThreads = Boolean.parseBoolean(System.getProperty("easyca.http.virtual", "true"));
+    /**
+     * 证书库段文件大小上限、索引落盘阈值（证书数）、索引每层攒够多少个run后台合并一次，以及每次写入后是否fsync
+     */
+    public static final long repoSegmentSize = Long.getLong("easyca.repo.segmentSize", 256L * 1024 * 1024);
+    public static final int repoFlushThreshold = Integer.getInteger("easyca.repo.flushThreshold", 100000);
+    public static final int repoMaxRuns = Integer.getInteger("easyca.repo.maxRuns", 8);
+    public static final boolean repoSync = Boolean.parseBoolean(System.getProperty("easyca.repo.sync", "false"));
+    /**
+     * 签发产物异步写出：队列中最多等待的文件数，队列满时签发线程阻塞；每批写完后是否fsync
+     */
+    public static final int outputQueue = Integer.getInteger("easyca.output.queue", 4096);
+    public static final boolean outputFsync = Boolean.getBoolean("easyca.output.fsync");
+    /**
+     * CRL的nextUpdate距thisUpdate的时长，毫秒
+     */
+    public static final long crlNextUpdate = Long.getLong("easyca.crl.nextUpdate", 24 * 60 * 60 * 1000L);
+    /**
+     * 吊销查找前的布隆过滤器每个序列号占用的位数，16时误判率约十万分之一
+     */
+    public static final int revocationFilterBits = Integer.getInteger("easyca.revocation.filterBits", 16);
+    /**
+     * OCSP响应的有效期（毫秒）和缓存的响应数上限
+     */
+    public static final long ocspValidity = Long.getLong("easyca.ocsp.validity", 60 * 60 * 1000L);
+    public static final int ocspCacheSize = Integer.getInteger("easyca.ocsp.cacheSize", 1000000);
+    /**
+     * SM2基点G的定点窗口表每个窗口的位数，表有 ceil(256/w)*(2^w-1) 个点，6时约2700个点、占内存不到1MB，
+     * 更宽的窗口点加次数减少有限，建表时间和内存成倍增加
+     */
+    public static final int sm2BaseWindow = Integer.getInteger("easyca.sm2.baseWindow", 6);
+    /**
+     * 按公钥缓存的SM2 ZA摘要状态个数上限（预处理的验签公钥和已知公钥的签名私钥共用），满了之后新公钥不再缓存
+     */
+    public static final int sm2ZaCacheSize = Integer.getInteger("easyca.sm2.zaCacheSize", 10000);
 }
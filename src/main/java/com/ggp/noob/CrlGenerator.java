@@ -0,0 +1,236 @@
+package com.ggp.noob;
+
+import com.ggp.noob.util.EngineCache;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+
+import java.util.Date;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/25 14:10
+ * @Description: CRL生成，吊销条目直接按DER写入一个预先算好长度的数组，不为每个条目创建ASN.1对象，
+ * 几百万条也只占用一份输出大小的内存；头部和扩展项条目少，仍用bc编码。
+ * 完整CRL带CRLNumber，增量CRL另带关键扩展DeltaCRLIndicator指向基准CRL
+ */
+public class CrlGenerator {
+    private static final int SEQUENCE = 0x30;
+    private static final int INTEGER = 0x02;
+    private static final int BIT_STRING = 0x03;
+    private static final int UTC_TIME = 0x17;
+    private static final int GENERALIZED_TIME = 0x18;
+    private static final byte[] VERSION_2 = new byte[]{INTEGER, 1, 1};
+    /**
+     * crlEntryExtensions中reasonCode扩展的前缀，最后一个字节为原因
+     * SEQUENCE { SEQUENCE { OID 2.5.29.21, OCTET STRING { ENUMERATED } } }
+     */
+    private static final byte[] REASON_PREFIX = new byte[]{0x30, 0x0C, 0x30, 0x0A, 0x06, 0x03, 0x55, 0x1D, 0x15, 0x04, 0x03, 0x0A, 0x01};
+    private static final int REASON_LENGTH = REASON_PREFIX.length + 1;
+
+    /**
+     * 生成CRL
+     *
+     * @param context       签发者
+     * @param entries       吊销条目
+     * @param crlNumber     CRL编号
+     * @param baseCrlNumber 增量CRL对应的基准CRL编号，完整CRL传0
+     * @param thisUpdate
+     * @param nextUpdate
+     * @return DER编码
+     * @throws Exception
+     */
+    public static byte[] generate(IssuerContext context, RevokedSet.Snapshot entries, long crlNumber, long baseCrlNumber, Date thisUpdate, Date nextUpdate) throws Exception {
+        byte[] algorithm = new DefaultSignatureAlgorithmIdentifierFinder().find(context.getSignAlg()).getEncoded(ASN1Encoding.DER);
+        byte[] issuer = context.getIssuerName().getEncoded(ASN1Encoding.DER);
+        byte[] extensions = extensions(context, crlNumber, baseCrlNumber);
+        long revokedLength = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            revokedLength += entryLength(entries, i);
+        }
+        long tbsLength = VERSION_2.length + algorithm.length + issuer.length + timeLength(thisUpdate.getTime()) + timeLength(nextUpdate.getTime())
+                + (entries.size() > 0 ? tlvLength(revokedLength) : 0) + extensions.length;
+        long total = tlvLength(tbsLength);
+        if (total > Integer.MAX_VALUE - 1024) {
+            throw new IllegalStateException("CRL过大:" + entries.size());
+        }
+        byte[] tbs = new byte[(int) total];
+        int pos = header(tbs, 0, SEQUENCE, tbsLength);
+        pos = copy(VERSION_2, tbs, pos);
+        pos = copy(algorithm, tbs, pos);
+        pos = copy(issuer, tbs, pos);
+        pos = time(tbs, pos, thisUpdate.getTime());
+        pos = time(tbs, pos, nextUpdate.getTime());
+        if (entries.size() > 0) {
+            pos = header(tbs, pos, SEQUENCE, revokedLength);
+            for (int i = 0; i < entries.size(); i++) {
+                pos = entry(tbs, pos, entries, i);
+            }
+        }
+        pos = copy(extensions, tbs, pos);
+        if (pos != tbs.length) {
+            throw new IllegalStateException("CRL编码长度错误");
+        }
+        byte[] signature = EngineCache.sign(context.getSignAlg(), context.getPrivateKey(), tbs);
+        long length = tbs.length + algorithm.length + tlvLength(signature.length + 1);
+        byte[] crl = new byte[(int) tlvLength(length)];
+        pos = header(crl, 0, SEQUENCE, length);
+        pos = copy(tbs, crl, pos);
+        pos = copy(algorithm, crl, pos);
+        pos = header(crl, pos, BIT_STRING, signature.length + 1);
+        crl[pos++] = 0;
+        copy(signature, crl, pos);
+        return crl;
+    }
+
+    private static byte[] extensions(IssuerContext context, long crlNumber, long baseCrlNumber) throws Exception {
+        ExtensionsGenerator generator = new ExtensionsGenerator();
+        generator.addExtension(Extension.authorityKeyIdentifier, false, new JcaX509ExtensionUtils().createAuthorityKeyIdentifier(context.getPublicKey()));
+        generator.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+        if (baseCrlNumber > 0) {
+            generator.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(baseCrlNumber));
+        }
+        return new DERTaggedObject(true, 0, generator.generate()).getEncoded(ASN1Encoding.DER);
+    }
+
+    private static int entryLength(RevokedSet.Snapshot entries, int i) {
+        int length = integerLength(entries.hi(i), entries.lo(i)) + timeLength(entries.time(i));
+        if (entries.reason(i) != 0) {
+            length += REASON_LENGTH;
+        }
+        return 2 + length;
+    }
+
+    private static int entry(byte[] out, int pos, RevokedSet.Snapshot entries, int i) {
+        pos = header(out, pos, SEQUENCE, entryLength(entries, i) - 2);
+        pos = integer(out, pos, entries.hi(i), entries.lo(i));
+        pos = time(out, pos, entries.time(i));
+        if (entries.reason(i) != 0) {
+            pos = copy(REASON_PREFIX, out, pos);
+            out[pos++] = (byte) entries.reason(i);
+        }
+        return pos;
+    }
+
+    /**
+     * 128位无符号整数的INTEGER编码长度（含tag和长度）
+     */
+    private static int integerLength(long hi, long lo) {
+        int bits = hi != 0 ? 128 - Long.numberOfLeadingZeros(hi) : 64 - Long.numberOfLeadingZeros(lo);
+        /**
+         * 最高位为1时需要补一个0字节
+         */
+        int bytes = bits / 8 + 1;
+        return 2 + bytes;
+    }
+
+    private static int integer(byte[] out, int pos, long hi, long lo) {
+        int length = integerLength(hi, lo) - 2;
+        out[pos++] = INTEGER;
+        out[pos++] = (byte) length;
+        for (int i = length - 1; i >= 0; i--) {
+            if (i >= 16) {
+                out[pos++] = 0;
+            } else if (i >= 8) {
+                out[pos++] = (byte) (hi >>> (8 * (i - 8)));
+            } else {
+                out[pos++] = (byte) (lo >>> (8 * i));
+            }
+        }
+        return pos;
+    }
+
+    private static int timeLength(long millis) {
+        int year = civil(Math.floorDiv(millis, 1000L))[0];
+        return year >= 1950 && year < 2050 ? 15 : 17;
+    }
+
+    /**
+     * 1950-2049年用UTCTime，其余用GeneralizedTime，精确到秒
+     */
+    private static int time(byte[] out, int pos, long millis) {
+        long seconds = Math.floorDiv(millis, 1000L);
+        int[] civil = civil(seconds);
+        int year = civil[0];
+        boolean utc = year >= 1950 && year < 2050;
+        out[pos++] = (byte) (utc ? UTC_TIME : GENERALIZED_TIME);
+        out[pos++] = (byte) (utc ? 13 : 15);
+        if (utc) {
+            pos = digits(out, pos, year % 100, 2);
+        } else {
+            pos = digits(out, pos, year, 4);
+        }
+        int secondOfDay = (int) Math.floorMod(seconds, 86400L);
+        pos = digits(out, pos, civil[1], 2);
+        pos = digits(out, pos, civil[2], 2);
+        pos = digits(out, pos, secondOfDay / 3600, 2);
+        pos = digits(out, pos, secondOfDay / 60 % 60, 2);
+        pos = digits(out, pos, secondOfDay % 60, 2);
+        out[pos++] = 'Z';
+        return pos;
+    }
+
+    /**
+     * 纪元秒转年月日，不经过Calendar
+     *
+     * @return {年, 月, 日}
+     */
+    private static int[] civil(long seconds) {
+        long z = Math.floorDiv(seconds, 86400L) + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yoe + era * 400 + (month <= 2 ? 1 : 0));
+        return new int[]{year, month, day};
+    }
+
+    private static int digits(byte[] out, int pos, int value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            out[pos + i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + width;
+    }
+
+    private static long tlvLength(long contentLength) {
+        return 1 + lengthOfLength(contentLength) + contentLength;
+    }
+
+    private static int lengthOfLength(long length) {
+        if (length < 0x80) {
+            return 1;
+        }
+        int bytes = 0;
+        for (long l = length; l > 0; l >>>= 8) {
+            bytes++;
+        }
+        return 1 + bytes;
+    }
+
+    private static int header(byte[] out, int pos, int tag, long length) {
+        out[pos++] = (byte) tag;
+        int lengthOfLength = lengthOfLength(length);
+        if (lengthOfLength == 1) {
+            out[pos++] = (byte) length;
+        } else {
+            out[pos++] = (byte) (0x80 | (lengthOfLength - 1));
+            for (int i = lengthOfLength - 2; i >= 0; i--) {
+                out[pos++] = (byte) (length >>> (8 * i));
+            }
+        }
+        return pos;
+    }
+
+    private static int copy(byte[] src, byte[] out, int pos) {
+        System.arraycopy(src, 0, out, pos, src.length);
+        return pos + src.length;
+    }
+}
@@ -0,0 +1,46 @@
+package com.ggp.noob;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/12 10:30
+ * @Description: 批量数字信封中单个私钥的结果，失败时envelope为空，error为失败原因
+ */
+public class EnvelopeResult {
+    /**
+     * 在批次中的序号，从0开始
+     */
+    private final int index;
+    private final String name;
+    /**
+     * GM/T 0010 SignedAndEnvelopedData的DER编码
+     */
+    private final byte[] envelope;
+    private final Exception error;
+
+    public EnvelopeResult(int index, String name, byte[] envelope, Exception error) {
+        this.index = index;
+        this.name = name;
+        this.envelope = envelope;
+        this.error = error;
+    }
+
+    public boolean isSuccess() {
+        return null == error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getEnvelope() {
+        return envelope;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,182 @@
+package com.ggp.noob;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/17 9:30
+ * @Description: http服务的有界执行器，HttpServer的接收线程调用execute，这里不能阻塞也不能直接执行请求
+ * 同时处理的请求默认不超过Constant.httpThreads，另外最多Constant.httpQueue个请求等待；
+ * jdk21+用虚拟线程时由信号量限制，否则为固定大小的线程池(AbortPolicy)。
+ * 超出上限的请求交给单独的拒绝线程，处理器在该线程上见到{@link #isOverloaded()}为true时只回503，不做签发
+ */
+final class HttpExecutor extends AbstractExecutorService {
+    private static final Logger logger = LoggerFactory.getLogger(HttpExecutor.class);
+    private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+    /**
+     * 拒绝线程只回503，很快，排队上限固定，不随Constant.httpQueue变小
+     */
+    private static final int OVERLOAD_QUEUE = 4096;
+
+    private final ExecutorService workers;
+    /**
+     * 虚拟线程时使用：admitted限制正在处理和等待的请求总数，在接收线程上tryAcquire；
+     * running限制同时处理的请求数，在虚拟线程上阻塞获取。线程池时都为null
+     */
+    private final Semaphore admitted;
+    private final Semaphore running;
+    private final ThreadPoolExecutor overload;
+
+    private HttpExecutor(ExecutorService workers, Semaphore admitted, Semaphore running, String name) {
+        this.workers = workers;
+        this.admitted = admitted;
+        this.running = running;
+        this.overload = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(OVERLOAD_QUEUE), threadFactory(name + "-overload"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 优先使用虚拟线程，编译目标是1.8，所以通过反射调用
+     *
+     * @param name 线程名前缀
+     * @return
+     */
+    static HttpExecutor create(String name) {
+        return create(name, Constant.httpThreads, Constant.httpQueue);
+    }
+
+    /**
+     * @param name    线程名前缀
+     * @param threads 同时处理的请求数
+     * @param queue   等待的请求数
+     * @return
+     */
+    static HttpExecutor create(String name, int threads, int queue) {
+        if (threads < 1 || queue < 1) {
+            throw new IllegalArgumentException("threads and queue must be positive");
+        }
+        if (Constant.httpVirtualThreads) {
+            try {
+                Method method = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return new HttpExecutor((ExecutorService) method.invoke(null), new Semaphore(threads + queue),
+                        new Semaphore(threads), name);
+            } catch (Exception e) {
+                logger.debug("不支持虚拟线程，使用线程池");
+            }
+        }
+        return new HttpExecutor(new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queue), threadFactory(name), new ThreadPoolExecutor.AbortPolicy()), null, null, name);
+    }
+
+    /**
+     * @return 当前线程是否在处理超出上限的请求，是则只应回503
+     */
+    static boolean isOverloaded() {
+        return Boolean.TRUE.equals(OVERLOADED.get());
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (null == admitted) {
+            try {
+                workers.execute(command);
+            } catch (RejectedExecutionException e) {
+                reject(command);
+            }
+            return;
+        }
+        if (!admitted.tryAcquire()) {
+            reject(command);
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    running.acquireUninterruptibly();
+                    try {
+                        command.run();
+                    } finally {
+                        running.release();
+                    }
+                } finally {
+                    admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            reject(command);
+        }
+    }
+
+    /**
+     * 拒绝线程的队列也满时抛出RejectedExecutionException，由HttpServer关闭该连接
+     */
+    private void reject(final Runnable command) {
+        if (workers.isShutdown()) {
+            throw new RejectedExecutionException("http服务已关闭");
+        }
+        overload.execute(() -> {
+            OVERLOADED.set(Boolean.TRUE);
+            try {
+                command.run();
+            } finally {
+                OVERLOADED.remove();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        workers.shutdown();
+        overload.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = new ArrayList<>(workers.shutdownNow());
+        pending.addAll(overload.shutdownNow());
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return workers.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return workers.isTerminated() && overload.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return workers.awaitTermination(timeout, unit) && overload.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
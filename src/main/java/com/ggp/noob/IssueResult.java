@@ -0,0 +1,48 @@
+package com.ggp.noob;
+
+import java.security.cert.X509Certificate;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/2 10:20
+ * @Description: 批量签发中单个p10的签发结果，失败时certs为空，error为失败原因
+ */
+public class IssueResult {
+    /**
+     * 在批次中的序号，从0开始
+     */
+    private final int index;
+    /**
+     * p10名称，目录批量时为文件名，多PEM文件时为序号
+     */
+    private final String name;
+    private final X509Certificate[] certs;
+    private final Exception error;
+
+    public IssueResult(int index, String name, X509Certificate[] certs, Exception error) {
+        this.index = index;
+        this.name = name;
+        this.certs = certs;
+        this.error = error;
+    }
+
+    public boolean isSuccess() {
+        return null == error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public X509Certificate[] getCerts() {
+        return certs;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+}
@@ -0,0 +1,111 @@
+package com.ggp.noob;
+
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/21 10:12
+ * @Description: 一次签发在内存中的全部产物，由调用方决定写文件、返回http响应等
+ * 单证只有签名证书；双证另有加密证书、两条p7b证书链和加密私钥的GMT0010数字信封；
+ * 无p10签发时带有CA生成的签名私钥
+ */
+public class IssuedCert {
+    /**
+     * 根证书
+     */
+    private final X509Certificate rootCert;
+    /**
+     * 签名证书
+     */
+    private final X509Certificate signCert;
+    /**
+     * 签名私钥，仅无p10签发时有值
+     */
+    private PrivateKey signPrivateKey;
+    /**
+     * 加密证书
+     */
+    private X509Certificate encCert;
+    /**
+     * 加密私钥
+     */
+    private PrivateKey encPrivateKey;
+    /**
+     * 签名证书链 p7b pem
+     */
+    private String signCertChain;
+    /**
+     * 加密证书链 p7b pem
+     */
+    private String encCertChain;
+    /**
+     * 加密私钥数字信封 GMT0010 DER编码
+     */
+    private byte[] envelope;
+
+    public IssuedCert(X509Certificate rootCert, X509Certificate signCert) {
+        this.rootCert = rootCert;
+        this.signCert = signCert;
+    }
+
+    public boolean isDouble() {
+        return null != encCert;
+    }
+
+    public X509Certificate getRootCert() {
+        return rootCert;
+    }
+
+    public X509Certificate getSignCert() {
+        return signCert;
+    }
+
+    public PrivateKey getSignPrivateKey() {
+        return signPrivateKey;
+    }
+
+    public void setSignPrivateKey(PrivateKey signPrivateKey) {
+        this.signPrivateKey = signPrivateKey;
+    }
+
+    public X509Certificate getEncCert() {
+        return encCert;
+    }
+
+    public void setEncCert(X509Certificate encCert) {
+        this.encCert = encCert;
+    }
+
+    public PrivateKey getEncPrivateKey() {
+        return encPrivateKey;
+    }
+
+    public void setEncPrivateKey(PrivateKey encPrivateKey) {
+        this.encPrivateKey = encPrivateKey;
+    }
+
+    public String getSignCertChain() {
+        return signCertChain;
+    }
+
+    public void setSignCertChain(String signCertChain) {
+        this.signCertChain = signCertChain;
+    }
+
+    public String getEncCertChain() {
+        return encCertChain;
+    }
+
+    public void setEncCertChain(String encCertChain) {
+        this.encCertChain = encCertChain;
+    }
+
+    public byte[] getEnvelope() {
+        return envelope;
+    }
+
+    public void setEnvelope(byte[] envelope) {
+        this.envelope = envelope;
+    }
+}
@@ -0,0 +1,133 @@
+package com.ggp.noob;
+
+import com.ggp.noob.util.CertChainEncoder;
+import com.ggp.noob.util.CertUtil;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+
+import java.io.File;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.ECPublicKey;
+
+/**
+ * @Author:ggp
+ * @Date:2020/8/11 15:00
+ * @Description: 签发者上下文，根私钥和根证书只从PEM解析一次，之后常驻内存
+ * 对象不可变，可在多线程间共享；文件被替换后由{@link CaService}整体换成新的实例
+ */
+public final class IssuerContext {
+    private final KeyPair keyPair;
+    private final X509Certificate cert;
+    private final byte[] certEncoded;
+    /**
+     * 根证书+用户证书的p7b编码器，根证书的编码只取一次
+     */
+    private final CertChainEncoder chainEncoder;
+    private final X500Name issuerName;
+    private final String signAlg;
+    private final File priFile;
+    private final File certFile;
+    /**
+     * 加载时文件的修改时间，用于判断是否需要重新加载
+     */
+    private final long priModified;
+    private final long certModified;
+
+    private IssuerContext(KeyPair keyPair, X509Certificate cert, File priFile, File certFile, long priModified, long certModified) throws Exception {
+        this.keyPair = keyPair;
+        this.cert = cert;
+        this.certEncoded = cert.getEncoded();
+        this.chainEncoder = new CertChainEncoder(cert);
+        this.issuerName = X500Name.getInstance(cert.getSubjectX500Principal().getEncoded());
+        this.signAlg = keyPair.getPublic() instanceof ECPublicKey ? "SM3WITHSM2" : "SHA256WITHRSA";
+        this.priFile = priFile;
+        this.certFile = certFile;
+        this.priModified = priModified;
+        this.certModified = certModified;
+    }
+
+    /**
+     * 从PEM文件加载根私钥和根证书
+     *
+     * @param priPath  根私钥路径
+     * @param certPath 根证书路径
+     * @return
+     * @throws Exception
+     */
+    public static IssuerContext load(String priPath, String certPath) throws Exception {
+        File priFile = new File(priPath);
+        File certFile = new File(certPath);
+        /**
+         * 先取修改时间再读文件，读的过程中文件被改写也只会导致下次多加载一次
+         */
+        long priModified = priFile.lastModified();
+        long certModified = certFile.lastModified();
+
+        JcaPEMKeyConverter keyConverter = new JcaPEMKeyConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
+        PEMKeyPair pemKeyPair = (PEMKeyPair) CertUtil.readPEM(priFile);
+        KeyPair keyPair = keyConverter.getKeyPair(pemKeyPair);
+
+        X509CertificateHolder holder = (X509CertificateHolder) CertUtil.readPEM(certFile);
+        JcaX509CertificateConverter certConverter = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
+        X509Certificate cert = certConverter.getCertificate(holder);
+        return new IssuerContext(keyPair, cert, priFile, certFile, priModified, certModified);
+    }
+
+    /**
+     * 磁盘上的根私钥或根证书是否已经变化
+     *
+     * @return
+     */
+    public boolean isStale() {
+        return priFile.lastModified() != priModified || certFile.lastModified() != certModified;
+    }
+
+    public boolean isSm2() {
+        return keyPair.getPublic() instanceof ECPublicKey;
+    }
+
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    public PrivateKey getPrivateKey() {
+        return keyPair.getPrivate();
+    }
+
+    public PublicKey getPublicKey() {
+        return keyPair.getPublic();
+    }
+
+    public X509Certificate getCert() {
+        return cert;
+    }
+
+    /**
+     * @return 根证书DER编码的副本
+     */
+    public byte[] getCertEncoded() {
+        return certEncoded.clone();
+    }
+
+    public CertChainEncoder getChainEncoder() {
+        return chainEncoder;
+    }
+
+    public X500Name getIssuerName() {
+        return issuerName;
+    }
+
+    /**
+     * @return 根密钥对应的签名算法 SM3WITHSM2|SHA256WITHRSA
+     */
+    public String getSignAlg() {
+        return signAlg;
+    }
+}
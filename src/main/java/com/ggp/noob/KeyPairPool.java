@@ -0,0 +1,171 @@
+package com.ggp.noob;
+
+import com.ggp.noob.asn1.AlgTypeEnum;
+import com.ggp.noob.pki.key.KeyUtil;
+import com.ggp.noob.util.Sm2Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/4 14:36
+ * @Description: 预生成密钥对池
+ * 后台线程把池子补到高水位，池中数量降到低水位以下时重新开始补充
+ * 签发线程直接从池中取密钥对，池子空了才在调用线程上现场生成（计为一次未命中）
+ */
+public class KeyPairPool implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(KeyPairPool.class);
+
+    private final AlgTypeEnum alg;
+    private final int lowWatermark;
+    private final int highWatermark;
+    private final int fillThreads;
+    private final BlockingQueue<KeyPair> pool;
+    private final ExecutorService filler;
+    /**
+     * 正在运行的补充任务数，为0时才允许发起新一轮补充
+     */
+    private final AtomicInteger activeFillers = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * @param alg           密钥算法
+     * @param lowWatermark  低水位，池中数量不大于该值时触发补充
+     * @param highWatermark 高水位，池的容量，为0时不预生成
+     * @param fillThreads   补充线程数
+     */
+    public KeyPairPool(AlgTypeEnum alg, int lowWatermark, int highWatermark, int fillThreads) {
+        if (highWatermark < 0 || lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("水位设置错误 low:" + lowWatermark + " high:" + highWatermark);
+        }
+        if (fillThreads < 1) {
+            throw new IllegalArgumentException("fillThreads must be positive:" + fillThreads);
+        }
+        this.alg = alg;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.fillThreads = fillThreads;
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, highWatermark));
+        final AtomicInteger count = new AtomicInteger();
+        this.filler = Executors.newFixedThreadPool(fillThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "keypair-pool-" + alg.name().toLowerCase() + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 按{@link Constant}中的水位配置创建
+     *
+     * @param alg
+     * @return
+     */
+    public static KeyPairPool create(AlgTypeEnum alg) {
+        return new KeyPairPool(alg, Constant.keyPoolLow, Constant.keyPoolHigh, Constant.keyPoolThreads);
+    }
+
+    /**
+     * 取一个密钥对，池中有就直接返回，没有则现场生成
+     *
+     * @return
+     * @throws Exception
+     */
+    public KeyPair take() throws Exception {
+        KeyPair keyPair = pool.poll();
+        if (null != keyPair) {
+            hits.increment();
+            if (pool.size() <= lowWatermark) {
+                refill();
+            }
+            return keyPair;
+        }
+        misses.increment();
+        refill();
+        return generate();
+    }
+
+    /**
+     * 发起一轮补充，已有补充任务在运行时直接返回
+     */
+    public void refill() {
+        if (closed || highWatermark == 0 || !activeFillers.compareAndSet(0, fillThreads)) {
+            return;
+        }
+        for (int i = 0; i < fillThreads; i++) {
+            filler.execute(this::fill);
+        }
+    }
+
+    private void fill() {
+        try {
+            while (!closed && pool.remainingCapacity() > 0) {
+                if (!pool.offer(generate())) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            logger.error("预生成密钥对失败 alg:" + alg, e);
+        } finally {
+            activeFillers.decrementAndGet();
+        }
+    }
+
+    private KeyPair generate() throws Exception {
+        if (alg == AlgTypeEnum.SM2) {
+            return Sm2Util.createKeyPair();
+        }
+        return KeyUtil.createRSAKeyPair(2048);
+    }
+
+    public AlgTypeEnum getAlg() {
+        return alg;
+    }
+
+    /**
+     * @return 池中现有的密钥对数量
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * @return 直接从池中取到密钥对的次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return 池空时现场生成的次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        filler.shutdownNow();
+        pool.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "KeyPairPool{alg=" + alg + ", size=" + pool.size() + ", hits=" + hits.sum() + ", misses=" + misses.sum() + "}";
+    }
+}
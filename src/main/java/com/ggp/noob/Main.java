@@ -1,5 +1,7 @@
 package com.ggp.noob;
 
+import java.math.BigInteger;
+
 /**
  * @Author:ggp
  * @Date:2020/8/11 14:57
@@ -10,7 +12,15 @@ public class Main {
             .append("-init               alg                          初始化根证书，alg可以传RSA,或SM2\n")
             .append("-issueCertWithP10   path  type   savePath        签发证书，会返回文件路径,path为p10路径，type为single表示单证,type为double表示双证,savePath为指定文件路径\n")
             .append("-issueCertWithNoP10 savePath                     签发单证书，会返回文件路径，savePath为指定文件路径\n")
-            .append("-issueP12WithNoP10  savePath                     无p10签发p12，会返回文件路径,savePath为指定文件路径\n");
+            .append("-issueP12WithNoP10  savePath                     无p10签发p12，会返回文件路径,savePath为指定文件路径\n")
+            .append("-issueBatch         path  type   savePath [archive] 批量签发证书，path为p10目录或包含多个p10的PEM文件，type同上，每个p10的结果保存在savePath下的子目录，\n")
+            .append("                                                  带archive时savePath为归档文件，所有结果写入这一个文件\n")
+            .append("-extract            archive savePath [prefix]    从归档文件解出结果到savePath，prefix为只解出的条目名前缀，如p10名称/\n")
+            .append("-revoke             serial reason                吊销证书，serial为16进制序列号，reason为RFC5280吊销原因，0表示未指定\n")
+            .append("-crl                savePath                     生成完整CRL，保存为savePath/root.crl\n")
+            .append("-deltaCrl           savePath                     生成增量CRL，保存为savePath/delta.crl\n")
+            .append("-ocsp               port                         启动OCSP服务\n")
+            .append("-server             port [host]                  启动http签发服务，接口见CaHttpServer，默认只监听127.0.0.1，接口无认证，host为对外地址时自行做好访问控制\n");
     public static void main(String[] args) throws Exception{
         CaService service = new CaService();
         switch (args[0]){
@@ -26,6 +36,30 @@ public class Main {
             case "-issueP12WithNoP10":
                 service.issueP12WithNoP10(args[1]);
                 break;
+            case "-issueBatch":
+                service.issueBatch(args[1],args[2],args[3],args.length > 4 && "archive".equalsIgnoreCase(args[4]));
+                break;
+            case "-extract":
+                try (ArtifactArchive.Reader reader = ArtifactArchive.open(args[1])) {
+                    int extracted = reader.extract(args[2], args.length > 3 ? args[3] : null);
+                    System.out.println("解出" + extracted + "个文件" + (reader.isRecovered() ? "(归档未正常关闭，按顺序扫描恢复)" : "") + "，位置" + args[2]);
+                }
+                break;
+            case "-revoke":
+                System.out.println(service.revoke(new BigInteger(args[1], 16), Integer.parseInt(args[2])) ? "吊销成功" : "证书已吊销");
+                break;
+            case "-crl":
+                service.generateCrl(args[1], false);
+                break;
+            case "-deltaCrl":
+                service.generateCrl(args[1], true);
+                break;
+            case "-ocsp":
+                new OcspServer(OcspResponder.create(service), null, Integer.parseInt(args[1])).start();
+                break;
+            case "-server":
+                new CaHttpServer(service, args.length > 2 ? args[2] : null, Integer.parseInt(args[1])).start();
+                break;
             case "help":
             case "-help":
             default:
@@ -0,0 +1,353 @@
+package com.ggp.noob;
+
+import com.ggp.noob.util.CertUtil;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.Req;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/28 10:20
+ * @Description: OCSP响应器，由根私钥直接签发响应
+ * good和revoked响应签好后按CertID缓存，后台线程在nextUpdate之前重新签发，
+ * 命中缓存时只做一次吊销集合查找（发现已被吊销则重新签发）再返回缓存的字节，请求路径上没有签名运算。
+ * 预签发的响应不带nonce（RFC5019）。unknown响应不缓存，每次现签；
+ * 不是本CA签发的CertID返回unauthorized。吊销登记每秒跟进一次，其他进程的吊销最多一秒后生效
+ */
+public class OcspResponder implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(OcspResponder.class);
+    private static final int GOOD = 0;
+    private static final int REVOKED = 1;
+    private static final int UNKNOWN = 2;
+    private static final byte[] MALFORMED_REQUEST = status(OCSPRespBuilder.MALFORMED_REQUEST);
+    private static final byte[] INTERNAL_ERROR = status(OCSPRespBuilder.INTERNAL_ERROR);
+    private static final byte[] UNAUTHORIZED = status(OCSPRespBuilder.UNAUTHORIZED);
+
+    private final Callable<IssuerContext> contextLoader;
+    private final CertRepository repository;
+    private final RevocationRegistry registry;
+    private final long validity;
+    private final int maxEntries;
+    private final Map<CertificateID, Cached> cache = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder signs = new LongAdder();
+    private volatile Issuer issuer;
+
+    /**
+     * 缓存的已签名响应
+     */
+    private static final class Cached {
+        private final byte[] encoded;
+        private final int status;
+        private final long refreshAt;
+        private final long nextUpdate;
+        private volatile long lastAccess;
+
+        private Cached(byte[] encoded, int status, long thisUpdate, long nextUpdate) {
+            this.encoded = encoded;
+            this.status = status;
+            this.refreshAt = thisUpdate + (nextUpdate - thisUpdate) / 2;
+            this.nextUpdate = nextUpdate;
+            this.lastAccess = thisUpdate;
+        }
+    }
+
+    /**
+     * 根证书相关的不变量，根证书更换时整体替换
+     */
+    private static final class Issuer {
+        private final IssuerContext context;
+        private final X509CertificateHolder holder;
+        private final DigestCalculatorProvider digests;
+        private final SubjectPublicKeyInfo publicKeyInfo;
+        /**
+         * 各摘要算法下根证书的issuerNameHash||issuerKeyHash，第一次遇到该算法时计算
+         */
+        private final Map<ASN1ObjectIdentifier, byte[][]> issuerHashes = new ConcurrentHashMap<>();
+
+        private Issuer(IssuerContext context) throws Exception {
+            this.context = context;
+            this.holder = new X509CertificateHolder(context.getCertEncoded());
+            this.digests = new JcaDigestCalculatorProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build();
+            this.publicKeyInfo = holder.getSubjectPublicKeyInfo();
+        }
+
+        private boolean matches(CertificateID id) throws Exception {
+            ASN1ObjectIdentifier algorithm = id.getHashAlgOID();
+            byte[][] hashes = issuerHashes.get(algorithm);
+            if (null == hashes) {
+                CertificateID own = new CertificateID(digests.get(id.toASN1Primitive().getHashAlgorithm()), holder, BigInteger.ONE);
+                hashes = new byte[][]{own.getIssuerNameHash(), own.getIssuerKeyHash()};
+                issuerHashes.put(algorithm, hashes);
+            }
+            return Arrays.equals(hashes[0], id.getIssuerNameHash()) && Arrays.equals(hashes[1], id.getIssuerKeyHash());
+        }
+    }
+
+    /**
+     * @param contextLoader 获取签发者上下文，如CaService::issuerContext，后台线程定期调用以发现根证书更换
+     * @param repository    已签发证书库，用于区分good和unknown
+     * @param registry      吊销登记
+     * @param validity      响应有效期，毫秒
+     * @param maxEntries    缓存的响应数上限，超过后新的响应不再缓存
+     * @throws Exception
+     */
+    public OcspResponder(Callable<IssuerContext> contextLoader, CertRepository repository, RevocationRegistry registry, long validity, int maxEntries) throws Exception {
+        if (validity < 2000) {
+            throw new IllegalArgumentException("validity must be at least 2s:" + validity);
+        }
+        this.contextLoader = contextLoader;
+        this.repository = repository;
+        this.registry = registry;
+        this.validity = validity;
+        this.maxEntries = maxEntries;
+        this.issuer = new Issuer(contextLoader.call());
+        this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ocsp-refresher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1000L, validity / 8);
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        /** 签发和吊销一般由另一个进程执行，每秒跟进一次证书库和吊销日志 */
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    registry.refresh();
+                } catch (Throwable e) {
+                    logger.warn("读取吊销登记失败", e);
+                }
+                try {
+                    repository.refresh();
+                } catch (Throwable e) {
+                    logger.warn("读取证书库失败", e);
+                }
+            }
+        }, 1000, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 使用CaService的根证书和默认的证书库、吊销登记
+     *
+     * @param service
+     * @return
+     * @throws Exception
+     */
+    public static OcspResponder create(final CaService service) throws Exception {
+        return new OcspResponder(new Callable<IssuerContext>() {
+            @Override
+            public IssuerContext call() throws Exception {
+                return service.issuerContext();
+            }
+        }, CertRepository.forDirReadOnly(Constant.repoDir), RevocationRegistry.forDir(Constant.crlDir), Constant.ocspValidity, Constant.ocspCacheSize);
+    }
+
+    /**
+     * 处理一个DER编码的OCSP请求，不抛出异常，出错时返回对应状态的响应
+     *
+     * @param request
+     * @return DER编码的OCSP响应，调用方不能修改
+     */
+    public byte[] respond(byte[] request) {
+        OCSPReq req;
+        try {
+            req = new OCSPReq(request);
+        } catch (Exception e) {
+            return MALFORMED_REQUEST;
+        }
+        Req[] list = req.getRequestList();
+        if (list.length == 0) {
+            return MALFORMED_REQUEST;
+        }
+        try {
+            Issuer current = issuer;
+            for (Req one : list) {
+                if (!current.matches(one.getCertID())) {
+                    return UNAUTHORIZED;
+                }
+            }
+            if (list.length > 1) {
+                return sign(current, list);
+            }
+            CertificateID id = list[0].getCertID();
+            long now = System.currentTimeMillis();
+            Cached cached = cache.get(id);
+            if (null != cached && cached.nextUpdate > now && (cached.status == REVOKED || null == registry.get(id.getSerialNumber()))) {
+                hits.increment();
+                cached.lastAccess = now;
+                return cached.encoded;
+            }
+            misses.increment();
+            cached = create(current, id, now);
+            if (cached.status != UNKNOWN && (cache.size() < maxEntries || cache.containsKey(id))) {
+                cache.put(id, cached);
+            }
+            return cached.encoded;
+        } catch (Exception e) {
+            logger.warn("生成OCSP响应失败", e);
+            return INTERNAL_ERROR;
+        }
+    }
+
+    /**
+     * 重新签发快到期的缓存，清理长时间没有访问的，根证书更换时清空
+     */
+    private void refresh() {
+        try {
+            IssuerContext context = contextLoader.call();
+            if (context != issuer.context) {
+                issuer = new Issuer(context);
+                cache.clear();
+                logger.info("根证书已更换，清空OCSP响应缓存");
+                return;
+            }
+            Issuer current = issuer;
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<CertificateID, Cached>> iterator = cache.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<CertificateID, Cached> entry = iterator.next();
+                Cached cached = entry.getValue();
+                if (cached.lastAccess < now - validity) {
+                    iterator.remove();
+                } else if (cached.refreshAt <= now) {
+                    Cached renewed = create(current, entry.getKey(), now);
+                    renewed.lastAccess = cached.lastAccess;
+                    entry.setValue(renewed);
+                }
+            }
+        } catch (Throwable e) {
+            logger.warn("刷新OCSP响应缓存失败", e);
+        }
+    }
+
+    private Cached create(Issuer current, CertificateID id, long now) throws Exception {
+        int status = status(id.getSerialNumber());
+        Date thisUpdate = new Date(now);
+        Date nextUpdate = new Date(now + validity);
+        BasicOCSPRespBuilder builder = builder(current);
+        builder.addResponse(id, certificateStatus(status, id.getSerialNumber()), thisUpdate, nextUpdate, null);
+        return new Cached(build(current, builder, thisUpdate), status, now, now + validity);
+    }
+
+    /**
+     * 一个请求中有多个CertID时不走缓存，一起签发
+     */
+    private byte[] sign(Issuer current, Req[] list) throws Exception {
+        long now = System.currentTimeMillis();
+        Date thisUpdate = new Date(now);
+        Date nextUpdate = new Date(now + validity);
+        BasicOCSPRespBuilder builder = builder(current);
+        for (Req one : list) {
+            BigInteger serial = one.getCertID().getSerialNumber();
+            builder.addResponse(one.getCertID(), certificateStatus(status(serial), serial), thisUpdate, nextUpdate, null);
+        }
+        return build(current, builder, thisUpdate);
+    }
+
+    private int status(BigInteger serial) throws Exception {
+        if (null != registry.get(serial)) {
+            return REVOKED;
+        }
+        return null != repository.findBySerial(serial) ? GOOD : UNKNOWN;
+    }
+
+    private CertificateStatus certificateStatus(int status, BigInteger serial) {
+        if (status == GOOD) {
+            return CertificateStatus.GOOD;
+        }
+        if (status == UNKNOWN) {
+            return new UnknownStatus();
+        }
+        RevokedSet.Entry entry = registry.get(serial);
+        return new RevokedStatus(new Date(entry.getTime()), entry.getReason());
+    }
+
+    private static BasicOCSPRespBuilder builder(Issuer current) throws Exception {
+        DigestCalculator sha1 = current.digests.get(CertificateID.HASH_SHA1);
+        return new BasicOCSPRespBuilder(current.publicKeyInfo, sha1);
+    }
+
+    private byte[] build(Issuer current, BasicOCSPRespBuilder builder, Date producedAt) throws Exception {
+        ContentSigner signer = CertUtil.createContentSigner(current.context.getSignAlg(), current.context.getPrivateKey(), current.context.getPublicKey());
+        BasicOCSPResp basic = builder.build(signer, null, producedAt);
+        signs.increment();
+        return new OCSPRespBuilder().build(OCSPRespBuilder.SUCCESSFUL, basic).getEncoded();
+    }
+
+    private static byte[] status(int status) {
+        try {
+            return new OCSPRespBuilder().build(status, null).getEncoded();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return 签名次数，包括后台刷新
+     */
+    public long getSigns() {
+        return signs.sum();
+    }
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "OcspResponder{cached=" + cache.size() + ", hits=" + hits.sum() + ", misses=" + misses.sum() + ", signs=" + signs.sum() + "}";
+    }
+}
@@ -0,0 +1,119 @@
+package com.ggp.noob;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.util.encoders.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/28 14:30
+ * @Description: OCSP的http服务(RFC6960 附录A)，与签发服务分开启动，只暴露OCSP
+ * POST 请求体为DER编码的请求，Content-Type: application/ocsp-request；
+ * GET  /{url编码的base64请求}
+ */
+public class OcspServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(OcspServer.class);
+    private static final int MAX_REQUEST = 16 * 1024;
+
+    private final OcspResponder responder;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param responder
+     * @param host      监听地址，null表示所有地址
+     * @param port      端口，0表示随机
+     * @throws IOException
+     */
+    public OcspServer(OcspResponder responder, String host, int port) throws IOException {
+        this.responder = responder;
+        this.server = CaHttpServer.createServer(null == host ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+        this.executor = HttpExecutor.create("ocsp-http");
+        server.setExecutor(executor);
+        server.createContext("/", new OcspHandler());
+    }
+
+    public void start() {
+        server.start();
+        logger.info("OCSP服务已启动，端口:{}", getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public OcspResponder getResponder() {
+        return responder;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private class OcspHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (HttpExecutor.isOverloaded()) {
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                byte[] request;
+                String method = exchange.getRequestMethod();
+                if ("POST".equalsIgnoreCase(method)) {
+                    request = readBody(exchange.getRequestBody());
+                } else if ("GET".equalsIgnoreCase(method)) {
+                    String path = exchange.getRequestURI().getRawPath();
+                    request = Base64.decode(URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), "UTF-8"));
+                } else {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] response = null == request ? null : responder.respond(request);
+                if (null == response) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+                exchange.sendResponseHeaders(200, response.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.flush();
+            } catch (RuntimeException e) {
+                logger.debug("OCSP请求格式错误", e);
+                exchange.sendResponseHeaders(400, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * @return 超过上限时返回null
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        byte[] buffer = new byte[2048];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            if (out.size() + len > MAX_REQUEST) {
+                return null;
+            }
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+}
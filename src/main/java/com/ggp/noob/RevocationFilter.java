@@ -0,0 +1,177 @@
+package com.ggp.noob;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/29 10:10
+ * @Description: 挡在RevokedSet前面的分块布隆过滤器
+ * 每个序列号的k个位都落在同一个512位(8个long，一条缓存行)的块内，判断一次只访问一条缓存行。
+ * 吊销不会撤销，所以不需要计数，只增不减；元素数超过容量时由RevokedSet按两倍容量重建。
+ * 写入在RevokedSet的写锁内，读取不加锁：和写入同时发生的读取看到的是吊销之前的结果
+ */
+public class RevocationFilter {
+    private static final int BLOCK_LONGS = 8;
+    private static final int BLOCK_BITS = BLOCK_LONGS * 64;
+
+    private final AtomicLongArray bits;
+    private final int blockMask;
+    private final int hashes;
+    private final int capacity;
+    private final AtomicLong count = new AtomicLong();
+    private final LongAdder positives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * @param capacity   预期元素数
+     * @param bitsPerKey 每个元素占用的位数，16时达到容量时误判率约十万分之一
+     */
+    public RevocationFilter(int capacity, int bitsPerKey) {
+        long wanted = Math.max(1L, (long) capacity * bitsPerKey / BLOCK_BITS);
+        int blocks = Integer.highestOneBit((int) Math.min(wanted, 1 << 24));
+        if (blocks < wanted) {
+            blocks <<= 1;
+        }
+        this.bits = new AtomicLongArray(blocks * BLOCK_LONGS);
+        this.blockMask = blocks - 1;
+        this.capacity = capacity;
+        /** k = ln2 * 每元素位数，按实际位数计算 */
+        this.hashes = Math.max(1, Math.min(16, (int) Math.round(Math.log(2) * blocks * BLOCK_BITS / Math.max(1, capacity))));
+    }
+
+    void put(long hi, long lo) {
+        long h = mix(hi, lo);
+        int base = ((int) (h >>> 32) & blockMask) * BLOCK_LONGS;
+        long r = next(h);
+        for (int i = 0, used = 0; i < hashes; i++, used += 9) {
+            if (used > 55) {
+                r = next(r);
+                used = 0;
+            }
+            int bit = (int) (r >>> used) & (BLOCK_BITS - 1);
+            int index = base + (bit >>> 6);
+            long mask = 1L << bit;
+            long old = bits.get(index);
+            while ((old & mask) == 0 && !bits.compareAndSet(index, old, old | mask)) {
+                old = bits.get(index);
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * @return false时一定没有吊销
+     */
+    public boolean mightContain(long hi, long lo) {
+        long h = mix(hi, lo);
+        int base = ((int) (h >>> 32) & blockMask) * BLOCK_LONGS;
+        long r = next(h);
+        for (int i = 0, used = 0; i < hashes; i++, used += 9) {
+            if (used > 55) {
+                r = next(r);
+                used = 0;
+            }
+            int bit = (int) (r >>> used) & (BLOCK_BITS - 1);
+            if ((bits.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 过滤器判断可能吊销后精确查找的结果，只在放行时统计，不拖慢未吊销的判断
+     */
+    void record(boolean revoked) {
+        positives.increment();
+        if (!revoked) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * 按当前元素数估算的误判率。分块布隆过滤器每块的元素数近似泊松分布，
+     * 对块内元素数j求 P(j)*(1-(1-1/512)^(k*j))^k 之和
+     *
+     * @return 一个未吊销的序列号被放行的概率
+     */
+    public double getFalsePositiveRate() {
+        double lambda = (double) count.get() / (blockMask + 1);
+        double p = Math.exp(-lambda);
+        double rate = 0;
+        int max = (int) (lambda * 4) + 64;
+        for (int j = 0; j <= max; j++) {
+            if (j > 0) {
+                p *= lambda / j;
+            }
+            rate += p * Math.pow(1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) hashes * j), hashes);
+        }
+        return rate;
+    }
+
+    /**
+     * @return 放行的次数，包括确实吊销的
+     */
+    public long getPositives() {
+        return positives.sum();
+    }
+
+    /**
+     * @return 放行后精确查找发现未吊销的次数
+     */
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * @return 已放入的元素数
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * @return 占用的字节数
+     */
+    public long getSizeInBytes() {
+        return bits.length() * 8L;
+    }
+
+    /**
+     * 块内的位置取自独立的哈希流，每次用9位。双重哈希(a+i*b)在512位的块内位置模式太少，
+     * 同块的序列号模式重叠时误判率会高出两三个数量级
+     */
+    private static long next(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    private static long mix(long hi, long lo) {
+        long x = hi * 0xC2B2AE3D27D4EB4FL + lo;
+        x ^= x >>> 31;
+        x *= 0x9E3779B97F4A7C15L;
+        x ^= x >>> 29;
+        x *= 0xBF58476D1CE4E5B9L;
+        x ^= x >>> 32;
+        return x;
+    }
+
+    @Override
+    public String toString() {
+        return "RevocationFilter{capacity=" + capacity + ", hashes=" + hashes + ", bytes=" + getSizeInBytes()
+                + ", count=" + getCount() + ", fpr=" + getFalsePositiveRate()
+                + ", positives=" + getPositives() + ", falsePositives=" + getFalsePositives() + "}";
+    }
+}
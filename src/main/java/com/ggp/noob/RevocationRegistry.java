@@ -0,0 +1,435 @@
+package com.ggp.noob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/25 10:30
+ * @Description: 吊销登记，负责RevokedSet的持久化和CRL编号
+ * revoked.base    上一次完整CRL时的有序全集，头部记录该CRL的编号，整体替换；
+ * revoked-n.log   编号为n的基准之后的每次吊销，定长记录 序列号高64位||低64位||时间||原因||crc32，写入即fsync；
+ * crl.number      最近一次分配的CRL编号。
+ * 生成完整CRL时增量归并进基准并重写revoked.base，然后换用新基准对应的日志，启动时只需加载基准再重放日志。
+ * 只读的进程（如单独启动的OCSP服务）调用refresh跟进其他进程写入的吊销，日志只追加不截断，所以不会读到一半被清空的文件。
+ * 每次-revoke/-crl都是单独的进程，写操作(吊销、分配CRL、启动时截断和清理日志)都在crl.lock的文件锁内进行，
+ * 加锁后先refresh跟进其他进程的写入，不会两个进程写同一个日志位置，也不会写进已被其他进程归并删除的旧日志
+ */
+public class RevocationRegistry implements Closeable {
+    private static final Map<String, RevocationRegistry> INSTANCES = new ConcurrentHashMap<>();
+    /**
+     * 文件锁只在进程之间互斥，同一进程内同一目录的多个实例再用这里的锁互斥，否则会OverlappingFileLockException
+     */
+    private static final Map<String, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+    private static final int BASE_MAGIC = 0x52564231;
+    private static final int LOG_RECORD = 32;
+
+    /**
+     * 一次CRL生成所需的内容
+     */
+    public static final class Cut {
+        private final RevokedSet.Snapshot entries;
+        private final long crlNumber;
+        private final long baseCrlNumber;
+
+        private Cut(RevokedSet.Snapshot entries, long crlNumber, long baseCrlNumber) {
+            this.entries = entries;
+            this.crlNumber = crlNumber;
+            this.baseCrlNumber = baseCrlNumber;
+        }
+
+        public RevokedSet.Snapshot getEntries() {
+            return entries;
+        }
+
+        public long getCrlNumber() {
+            return crlNumber;
+        }
+
+        /**
+         * @return 增量CRL的基准CRL编号，完整CRL为0
+         */
+        public long getBaseCrlNumber() {
+            return baseCrlNumber;
+        }
+    }
+
+    private final File dir;
+    private final ReentrantLock processLock;
+    private final FileChannel lockChannel;
+    private volatile RevokedSet revoked = new RevokedSet();
+    private FileChannel log;
+    /**
+     * 日志中已读入内存的位置
+     */
+    private long logPosition;
+    private long baseModified;
+    private long crlNumber;
+    private long baseCrlNumber;
+
+    public RevocationRegistry(String dir) throws IOException {
+        this.dir = new File(dir);
+        this.dir.mkdirs();
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(this.dir.getAbsolutePath(), d -> new ReentrantLock());
+        this.lockChannel = FileChannel.open(new File(this.dir, "crl.lock").toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = lock();
+            try {
+                loadBase();
+                crlNumber = Math.max(readCrlNumber(), baseCrlNumber);
+                openLog();
+                replayLog(true);
+                deleteStaleLogs();
+            } finally {
+                unlock(lock);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (null != log) {
+                log.close();
+            }
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取进程内共享的实例，同一个目录只对应一个实例
+     *
+     * @param dir
+     * @return
+     */
+    public static RevocationRegistry forDir(String dir) {
+        return INSTANCES.computeIfAbsent(new File(dir).getAbsolutePath(), d -> {
+            try {
+                return new RevocationRegistry(d);
+            } catch (IOException e) {
+                throw new IllegalStateException("打开吊销登记失败:" + d, e);
+            }
+        });
+    }
+
+    /**
+     * 吊销，写入日志并fsync后才返回
+     *
+     * @param serial 序列号
+     * @param time   吊销时间，毫秒
+     * @param reason 吊销原因，RFC5280 CRLReason
+     * @return 已经吊销过时返回false
+     * @throws IOException
+     */
+    public synchronized boolean revoke(BigInteger serial, long time, int reason) throws IOException {
+        if (reason < 0 || reason > 10 || reason == 7) {
+            throw new IllegalArgumentException("吊销原因不正确:" + reason);
+        }
+        FileLock lock = lock();
+        try {
+            refresh();
+            if (revoked.contains(serial)) {
+                return false;
+            }
+            long hi = RevokedSet.hi(serial);
+            long lo = RevokedSet.lo(serial);
+            ByteBuffer record = ByteBuffer.allocate(LOG_RECORD);
+            record.putLong(hi).putLong(lo).putLong(time).putInt(reason);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, LOG_RECORD - 4);
+            record.putInt((int) crc.getValue());
+            record.flip();
+            while (record.hasRemaining()) {
+                log.write(record, logPosition + record.position());
+            }
+            log.force(false);
+            logPosition += LOG_RECORD;
+            return revoked.add(serial, time, reason);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    public RevokedSet.Entry get(BigInteger serial) {
+        return revoked.get(serial);
+    }
+
+    public boolean isRevoked(BigInteger serial) {
+        return null != revoked.get(serial);
+    }
+
+    public RevokedSet getRevoked() {
+        return revoked;
+    }
+
+    /**
+     * 分配完整CRL：增量归并为新的基准并落盘
+     *
+     * @return
+     * @throws IOException
+     */
+    public synchronized Cut full() throws IOException {
+        FileLock lock = lock();
+        try {
+            refresh();
+            long number = nextCrlNumber();
+            RevokedSet.Snapshot base = revoked.rebase();
+            writeBase(base, number);
+            baseCrlNumber = number;
+            baseModified = new File(dir, "revoked.base").lastModified();
+            log.close();
+            openLog();
+            logPosition = 0;
+            deleteStaleLogs();
+            return new Cut(base, number, 0);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * 分配增量CRL：只包含上一次完整CRL之后的吊销
+     *
+     * @return
+     * @throws IOException
+     */
+    public synchronized Cut delta() throws IOException {
+        FileLock lock = lock();
+        try {
+            refresh();
+            if (baseCrlNumber == 0) {
+                throw new IllegalStateException("还没有生成过完整CRL，不能生成增量CRL");
+            }
+            return new Cut(revoked.delta(), nextCrlNumber(), baseCrlNumber);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * 跟进其他进程的写入：基准被替换时整体重新加载，否则读入日志新增的记录
+     *
+     * @throws IOException
+     */
+    public synchronized void refresh() throws IOException {
+        File base = new File(dir, "revoked.base");
+        if (base.lastModified() != baseModified || readBaseNumber(base) != baseCrlNumber) {
+            RevokedSet previous = revoked;
+            revoked = new RevokedSet();
+            try {
+                loadBase();
+            } catch (IOException e) {
+                revoked = previous;
+                throw e;
+            }
+            crlNumber = Math.max(crlNumber, baseCrlNumber);
+            log.close();
+            openLog();
+            logPosition = 0;
+        }
+        replayLog(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            log.close();
+        } finally {
+            lockChannel.close();
+            INSTANCES.remove(dir.getAbsolutePath(), this);
+        }
+    }
+
+    /**
+     * 加进程内和进程间的写锁，阻塞等待其他进程的吊销或CRL分配完成，都很快
+     */
+    private FileLock lock() throws IOException {
+        processLock.lock();
+        try {
+            return lockChannel.lock();
+        } catch (IOException | RuntimeException e) {
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlock(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private long readCrlNumber() throws IOException {
+        File number = new File(dir, "crl.number");
+        if (!number.exists()) {
+            return 0;
+        }
+        return Long.parseLong(new String(Files.readAllBytes(number.toPath()), "UTF-8").trim());
+    }
+
+    /**
+     * @return 基准文件头部的CRL编号，不存在时为0；修改时间精度不够时用它判断基准是否被其他进程替换
+     */
+    private static long readBaseNumber(File base) throws IOException {
+        if (!base.exists()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(base))) {
+            in.readInt();
+            return in.readLong();
+        } catch (EOFException e) {
+            throw new IOException("吊销基准文件不完整:" + base, e);
+        }
+    }
+
+    /**
+     * 在锁内调用，编号文件可能已被其他进程推进，以文件中的为准
+     */
+    private long nextCrlNumber() throws IOException {
+        long number = Math.max(crlNumber, readCrlNumber()) + 1;
+        File tmp = new File(dir, "crl.number.tmp");
+        FileOutputStream os = new FileOutputStream(tmp);
+        try {
+            os.write(String.valueOf(number).getBytes("UTF-8"));
+            os.getFD().sync();
+        } finally {
+            os.close();
+        }
+        Files.move(tmp.toPath(), new File(dir, "crl.number").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        crlNumber = number;
+        return number;
+    }
+
+    private void writeBase(RevokedSet.Snapshot base, long number) throws IOException {
+        File tmp = new File(dir, "revoked.base.tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 256 * 1024));
+            out.writeInt(BASE_MAGIC);
+            out.writeLong(number);
+            out.writeInt(base.size());
+            for (int i = 0; i < base.size(); i++) {
+                out.writeLong(base.hi(i));
+                out.writeLong(base.lo(i));
+                out.writeLong(base.time(i));
+                out.writeByte(base.reason(i));
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        Files.move(tmp.toPath(), new File(dir, "revoked.base").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadBase() throws IOException {
+        File file = new File(dir, "revoked.base");
+        baseModified = file.lastModified();
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 256 * 1024));
+        try {
+            if (in.readInt() != BASE_MAGIC) {
+                throw new IOException("吊销基准文件格式错误:" + file);
+            }
+            baseCrlNumber = in.readLong();
+            int size = in.readInt();
+            long[] hi = new long[size];
+            long[] lo = new long[size];
+            long[] time = new long[size];
+            byte[] reason = new byte[size];
+            for (int i = 0; i < size; i++) {
+                hi[i] = in.readLong();
+                lo[i] = in.readLong();
+                time[i] = in.readLong();
+                reason[i] = in.readByte();
+            }
+            revoked.setBase(new RevokedSet.Snapshot(hi, lo, time, reason, size));
+        } catch (EOFException e) {
+            throw new IOException("吊销基准文件不完整:" + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private File logFile(long number) {
+        return new File(dir, "revoked-" + number + ".log");
+    }
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(logFile(baseCrlNumber).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 删除旧基准的日志，其中的记录都已归并进当前基准
+     */
+    private void deleteStaleLogs() {
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        String current = logFile(baseCrlNumber).getName();
+        for (File file : files) {
+            if (file.getName().startsWith("revoked-") && file.getName().endsWith(".log") && !file.getName().equals(current)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 从已读位置重放日志；启动时截掉末尾不完整或校验失败的记录，
+     * 跟进其他进程时只停在该处，等下次再读
+     *
+     * @param truncate 是否截断
+     */
+    private void replayLog(boolean truncate) throws IOException {
+        long size = log.size();
+        long offset = logPosition;
+        ByteBuffer record = ByteBuffer.allocate(LOG_RECORD);
+        while (offset + LOG_RECORD <= size) {
+            record.clear();
+            while (record.hasRemaining()) {
+                if (log.read(record, offset + record.position()) < 0) {
+                    break;
+                }
+            }
+            if (record.hasRemaining()) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, LOG_RECORD - 4);
+            record.flip();
+            long hi = record.getLong();
+            long lo = record.getLong();
+            long time = record.getLong();
+            int reason = record.getInt();
+            if (record.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            revoked.add(RevokedSet.toSerial(hi, lo), time, reason);
+            offset += LOG_RECORD;
+        }
+        if (truncate && offset < size) {
+            log.truncate(offset);
+        }
+        logPosition = offset;
+    }
+}
@@ -0,0 +1,416 @@
+package com.ggp.noob;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/25 9:40
+ * @Description: 已吊销序列号集合，只用基本类型数组，不为每个序列号创建对象
+ * 序列号(不超过128位)拆成高低两个long，与吊销时间、原因一起存放在按序列号排序的平行数组中，查找为二分查找。
+ * 分为基准部分和增量部分：基准部分对应上一次完整CRL，按序列号排序，生成后不再修改；
+ * 之后的吊销按吊销顺序追加到增量部分，用开放寻址的下标表判重，批量吊销也不需要移动数组。
+ * 增量CRL只编码增量部分，生成完整CRL时增量部分排序后与基准线性归并为新的基准。
+ * 查找前先问RevocationFilter，绝大多数查询的证书没有吊销，不用加锁也不用二分查找就能返回
+ */
+public class RevokedSet {
+    private static final long[] EMPTY_LONGS = new long[0];
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * 不可变的快照，CRL按快照编码；基准快照按序列号排序，增量快照按吊销顺序
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(EMPTY_LONGS, EMPTY_LONGS, EMPTY_LONGS, EMPTY_BYTES, 0);
+
+        private final long[] hi;
+        private final long[] lo;
+        private final long[] time;
+        private final byte[] reason;
+        private final int size;
+
+        Snapshot(long[] hi, long[] lo, long[] time, byte[] reason, int size) {
+            this.hi = hi;
+            this.lo = lo;
+            this.time = time;
+            this.reason = reason;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return 序列号高64位
+         */
+        public long hi(int i) {
+            return hi[i];
+        }
+
+        /**
+         * @return 序列号低64位
+         */
+        public long lo(int i) {
+            return lo[i];
+        }
+
+        /**
+         * @return 吊销时间，毫秒
+         */
+        public long time(int i) {
+            return time[i];
+        }
+
+        /**
+         * @return 吊销原因，RFC5280 CRLReason
+         */
+        public int reason(int i) {
+            return reason[i];
+        }
+
+        public BigInteger serial(int i) {
+            return toSerial(hi[i], lo[i]);
+        }
+
+        /**
+         * @return 下标，不存在时为负数
+         */
+        int indexOf(long h, long l) {
+            return search(hi, lo, size, h, l);
+        }
+    }
+
+    /**
+     * 查找结果
+     */
+    public static final class Entry {
+        private final long time;
+        private final int reason;
+
+        private Entry(long time, int reason) {
+            this.time = time;
+            this.reason = reason;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getReason() {
+            return reason;
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Snapshot base = Snapshot.EMPTY;
+    private long[] deltaHi = new long[INITIAL_CAPACITY];
+    private long[] deltaLo = new long[INITIAL_CAPACITY];
+    private long[] deltaTime = new long[INITIAL_CAPACITY];
+    private byte[] deltaReason = new byte[INITIAL_CAPACITY];
+    private int deltaSize;
+    /**
+     * 增量部分的开放寻址表，存放 下标+1，0表示空位，容量保持在元素数的两倍以上
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private volatile RevocationFilter filter = new RevocationFilter(INITIAL_CAPACITY * 16, Constant.revocationFilterBits);
+
+    /**
+     * 用已排序的数据作为基准，启动时从基准文件加载
+     */
+    void setBase(Snapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            base = snapshot;
+            rebuildFilter();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 吊销
+     *
+     * @param serial 序列号
+     * @param time   吊销时间，毫秒
+     * @param reason 吊销原因
+     * @return 已经吊销过时返回false
+     */
+    public boolean add(BigInteger serial, long time, int reason) {
+        long h = hi(serial);
+        long l = lo(serial);
+        lock.writeLock().lock();
+        try {
+            if (base.indexOf(h, l) >= 0 || deltaIndexOf(h, l) >= 0) {
+                return false;
+            }
+            if (deltaSize == deltaHi.length) {
+                int capacity = deltaSize * 2;
+                deltaHi = Arrays.copyOf(deltaHi, capacity);
+                deltaLo = Arrays.copyOf(deltaLo, capacity);
+                deltaTime = Arrays.copyOf(deltaTime, capacity);
+                deltaReason = Arrays.copyOf(deltaReason, capacity);
+                slots = new int[capacity * 2];
+                for (int i = 0; i < deltaSize; i++) {
+                    slots[freeSlot(deltaHi[i], deltaLo[i])] = i + 1;
+                }
+            }
+            deltaHi[deltaSize] = h;
+            deltaLo[deltaSize] = l;
+            deltaTime[deltaSize] = time;
+            deltaReason[deltaSize] = (byte) reason;
+            slots[freeSlot(h, l)] = ++deltaSize;
+            if (base.size + deltaSize > filter.getCapacity()) {
+                rebuildFilter();
+            } else {
+                filter.put(h, l);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param serial
+     * @return 未吊销时返回null
+     */
+    public Entry get(BigInteger serial) {
+        if (serial.signum() < 0 || serial.bitLength() > 128) {
+            return null;
+        }
+        long h = serial.bitLength() > 64 ? serial.shiftRight(64).longValue() : 0;
+        long l = serial.longValue();
+        RevocationFilter current = filter;
+        if (!current.mightContain(h, l)) {
+            return null;
+        }
+        Entry entry;
+        lock.readLock().lock();
+        try {
+            Snapshot snapshot = base;
+            int index = snapshot.indexOf(h, l);
+            if (index >= 0) {
+                entry = new Entry(snapshot.time[index], snapshot.reason[index]);
+            } else {
+                index = deltaIndexOf(h, l);
+                entry = index >= 0 ? new Entry(deltaTime[index], deltaReason[index]) : null;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        current.record(null != entry);
+        return entry;
+    }
+
+    public boolean contains(BigInteger serial) {
+        return null != get(serial);
+    }
+
+    /**
+     * @return 吊销总数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return base.size + deltaSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public RevocationFilter getFilter() {
+        return filter;
+    }
+
+    public Snapshot base() {
+        return base;
+    }
+
+    /**
+     * @return 上一次归并之后的吊销，按吊销顺序
+     */
+    public Snapshot delta() {
+        lock.readLock().lock();
+        try {
+            return new Snapshot(Arrays.copyOf(deltaHi, deltaSize), Arrays.copyOf(deltaLo, deltaSize),
+                    Arrays.copyOf(deltaTime, deltaSize), Arrays.copyOf(deltaReason, deltaSize), deltaSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 增量排序后与基准线性归并
+     *
+     * @return 新的基准
+     */
+    public Snapshot rebase() {
+        lock.writeLock().lock();
+        try {
+            Snapshot old = base;
+            int[] order = sortedDelta();
+            int size = old.size + deltaSize;
+            long[] hi = new long[size];
+            long[] lo = new long[size];
+            long[] time = new long[size];
+            byte[] reason = new byte[size];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < size; k++) {
+                int d = j < deltaSize ? order[j] : -1;
+                if (d < 0 || (i < old.size && compare(old.hi[i], old.lo[i], deltaHi[d], deltaLo[d]) < 0)) {
+                    hi[k] = old.hi[i];
+                    lo[k] = old.lo[i];
+                    time[k] = old.time[i];
+                    reason[k] = old.reason[i];
+                    i++;
+                } else {
+                    hi[k] = deltaHi[d];
+                    lo[k] = deltaLo[d];
+                    time[k] = deltaTime[d];
+                    reason[k] = deltaReason[d];
+                    j++;
+                }
+            }
+            base = new Snapshot(hi, lo, time, reason, size);
+            deltaSize = 0;
+            if (deltaHi.length > INITIAL_CAPACITY * 16) {
+                deltaHi = new long[INITIAL_CAPACITY];
+                deltaLo = new long[INITIAL_CAPACITY];
+                deltaTime = new long[INITIAL_CAPACITY];
+                deltaReason = new byte[INITIAL_CAPACITY];
+                slots = new int[INITIAL_CAPACITY * 2];
+            } else {
+                Arrays.fill(slots, 0);
+            }
+            return base;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按当前元素数的两倍容量重建过滤器，调用方持有写锁
+     */
+    private void rebuildFilter() {
+        Snapshot snapshot = base;
+        RevocationFilter rebuilt = new RevocationFilter(Math.max(INITIAL_CAPACITY * 16, (snapshot.size + deltaSize) * 2), Constant.revocationFilterBits);
+        for (int i = 0; i < snapshot.size; i++) {
+            rebuilt.put(snapshot.hi[i], snapshot.lo[i]);
+        }
+        for (int i = 0; i < deltaSize; i++) {
+            rebuilt.put(deltaHi[i], deltaLo[i]);
+        }
+        filter = rebuilt;
+    }
+
+    /**
+     * 增量部分按序列号排序后的下标，自底向上归并排序
+     */
+    private int[] sortedDelta() {
+        int[] order = new int[deltaSize];
+        for (int i = 0; i < deltaSize; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[deltaSize];
+        for (int width = 1; width < deltaSize; width *= 2) {
+            for (int low = 0; low < deltaSize; low += 2 * width) {
+                int mid = Math.min(low + width, deltaSize);
+                int high = Math.min(low + 2 * width, deltaSize);
+                int i = low;
+                int j = mid;
+                for (int k = low; k < high; k++) {
+                    if (j >= high || (i < mid && compare(deltaHi[order[i]], deltaLo[order[i]], deltaHi[order[j]], deltaLo[order[j]]) <= 0)) {
+                        buffer[k] = order[i++];
+                    } else {
+                        buffer[k] = order[j++];
+                    }
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private int deltaIndexOf(long h, long l) {
+        int mask = slots.length - 1;
+        for (int slot = hash(h, l) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (deltaHi[index] == h && deltaLo[index] == l) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private int freeSlot(long h, long l) {
+        int mask = slots.length - 1;
+        int slot = hash(h, l) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(long h, long l) {
+        long x = (h * 0x9E3779B97F4A7C15L) ^ l;
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        return (int) x;
+    }
+
+    static long hi(BigInteger serial) {
+        checkSerial(serial);
+        return serial.shiftRight(64).longValue();
+    }
+
+    static long lo(BigInteger serial) {
+        return serial.longValue();
+    }
+
+    static BigInteger toSerial(long hi, long lo) {
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (hi >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (lo >>> (56 - 8 * i));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    private static void checkSerial(BigInteger serial) {
+        if (serial.signum() < 0 || serial.bitLength() > 128) {
+            throw new IllegalArgumentException("只支持不超过128位的正序列号:" + serial.toString(16));
+        }
+    }
+
+    static int compare(long h1, long l1, long h2, long l2) {
+        int c = Long.compareUnsigned(h1, h2);
+        return c != 0 ? c : Long.compareUnsigned(l1, l2);
+    }
+
+    /**
+     * @return 找到时为下标，否则为 -(插入位置) - 1
+     */
+    private static int search(long[] hi, long[] lo, int size, long h, long l) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(hi[mid], lo[mid], h, l);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,139 @@
+package com.ggp.noob;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/7 9:48
+ * @Description: 证书序列号分配器
+ * 内存中只做一次原子自增；计数器按块向高水位文件预留，文件中记录已预留的上限，
+ * 重启后从上限继续分配，不会重复使用序列号。文件加锁预留，多个进程共用一个文件也不会冲突。
+ * 开启随机位时序列号为 计数器(8字节)||随机数(8字节)，满足CA/B基线要求的64位随机熵
+ */
+public class SerialAllocator {
+    private static final Map<String, SerialAllocator> INSTANCES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    private final File file;
+    private final long blockSize;
+    private final boolean randomBits;
+    private final AtomicLong counter = new AtomicLong();
+    /**
+     * 当前可用的计数器区间，整体替换
+     */
+    private volatile Block block = new Block(0, 0);
+
+    private static final class Block {
+        private final long start;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private boolean contains(long n) {
+            return n >= start && n < end;
+        }
+    }
+
+    /**
+     * @param path       高水位文件路径
+     * @param blockSize  每次预留的序列号数量
+     * @param randomBits 是否附加64位随机数
+     */
+    public SerialAllocator(String path, long blockSize, boolean randomBits) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive:" + blockSize);
+        }
+        this.file = new File(path);
+        this.blockSize = blockSize;
+        this.randomBits = randomBits;
+    }
+
+    /**
+     * 获取进程内共享的分配器，同一个高水位文件只对应一个实例
+     *
+     * @param path 高水位文件路径
+     * @return
+     */
+    public static SerialAllocator forFile(String path) {
+        return INSTANCES.computeIfAbsent(new File(path).getAbsolutePath(),
+                p -> new SerialAllocator(p, Constant.serialBlockSize, Constant.serialRandomBits));
+    }
+
+    /**
+     * 分配一个新的序列号
+     *
+     * @return
+     */
+    public BigInteger next() {
+        long n;
+        while (!block.contains(n = counter.getAndIncrement())) {
+            reserve();
+        }
+        if (!randomBits) {
+            return BigInteger.valueOf(n);
+        }
+        byte[] bytes = new byte[16];
+        RANDOM.get().nextBytes(bytes);
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (n >>> (56 - 8 * i));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * 向高水位文件预留下一块，已被其他线程预留时直接返回
+     */
+    private synchronized void reserve() {
+        long n = counter.get();
+        if (block.contains(n)) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(8);
+                long persisted;
+                if (channel.size() >= 8) {
+                    channel.read(buffer, 0);
+                    buffer.flip();
+                    persisted = buffer.getLong();
+                } else {
+                    /**
+                     * 首次使用，从当前时间开始，避开之前以毫秒时间作为序列号签发的证书
+                     */
+                    persisted = System.currentTimeMillis();
+                }
+                long start = Math.max(persisted, n);
+                long end = start + blockSize;
+                buffer.clear();
+                buffer.putLong(end).flip();
+                channel.write(buffer, 0);
+                channel.force(true);
+                counter.accumulateAndGet(start, Math::max);
+                block = new Block(start, end);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("预留序列号失败:" + file, e);
+        }
+    }
+
+    public boolean isRandomBits() {
+        return randomBits;
+    }
+}
@@ -18,22 +18,30 @@ import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x509.X509ObjectIdentifiers;
 import org.bouncycastle.crypto.AsymmetricBlockCipher;
 import org.bouncycastle.crypto.InvalidCipherTextException;
-import org.bouncycastle.crypto.engines.RSAEngine;
 import org.bouncycastle.crypto.engines.SM2Engine;
 import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
 import org.bouncycastle.crypto.params.ECKeyParameters;
 import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
 import org.bouncycastle.crypto.util.PublicKeyFactory;
+import org.bouncycastle.crypto.util.PrivateKeyFactory;
 import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.BigIntegers;
 
-import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.security.KeyFactory;
+import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
 
 /**
  * @Author:ggp
@@ -42,6 +50,58 @@ import java.security.SecureRandom;
  */
 public class Asn1Util {
 
+    /**
+     * 数字信封中和算法相关的固定部分，预先编码好
+     */
+    private static final class EnvelopeProfile {
+        private final byte[] keyEncryptionOid;
+        private final byte[] keyEncryptionAlgorithm;
+        private final byte[] digestAlgorithm;
+        private final byte[] digestAlgorithms;
+        private final byte[] digestEncryptionAlgorithm;
+        private final byte[] contentEncryptionAlgorithm;
+        private final SignAlgEnum signAlg;
+
+        private EnvelopeProfile(ASN1ObjectIdentifier keyEncryption, ASN1ObjectIdentifier digest, ASN1ObjectIdentifier digestEncryption, SignAlgEnum signAlg) {
+            this.keyEncryptionOid = der(keyEncryption);
+            this.keyEncryptionAlgorithm = der(new AlgorithmIdentifier(keyEncryption));
+            this.digestAlgorithm = der(new AlgorithmIdentifier(digest));
+            this.digestAlgorithms = der(new DERSet(new AlgorithmIdentifier(digest)));
+            this.digestEncryptionAlgorithm = der(new AlgorithmIdentifier(digestEncryption));
+            /**
+             * 卡暂时不支持AES，两种算法都用SM4
+             */
+            this.contentEncryptionAlgorithm = der(new AlgorithmIdentifier(Sm4Util.sm4));
+            this.signAlg = signAlg;
+        }
+
+        /**
+         * @return 签名值DER编码的最大长度，SM2为 SEQUENCE{INTEGER r, INTEGER s}，RSA为模长
+         */
+        private int maxSignature(PrivateKey key) {
+            if (key instanceof RSAKey) {
+                return (((RSAKey) key).getModulus().bitLength() + 7) / 8;
+            }
+            return 72;
+        }
+    }
+
+    private static final EnvelopeProfile RSA_ENVELOPE = new EnvelopeProfile(PKCSObjectIdentifiers.rsaEncryption, X509ObjectIdentifiers.id_SHA1, PKCSObjectIdentifiers.rsaEncryption, SignAlgEnum.SHA1_WITH_RSA);
+    private static final EnvelopeProfile SM2_ENVELOPE = new EnvelopeProfile(GMObjectIdentifiers.sm2encrypt, GMObjectIdentifiers.sm3, GMObjectIdentifiers.sm2sign, SignAlgEnum.SM3_WITH_SM2);
+    private static final byte[] ENVELOPE_OID = der(SignedAndEnvelopedData.OID);
+    private static final byte[] VERSION_0 = {DerWriter.INTEGER, 1, 0};
+    private static final byte[] VERSION_1 = {DerWriter.INTEGER, 1, 1};
+    private static final int OBJECT_IDENTIFIER = 0x06;
+    private static final int NULL = 0x05;
+
+    private static byte[] der(ASN1Encodable encodable) {
+        try {
+            return encodable.toASN1Primitive().getEncoded(ASN1Encoding.DER);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * 生成数字信封 ---GMT0010
      *
@@ -52,51 +112,315 @@ public class Asn1Util {
      * @return
      */
     public static SignedAndEnvelopedData generateSignedAndEnvelopedData(Integer alg, PublicKey signPublic, PrivateKey encPrivate, String issuerSubject, String issuerSn) throws Exception {
+        return SignedAndEnvelopedData.getInstance(ASN1Primitive.fromByteArray(encodeSignedAndEnvelopedData(alg, signPublic, encPrivate, issuerSubject, issuerSn)));
+    }
+
+    /**
+     * 生成数字信封 ---GMT0010，直接输出DER编码
+     * 先算出各层长度，分配一次数组后按顺序写入，每个组成部分只编码一次；
+     * 签名原文(version、recipientInfos、digestAlgorithms、encryptedContentInfo的编码)就是结果中的一段，直接对这一段签名。
+     * 签名值的长度签名后才知道，数组按最大长度分配，SM2签名值较短时截掉末尾多出的几个字节
+     *
+     * @param alg           算法
+     * @param signPublic    用户签名公钥
+     * @param encPrivate    用户加密私钥
+     * @param issuerSubject 签发者dn
+     * @param issuerSn      签发者sn
+     * @return SignedAndEnvelopedData的DER编码
+     * @throws Exception
+     */
+    public static byte[] encodeSignedAndEnvelopedData(Integer alg, PublicKey signPublic, PrivateKey encPrivate, String issuerSubject, String issuerSn) throws Exception {
+        return encodeSignedAndEnvelopedData(alg, signPublic, encPrivate, encodeIssuerAndSerialNumber(issuerSubject, issuerSn));
+    }
+
+    /**
+     * 编码签发者标识，同一签发者的批量数字信封只需编码一次
+     *
+     * @param issuerSubject 签发者dn
+     * @param issuerSn      签发者sn，16进制
+     * @return IssuerAndSerialNumber的DER编码
+     */
+    public static byte[] encodeIssuerAndSerialNumber(String issuerSubject, String issuerSn) {
+        return der(new IssuerAndSerialNumber(new X500Name(RFC4519Style.INSTANCE, issuerSubject), new BigInteger(issuerSn, 16)));
+    }
+
+    /**
+     * 生成数字信封 ---GMT0010，直接输出DER编码。会话秘钥、SM2/RSA引擎和随机数源取自EngineCache的线程缓存
+     *
+     * @param alg                   算法
+     * @param signPublic            用户签名公钥
+     * @param encPrivate            用户加密私钥
+     * @param issuerAndSerialNumber 见encodeIssuerAndSerialNumber，接收者和签名者共用
+     * @return SignedAndEnvelopedData的DER编码
+     * @throws Exception
+     */
+    public static byte[] encodeSignedAndEnvelopedData(Integer alg, PublicKey signPublic, PrivateKey encPrivate, byte[] issuerAndSerialNumber) throws Exception {
+        EnvelopeProfile profile = alg == AlgTypeEnum.RSA.alg ? RSA_ENVELOPE : SM2_ENVELOPE;
         /**
          * 生成会话秘钥
          */
-        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
-        keyGenerator.init(128, new SecureRandom());
-        SecretKey sessionKey = keyGenerator.generateKey();
+        byte[] sessionKey = new byte[16];
+        byte[] encryptedKey;
+        byte[] encryptedContent;
+        try {
+            EngineCache.random().nextBytes(sessionKey);
+            encryptedKey = encryptSessionKey(alg, signPublic, sessionKey);
+            encryptedContent = encryptPrivateKey(alg, encPrivate, sessionKey);
+        } finally {
+            /**
+             * 会话秘钥只在这两步用到，后面的签名和编码之前就清掉，异常时也清
+             */
+            Arrays.fill(sessionKey, (byte) 0);
+        }
 
         /**
-         * 生成确认身份的信息
+         * 计算各层长度
          */
-        IssuerAndSerialNumber issuerAndSerialNumber = new IssuerAndSerialNumber(new X500Name(RFC4519Style.INSTANCE,issuerSubject), new BigInteger(issuerSn,16));
+        int curveLength = 0;
+        int encryptedKeyLength = encryptedKey.length;
+        int sm2CipherLength = 0;
+        if (alg == AlgTypeEnum.SM2.alg) {
+            /**
+             * C1(04||x||y) || C2 || C3(32字节)，编码为Sm2Cipher
+             */
+            curveLength = (encryptedKey.length - 1 - 32 - sessionKey.length) / 2;
+            sm2CipherLength = DerWriter.tlv(DerWriter.integerLength(encryptedKey, 1, curveLength))
+                    + DerWriter.tlv(DerWriter.integerLength(encryptedKey, 1 + curveLength, curveLength))
+                    + DerWriter.tlv(32) + DerWriter.tlv(encryptedKey.length - 1 - 2 * curveLength - 32);
+            encryptedKeyLength = DerWriter.tlv(sm2CipherLength);
+        }
+        int recipientInfoLength = VERSION_0.length + issuerAndSerialNumber.length + profile.keyEncryptionAlgorithm.length + DerWriter.tlv(encryptedKeyLength);
+        int recipientInfosLength = DerWriter.tlv(recipientInfoLength);
+        int encryptedContentInfoLength = ENVELOPE_OID.length + profile.contentEncryptionAlgorithm.length + DerWriter.tlv(encryptedContent.length);
+        int bodyLength = VERSION_1.length + DerWriter.tlv(recipientInfosLength) + profile.digestAlgorithms.length + DerWriter.tlv(encryptedContentInfoLength);
+        int signerInfoFixed = VERSION_1.length + issuerAndSerialNumber.length + profile.digestAlgorithm.length + profile.digestEncryptionAlgorithm.length;
+        int maxContentLength = bodyLength + DerWriter.tlv(DerWriter.tlv(signerInfoFixed + DerWriter.tlv(profile.maxSignature(encPrivate))));
+        byte[] out = new byte[DerWriter.tlv(maxContentLength)];
+        int bodyStart = 1 + DerWriter.lengthOfLength(maxContentLength);
+
         /**
-         * 语法版本号
+         * 签名原文部分
          */
-        ASN1Integer version = new ASN1Integer(1);
+        DerWriter writer = new DerWriter(out, bodyStart);
+        writer.raw(VERSION_1)
+                .header(DerWriter.SET, recipientInfosLength)
+                .header(DerWriter.SEQUENCE, recipientInfoLength)
+                .raw(VERSION_0)
+                .raw(issuerAndSerialNumber)
+                .raw(profile.keyEncryptionAlgorithm)
+                .header(DerWriter.OCTET_STRING, encryptedKeyLength);
+        if (alg == AlgTypeEnum.SM2.alg) {
+            writer.header(DerWriter.SEQUENCE, sm2CipherLength)
+                    .integer(encryptedKey, 1, curveLength)
+                    .integer(encryptedKey, 1 + curveLength, curveLength)
+                    .tlv(DerWriter.OCTET_STRING, encryptedKey, encryptedKey.length - 32, 32)
+                    .tlv(DerWriter.OCTET_STRING, encryptedKey, 1 + 2 * curveLength, encryptedKey.length - 1 - 2 * curveLength - 32);
+        } else {
+            writer.raw(encryptedKey);
+        }
+        writer.raw(profile.digestAlgorithms)
+                .header(DerWriter.SEQUENCE, encryptedContentInfoLength)
+                .raw(ENVELOPE_OID)
+                .raw(profile.contentEncryptionAlgorithm)
+                .tlv(DerWriter.CONTEXT_0, encryptedContent, 0, encryptedContent.length);
+
         /**
-         * 组装接受者信息
+         * 签名值确定后写外层头部和签名者信息，外层长度字段变短时(极少)把签名原文前移。
+         * 加密私钥是被托管的一次性密钥，签名不走线程缓存
          */
-        KeyTransRecipientInfo recipientInfo = generateRecipientInfo(alg, signPublic, sessionKey, issuerAndSerialNumber);
-        ASN1Set recipientInfos = new DERSet(recipientInfo);
+        byte[] signature = SignatureUtil.signOnce(out, bodyStart, bodyLength, encPrivate, profile.signAlg);
+        int signerInfoLength = signerInfoFixed + DerWriter.tlv(signature.length);
+        int contentLength = bodyLength + DerWriter.tlv(DerWriter.tlv(signerInfoLength));
+        int headerLength = 1 + DerWriter.lengthOfLength(contentLength);
+        if (headerLength != bodyStart) {
+            System.arraycopy(out, bodyStart, out, headerLength, bodyLength);
+        }
+        new DerWriter(out, 0).header(DerWriter.SEQUENCE, contentLength);
+        writer = new DerWriter(out, headerLength + bodyLength)
+                .header(DerWriter.SET, DerWriter.tlv(signerInfoLength))
+                .header(DerWriter.SEQUENCE, signerInfoLength)
+                .raw(VERSION_1)
+                .raw(issuerAndSerialNumber)
+                .raw(profile.digestAlgorithm)
+                .raw(profile.digestEncryptionAlgorithm)
+                .tlv(DerWriter.OCTET_STRING, signature, 0, signature.length);
+        return writer.position() == out.length ? out : Arrays.copyOf(out, writer.position());
+    }
 
+    /**
+     * 打开数字信封 ---GMT0010：用签名私钥解出会话秘钥，解密得到加密私钥，再用加密密钥对验证签名者的签名
+     * 按顺序遍历DER编码，只记录各部分的位置，不构造SignedAndEnvelopedData等对象；
+     * 签名原文、签名值、密文都直接引用原数组中的一段。有多个接收者时只使用第一个
+     *
+     * @param envelope   SignedAndEnvelopedData的DER编码
+     * @param signPrivate 用户签名私钥
+     * @return 加密密钥对，公钥由私钥计算得到
+     * @throws IOException        编码错误或算法不支持
+     * @throws SignatureException 签名验证失败(信封被篡改或会话秘钥不对)
+     * @throws Exception
+     */
+    public static KeyPair openSignedAndEnvelopedData(byte[] envelope, PrivateKey signPrivate) throws Exception {
+        DerReader reader = new DerReader(envelope);
+        reader.enter(DerWriter.SEQUENCE);
+        int bodyStart = reader.position();
+        if (reader.readInt() != 1) {
+            throw new IOException("SignedAndEnvelopedData not version 1");
+        }
         /**
-         * HASH算法
+         * 接收者信息
          */
-        AlgorithmIdentifier digestAlgorithm = new AlgorithmIdentifier(alg == AlgTypeEnum.RSA.alg ? X509ObjectIdentifiers.id_SHA1 : GMObjectIdentifiers.sm3);
-        ASN1Set digestAlgorithms = new DERSet(digestAlgorithm);
+        int recipientsEnd = reader.enter(DerWriter.SET);
+        reader.enter(DerWriter.SEQUENCE);
+        reader.readInt();
+        reader.skip(DerWriter.SEQUENCE);
+        reader.enter(DerWriter.SEQUENCE);
+        int oidStart = reader.skip(OBJECT_IDENTIFIER);
+        EnvelopeProfile profile = profile(envelope, oidStart, reader.position() - oidStart);
+        if (reader.peek() == NULL) {
+            reader.skip(NULL);
+        }
+        int keyStart = reader.read(DerWriter.OCTET_STRING);
+        int keyLength = reader.length();
+        while (reader.position() < recipientsEnd) {
+            reader.skip(DerWriter.SEQUENCE);
+        }
+        reader.skip(DerWriter.SET);
         /**
-         * 组装加密内容
+         * 加密内容
          */
-        EncryptedContentInfo encryptedContentInfo = generateEncryptedContentInfo(alg, encPrivate, sessionKey);
+        int contentInfoEnd = reader.enter(DerWriter.SEQUENCE);
+        reader.skip(OBJECT_IDENTIFIER);
+        reader.skip(DerWriter.SEQUENCE);
+        int contentStart = reader.read(DerWriter.CONTEXT_0);
+        int contentLength = reader.length();
+        while (reader.position() < contentInfoEnd) {
+            reader.skip(reader.peek());
+        }
+        int bodyEnd = reader.position();
         /**
-         * 组装签名内容
+         * 跳过可选的certificates[0]、crls[1]，取第一个签名者
          */
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        os.write(version.getEncoded());
-        os.write(recipientInfos.getEncoded());
-        os.write(digestAlgorithms.getEncoded());
-        os.write(encryptedContentInfo.getEncoded());
+        while (reader.peek() == 0xA0 || reader.peek() == 0xA1) {
+            reader.skip(reader.peek());
+        }
+        reader.enter(DerWriter.SET);
+        reader.enter(DerWriter.SEQUENCE);
+        reader.readInt();
+        reader.skip(DerWriter.SEQUENCE);
+        reader.skip(DerWriter.SEQUENCE);
+        if (reader.peek() == 0xA0) {
+            throw new IOException("不支持带authenticatedAttributes的签名者信息");
+        }
+        reader.skip(DerWriter.SEQUENCE);
+        int signatureStart = reader.read(DerWriter.OCTET_STRING);
+        int signatureLength = reader.length();
+
+        byte[] sessionKey = decryptSessionKey(profile, signPrivate, envelope, keyStart, keyLength);
+        KeyPair keyPair;
+        try {
+            keyPair = decryptPrivateKey(profile, sessionKey, envelope, contentStart, contentLength);
+        } finally {
+            Arrays.fill(sessionKey, (byte) 0);
+        }
+        if (!SignatureUtil.verify(envelope, bodyStart, bodyEnd - bodyStart, envelope, signatureStart, signatureLength, keyPair.getPublic(), profile.signAlg)) {
+            throw new SignatureException("数字信封签名验证失败");
+        }
+        return keyPair;
+    }
+
+    private static EnvelopeProfile profile(byte[] envelope, int offset, int length) throws IOException {
+        for (EnvelopeProfile profile : new EnvelopeProfile[]{SM2_ENVELOPE, RSA_ENVELOPE}) {
+            byte[] oid = profile.keyEncryptionOid;
+            if (oid.length == length) {
+                int i = 0;
+                while (i < length && oid[i] == envelope[offset + i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return profile;
+                }
+            }
+        }
+        throw new IOException("不支持的会话秘钥加密算法");
+    }
+
+    /**
+     * 用签名私钥解密会话秘钥，SM2的密文为Sm2Cipher结构，还原为C1C2C3后解密
+     */
+    private static byte[] decryptSessionKey(EnvelopeProfile profile, PrivateKey signPrivate, byte[] envelope, int offset, int length) throws Exception {
+        AsymmetricKeyParameter keyParameter = PrivateKeyFactory.createKey(PrivateKeyInfo.getInstance(signPrivate.getEncoded()));
+        if (profile == RSA_ENVELOPE) {
+            AsymmetricBlockCipher rsaEngine = EngineCache.rsaEngine();
+            rsaEngine.init(false, keyParameter);
+            byte[] key = rsaEngine.processBlock(envelope, offset, length);
+            /**
+             * 无填充的RSA解密结果会丢掉开头的0
+             */
+            return key.length >= 16 ? key : BigIntegers.asUnsignedByteArray(16, new BigInteger(1, key));
+        }
+        int curveLength = (((ECKeyParameters) keyParameter).getParameters().getCurve().getFieldSize() + 7) / 8;
+        DerReader reader = new DerReader(envelope, offset, length);
+        reader.enter(DerWriter.SEQUENCE);
+        int x = reader.read(DerWriter.INTEGER);
+        int xLength = reader.length();
+        int y = reader.read(DerWriter.INTEGER);
+        int yLength = reader.length();
+        int hash = reader.read(DerWriter.OCTET_STRING);
+        int hashLength = reader.length();
+        int text = reader.read(DerWriter.OCTET_STRING);
+        int textLength = reader.length();
+        byte[] cipherText = new byte[1 + 2 * curveLength + textLength + hashLength];
+        cipherText[0] = 0x04;
+        copyUnsigned(envelope, x, xLength, cipherText, 1, curveLength);
+        copyUnsigned(envelope, y, yLength, cipherText, 1 + curveLength, curveLength);
+        System.arraycopy(envelope, text, cipherText, 1 + 2 * curveLength, textLength);
+        System.arraycopy(envelope, hash, cipherText, 1 + 2 * curveLength + textLength, hashLength);
+        SM2Engine sm2Engine = EngineCache.sm2Engine();
+        sm2Engine.init(false, keyParameter);
+        return sm2Engine.processBlock(cipherText, 0, cipherText.length);
+    }
+
+    /**
+     * INTEGER内容右对齐复制到定长字段，去掉符号位补的0
+     */
+    private static void copyUnsigned(byte[] src, int offset, int length, byte[] dest, int destOffset, int size) throws IOException {
+        while (length > size && src[offset] == 0) {
+            offset++;
+            length--;
+        }
+        if (length > size) {
+            throw new IOException("SM2坐标长度错误:" + length);
+        }
+        System.arraycopy(src, offset, dest, destOffset + size - length, length);
+    }
 
+    /**
+     * 解密加密私钥并还原密钥对
+     */
+    private static KeyPair decryptPrivateKey(EnvelopeProfile profile, byte[] sessionKey, byte[] envelope, int offset, int length) throws Exception {
+        if (profile == RSA_ENVELOPE) {
+            byte[] plain = Sm4Util.sm4_decrypt_ecb_pkcs5_padding(sessionKey, envelope, offset, length);
+            try {
+                org.bouncycastle.asn1.pkcs.RSAPrivateKey key = org.bouncycastle.asn1.pkcs.RSAPrivateKey.getInstance(plain);
+                KeyFactory keyFactory = KeyFactory.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+                return new KeyPair(keyFactory.generatePublic(new RSAPublicKeySpec(key.getModulus(), key.getPublicExponent())),
+                        keyFactory.generatePrivate(new RSAPrivateCrtKeySpec(key.getModulus(), key.getPublicExponent(), key.getPrivateExponent(),
+                                key.getPrime1(), key.getPrime2(), key.getExponent1(), key.getExponent2(), key.getCoefficient())));
+            } finally {
+                Arrays.fill(plain, (byte) 0);
+            }
+        }
         /**
-         * 组装签名者信息
+         * 前32字节为0，后32字节为私钥
          */
-        SignerInfo signerInfo = generateSignerInfo(alg, encPrivate, issuerAndSerialNumber,os.toByteArray());
-        ASN1Set signerInfos = new DERSet(signerInfo);
-        return new SignedAndEnvelopedData(version,recipientInfos,digestAlgorithms,encryptedContentInfo,signerInfos);
+        byte[] plain = Sm4Util.sm4_decrypt_ecb_no_padding(sessionKey, envelope, offset, length);
+        if (plain.length != 64) {
+            Arrays.fill(plain, (byte) 0);
+            throw new IOException("SM2加密私钥长度错误:" + plain.length);
+        }
+        BigInteger d = new BigInteger(1, Arrays.copyOfRange(plain, 32, 64));
+        Arrays.fill(plain, (byte) 0);
+        return Sm2Util.keyPair(d, Sm2Util.baseMultiplier().multiply(Sm2Util.SPEC.getG(), d).normalize());
     }
 
     /**
@@ -117,11 +441,11 @@ public class Asn1Util {
         if (alg == AlgTypeEnum.RSA.alg) {
             digestAlgorithm = new AlgorithmIdentifier(X509ObjectIdentifiers.id_SHA1);
             digestEncryptionAlgorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption);
-            encryptedDigest = new DEROctetString(SignatureUtil.sign(body, encPrivate, SignAlgEnum.SHA1_WITH_RSA));
+            encryptedDigest = new DEROctetString(SignatureUtil.signOnce(body, 0, body.length, encPrivate, SignAlgEnum.SHA1_WITH_RSA));
         } else if (alg == AlgTypeEnum.SM2.alg) {
             digestAlgorithm = new AlgorithmIdentifier(GMObjectIdentifiers.sm3);
             digestEncryptionAlgorithm = new AlgorithmIdentifier(GMObjectIdentifiers.sm2sign);
-            encryptedDigest = new DEROctetString(SignatureUtil.sign(body, encPrivate, SignAlgEnum.SM3_WITH_SM2));
+            encryptedDigest = new DEROctetString(SignatureUtil.signOnce(body, 0, body.length, encPrivate, SignAlgEnum.SM3_WITH_SM2));
         }
         ASN1Set authenticatedAttributes = null;
 
@@ -139,21 +463,30 @@ public class Asn1Util {
      */
     public static EncryptedContentInfo generateEncryptedContentInfo(Integer alg, PrivateKey encPrivate, SecretKey sessionKey) throws Exception {
         /**
-         * 加密算法
-         */
-        AlgorithmIdentifier contentEncryptionAlgorithm = null;
-        /**
-         * 加密内容结果
+         * 卡暂时不支持AES
          */
-        ASN1OctetString encryptedContent = null;
+        AlgorithmIdentifier contentEncryptionAlgorithm = new AlgorithmIdentifier(Sm4Util.sm4);
+        ASN1OctetString encryptedContent = new DEROctetString(encryptPrivateKey(alg, encPrivate, sessionKey));
+        return new EncryptedContentInfo(SignedAndEnvelopedData.OID, contentEncryptionAlgorithm, encryptedContent);
+    }
+
+    /**
+     * 用会话秘钥加密私钥：RSA为PKCS1私钥结构加PKCS5填充，SM2为前补32个0的64字节私钥
+     *
+     * @param alg
+     * @param encPrivate
+     * @param sessionKey
+     * @return 加密结果
+     * @throws Exception
+     */
+    public static byte[] encryptPrivateKey(Integer alg, PrivateKey encPrivate, SecretKey sessionKey) throws Exception {
+        return encryptPrivateKey(alg, encPrivate, sessionKey.getEncoded());
+    }
+
+    private static byte[] encryptPrivateKey(Integer alg, PrivateKey encPrivate, byte[] sessionKey) throws Exception {
         if (alg == AlgTypeEnum.RSA.alg) {
-            /**
-             * 卡暂时不支持AES
-             */
-            contentEncryptionAlgorithm = new AlgorithmIdentifier(Sm4Util.sm4);
-            encryptedContent = new DEROctetString(Sm4Util.sm4_encrypt_ecb_pkcs5_padding(sessionKey.getEncoded(), PrivateKeyInfo.getInstance(encPrivate.getEncoded()).parsePrivateKey().toASN1Primitive().getEncoded()));
+            return Sm4Util.sm4_encrypt_ecb_pkcs5_padding(sessionKey, PrivateKeyInfo.getInstance(encPrivate.getEncoded()).parsePrivateKey().toASN1Primitive().getEncoded());
         } else if (alg == AlgTypeEnum.SM2.alg) {
-            contentEncryptionAlgorithm = new AlgorithmIdentifier(Sm4Util.sm4);
             BCECPrivateKey ecPrivateKey = (BCECPrivateKey) encPrivate;
 
             byte[] s = ecPrivateKey.getS().toByteArray();
@@ -162,12 +495,9 @@ public class Asn1Util {
                 System.arraycopy(s, 0, pri, 0, s.length);
             } else if (s.length < 32) {
                 /**
-                 * BigInteger会忽略末尾的0
+                 * BigInteger会忽略开头的0，按大端整数右对齐，前面补0
                  */
-                System.arraycopy(s, 0, pri, 0, s.length);
-                for (int i = 0; i < 32 - s.length; i++) {
-                    pri[s.length + i] = 0x00;
-                }
+                System.arraycopy(s, 0, pri, 32 - s.length, s.length);
             } else if (s.length > 32) {
                 /**
                  * 密码机生成的私钥可能会填充了32个0，取后32字节，
@@ -184,9 +514,9 @@ public class Asn1Util {
              * 在原文前填充32个0
              */
             System.arraycopy(pri,0,bytes,32,32);
-            encryptedContent = new DEROctetString(Sm4Util.sm4_encrypt_ecb_no_padding(sessionKey.getEncoded(),bytes));
+            return Sm4Util.sm4_encrypt_ecb_no_padding(sessionKey,bytes);
         }
-        return new EncryptedContentInfo(SignedAndEnvelopedData.OID, contentEncryptionAlgorithm, encryptedContent);
+        throw new IllegalArgumentException("不支持的算法" + alg);
     }
 
     /**
@@ -210,24 +540,49 @@ public class Asn1Util {
          * 会话秘钥的加密结果
          */
         ASN1OctetString encryptedKey = null;
-        AsymmetricKeyParameter keyParameter = PublicKeyFactory.createKey(SubjectPublicKeyInfo.getInstance(signPublic.getEncoded()));
+        byte[] cipherText = encryptSessionKey(alg, signPublic, sessionKey);
         if (alg == AlgTypeEnum.RSA.alg) {
-            /**
-             * PKCS1格式的RSA公钥加密 c端都是pkcs1  bc封的pkcs8
-             */
             keyEncryptionAlgorithm = new AlgorithmIdentifier(PKCSObjectIdentifiers.rsaEncryption);
-            AsymmetricBlockCipher rsaEngine = new RSAEngine();
-            rsaEngine.init(true, keyParameter);
-            encryptedKey = new DEROctetString(rsaEngine.processBlock(sessionKey.getEncoded(), 0, sessionKey.getEncoded().length));
+            encryptedKey = new DEROctetString(cipherText);
         } else if (alg == AlgTypeEnum.SM2.alg) {
             keyEncryptionAlgorithm = new AlgorithmIdentifier(GMObjectIdentifiers.sm2encrypt);
-            SM2Engine sm2Engine = new SM2Engine();
-            sm2Engine.init(true, new ParametersWithRandom(keyParameter,new SecureRandom()));
-            byte[] cipherText = sm2Engine.processBlock(sessionKey.getEncoded(), 0, sessionKey.getEncoded().length);
+            AsymmetricKeyParameter keyParameter = PublicKeyFactory.createKey(SubjectPublicKeyInfo.getInstance(signPublic.getEncoded()));
             Sm2Cipher sm2Cipher = new Sm2Cipher((ECKeyParameters) keyParameter,cipherText,sessionKey.getEncoded().length);
             encryptedKey = new DEROctetString(sm2Cipher.getEncoded());
         }
         return new KeyTransRecipientInfo(recipientIdentifier, keyEncryptionAlgorithm, encryptedKey);
     }
 
+    /**
+     * 用签名公钥加密会话秘钥
+     *
+     * @param alg        算法
+     * @param signPublic 签名公钥
+     * @param sessionKey 会话秘钥
+     * @return RSA为PKCS1加密结果，SM2为C1C2C3格式的原始密文
+     * @throws IOException
+     * @throws InvalidCipherTextException
+     */
+    public static byte[] encryptSessionKey(Integer alg, PublicKey signPublic, SecretKey sessionKey) throws IOException, InvalidCipherTextException {
+        return encryptSessionKey(alg, signPublic, sessionKey.getEncoded());
+    }
+
+    private static byte[] encryptSessionKey(Integer alg, PublicKey signPublic, byte[] key) throws IOException, InvalidCipherTextException {
+        if (alg == AlgTypeEnum.RSA.alg) {
+            /**
+             * PKCS1格式的RSA公钥加密 c端都是pkcs1  bc封的pkcs8
+             */
+            RSAPublicKey rsaPublic = (RSAPublicKey) signPublic;
+            AsymmetricBlockCipher rsaEngine = EngineCache.rsaEngine();
+            rsaEngine.init(true, new RSAKeyParameters(false, rsaPublic.getModulus(), rsaPublic.getPublicExponent()));
+            return rsaEngine.processBlock(key, 0, key.length);
+        } else if (alg == AlgTypeEnum.SM2.alg) {
+            AsymmetricKeyParameter keyParameter = PublicKeyFactory.createKey(SubjectPublicKeyInfo.getInstance(signPublic.getEncoded()));
+            SM2Engine sm2Engine = EngineCache.sm2Engine();
+            sm2Engine.init(true, new ParametersWithRandom(keyParameter, EngineCache.random()));
+            return sm2Engine.processBlock(key, 0, key.length);
+        }
+        throw new IllegalArgumentException("不支持的算法" + alg);
+    }
+
 }
@@ -0,0 +1,140 @@
+package com.ggp.noob.util;
+
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Base64;
+
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/16 10:00
+ * @Description: 直接拼接DER生成p7b证书链(只含证书的CMS SignedData)，和CMSSignedDataGenerator的输出逐字节相同
+ * ContentInfo{signedData, [0]{SignedData{1, {}, {data}, [0]{证书...}, {}}}}中除证书集合外都是常量，
+ * 预先编码好；根证书的DER编码在构造时取一次，每次只取用户证书的编码，算出几层长度后整段复制。
+ * 证书集合按DER的SET OF规则以编码的无符号字节序排列，和BC一致
+ */
+public final class CertChainEncoder {
+    /**
+     * signedData的OID
+     */
+    private static final byte[] SIGNED_DATA_OID = {0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x07, 0x02};
+    /**
+     * version 1，digestAlgorithms为空，encapContentInfo只有data的OID
+     */
+    private static final byte[] SIGNED_DATA_HEAD = {0x02, 0x01, 0x01, 0x31, 0x00, 0x30, 0x0b, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x07, 0x01};
+    /**
+     * signerInfos为空
+     */
+    private static final byte[] SIGNED_DATA_TAIL = {0x31, 0x00};
+    private static final int CONTEXT_0_CONSTRUCTED = 0xa0;
+    private static final String PEM_TYPE = "PKCS7";
+
+    private final byte[] root;
+
+    /**
+     * @param root 根证书，生成的证书链为根证书+用户证书
+     * @throws CertificateEncodingException
+     */
+    public CertChainEncoder(X509Certificate root) throws CertificateEncodingException {
+        this.root = root.getEncoded();
+    }
+
+    /**
+     * @param leaf 用户证书
+     * @return 根证书+用户证书的p7b，DER编码
+     * @throws CertificateEncodingException
+     */
+    public byte[] encode(X509Certificate leaf) throws CertificateEncodingException {
+        byte[] encoded = leaf.getEncoded();
+        return compare(encoded, root) <= 0 ? encode(encoded, root) : encode(root, encoded);
+    }
+
+    /**
+     * @param leaf 用户证书
+     * @return 根证书+用户证书的p7b，PEM格式
+     * @throws CertificateEncodingException
+     */
+    public String encodePem(X509Certificate leaf) throws CertificateEncodingException {
+        return toPem(encode(leaf));
+    }
+
+    /**
+     * 任意多个证书的p7b
+     *
+     * @param certs 证书
+     * @return DER编码
+     * @throws CertificateEncodingException
+     */
+    public static byte[] encode(List<X509Certificate> certs) throws CertificateEncodingException {
+        List<byte[]> encoded = new ArrayList<>(certs.size());
+        for (X509Certificate cert : certs) {
+            encoded.add(cert.getEncoded());
+        }
+        encoded.sort(CertChainEncoder::compare);
+        return encode(encoded.toArray(new byte[0][]));
+    }
+
+    /**
+     * p7b的PEM格式，和PemWriter的输出相同：每行64个字符，换行符为系统换行符
+     *
+     * @param der p7b的DER编码
+     * @return
+     */
+    public static String toPem(byte[] der) {
+        byte[] base64 = Base64.encode(der);
+        String lineSeparator = Strings.lineSeparator();
+        String head = "-----BEGIN " + PEM_TYPE + "-----" + lineSeparator;
+        String tail = "-----END " + PEM_TYPE + "-----" + lineSeparator;
+        int lines = (base64.length + 63) / 64;
+        StringBuilder pem = new StringBuilder(head.length() + base64.length + lines * lineSeparator.length() + tail.length());
+        pem.append(head);
+        for (int i = 0; i < base64.length; i += 64) {
+            pem.append(new String(base64, i, Math.min(64, base64.length - i), StandardCharsets.US_ASCII)).append(lineSeparator);
+        }
+        return pem.append(tail).toString();
+    }
+
+    /**
+     * @param certs 已排好序的证书编码
+     */
+    private static byte[] encode(byte[]... certs) {
+        int certsLength = 0;
+        for (byte[] cert : certs) {
+            certsLength += cert.length;
+        }
+        int signedDataLength = SIGNED_DATA_HEAD.length + DerWriter.tlv(certsLength) + SIGNED_DATA_TAIL.length;
+        int explicitLength = DerWriter.tlv(signedDataLength);
+        int contentInfoLength = SIGNED_DATA_OID.length + DerWriter.tlv(explicitLength);
+        byte[] out = new byte[DerWriter.tlv(contentInfoLength)];
+        DerWriter writer = new DerWriter(out, 0)
+                .header(DerWriter.SEQUENCE, contentInfoLength)
+                .raw(SIGNED_DATA_OID)
+                .header(CONTEXT_0_CONSTRUCTED, explicitLength)
+                .header(DerWriter.SEQUENCE, signedDataLength)
+                .raw(SIGNED_DATA_HEAD)
+                .header(CONTEXT_0_CONSTRUCTED, certsLength);
+        for (byte[] cert : certs) {
+            writer.raw(cert);
+        }
+        writer.raw(SIGNED_DATA_TAIL);
+        return out;
+    }
+
+    /**
+     * DER的SET OF排序：按无符号字节比较，前缀相同时短的在前
+     */
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -16,11 +16,8 @@ import org.bouncycastle.cms.CMSSignedDataGenerator;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.openssl.PEMWriter;
-import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
-import org.bouncycastle.pkcs.PKCS10CertificationRequest;
-import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemWriter;
 
@@ -54,10 +51,46 @@ public class CertUtil {
      * @return
      */
     public static X509Certificate generateCert(String issuer, String subject, BigInteger sn, Date notBefore, Date notAfter, PrivateKey issuerKey, PublicKey publicKey, String signAlg, List<Extension> extensions) throws Exception{
-        JcaContentSignerBuilder contentSignerBuilder = new JcaContentSignerBuilder(signAlg);
-        ContentSigner contentSigner = contentSignerBuilder.build(issuerKey);
+        return generateCert(new X500Name(RFC4519Style.INSTANCE,issuer),subject,sn,notBefore,notAfter,issuerKey,publicKey,signAlg,extensions);
+    }
+
+    /**
+     * 生成证书，颁发者dn已解析好，见{@link com.ggp.noob.IssuerContext#getIssuerName()}
+     * @param issuer     颁发者dn
+     * @param subject    使用者证书主体
+     * @param sn         使用者证书sn
+     * @param notBefore  生效时间
+     * @param notAfter   失效时间
+     * @param issuerKey  颁发者私钥
+     * @param publicKey  使用者公钥
+     * @param signAlg    签名算法
+     * @param extensions 证书扩展项
+     * @return
+     */
+    public static X509Certificate generateCert(X500Name issuer, String subject, BigInteger sn, Date notBefore, Date notAfter, PrivateKey issuerKey, PublicKey publicKey, String signAlg, List<Extension> extensions) throws Exception{
+        return generateCert(issuer, subject, sn, notBefore, notAfter, createContentSigner(signAlg, issuerKey), publicKey, extensions);
+    }
+
+    /**
+     * 生成证书，颁发者密钥对常驻内存时使用，SM2签名的ZA按颁发者公钥缓存
+     * @param issuer        颁发者dn
+     * @param subject       使用者证书主体
+     * @param sn            使用者证书sn
+     * @param notBefore     生效时间
+     * @param notAfter      失效时间
+     * @param issuerKeyPair 颁发者密钥对
+     * @param publicKey     使用者公钥
+     * @param signAlg       签名算法
+     * @param extensions    证书扩展项
+     * @return
+     */
+    public static X509Certificate generateCert(X500Name issuer, String subject, BigInteger sn, Date notBefore, Date notAfter, KeyPair issuerKeyPair, PublicKey publicKey, String signAlg, List<Extension> extensions) throws Exception{
+        return generateCert(issuer, subject, sn, notBefore, notAfter, createContentSigner(signAlg, issuerKeyPair.getPrivate(), issuerKeyPair.getPublic()), publicKey, extensions);
+    }
+
+    private static X509Certificate generateCert(X500Name issuer, String subject, BigInteger sn, Date notBefore, Date notAfter, ContentSigner contentSigner, PublicKey publicKey, List<Extension> extensions) throws Exception{
         SubjectPublicKeyInfo subjectPublicKeyInfo = SubjectPublicKeyInfo.getInstance(publicKey.getEncoded());
-        X509v3CertificateBuilder builder = new X509v3CertificateBuilder(new X500Name(RFC4519Style.INSTANCE,issuer),sn,notBefore,notAfter,new X500Name(RFC4519Style.INSTANCE,subject),subjectPublicKeyInfo);
+        X509v3CertificateBuilder builder = new X509v3CertificateBuilder(issuer,sn,notBefore,notAfter,new X500Name(RFC4519Style.INSTANCE,subject),subjectPublicKeyInfo);
         if(null != extensions){
             Iterator<Extension> iterator = extensions.iterator();
             while (iterator.hasNext()){
@@ -69,6 +102,30 @@ public class CertUtil {
         JcaX509CertificateConverter converter = new JcaX509CertificateConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
         return converter.getCertificate(holder);
     }
+    /**
+     * 创建签名器，SM3WITHSM2使用{@link Sm2Util}的定点窗口表，其他算法走JcaContentSignerBuilder
+     * @param signAlg    签名算法
+     * @param key        私钥
+     * @return 只能在当前线程使用
+     * @throws Exception
+     */
+    public static ContentSigner createContentSigner(String signAlg, PrivateKey key) throws Exception{
+        return createContentSigner(signAlg, key, null);
+    }
+    /**
+     * 创建签名器，SM3WITHSM2时ZA按公钥缓存
+     * @param signAlg    签名算法
+     * @param key        私钥
+     * @param publicKey  对应的公钥，可以为空
+     * @return 只能在当前线程使用
+     * @throws Exception
+     */
+    public static ContentSigner createContentSigner(String signAlg, PrivateKey key, PublicKey publicKey) throws Exception{
+        if("SM3WITHSM2".equalsIgnoreCase(signAlg)){
+            return Sm2Util.contentSigner(key, publicKey);
+        }
+        return new JcaContentSignerBuilder(signAlg).setProvider(BouncyCastleProvider.PROVIDER_NAME).build(key);
+    }
     /**
      * 将对象写入文件
      *
@@ -89,7 +146,31 @@ public class CertUtil {
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("写入文件失败", e);
+        } finally {
+            if (null != fileOutputStream) {
+                try {
+                    fileOutputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+    /**
+     * 将对象转换为PEM字符串
+     *
+     * @param object 见pemUtil-@Description
+     * @return
+     */
+    public static String writeObjectToString(Object object) throws Exception {
+        StringWriter writer = new StringWriter();
+        PEMWriter pemWriter = new PEMWriter(writer);
+        try {
+            pemWriter.writeObject(object);
+        } finally {
+            pemWriter.close();
         }
+        return writer.toString();
     }
     /**
      * 解析PEM文件
@@ -165,20 +246,14 @@ public class CertUtil {
     public static final String P10_HEAD = "-----BEGIN CERTIFICATE REQUEST-----";
     public static final String P10_TAIL = "-----END CERTIFICATE REQUEST-----";
     /**
-     * 从p10中解析publickey
+     * 从p10中解析publickey，需要同时取主体等信息时直接使用{@link P10Request#parse(CharSequence)}
      *
      * @param p10
      * @return
      * @auth ssh
      */
     public static PublicKey getPublicKeyFromP10(String p10) throws Exception {
-        p10 = p10.replace(P10_TAIL, "").replace(P10_HEAD, "");
-        p10 = p10.replace("\r", "").replace("\n", "");
-        p10 = p10.replace("\\r", "").replace("\\n", "");
-        PKCS10CertificationRequest re = new PKCS10CertificationRequest(Base64.decode(p10));
-        JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider("BC");
-        PublicKey publicKey = converter.getPublicKey(re.getSubjectPublicKeyInfo());
-        return publicKey;
+        return P10Request.parse(p10).getPublicKey();
     }
 
     /**
@@ -189,10 +264,6 @@ public class CertUtil {
      * @auth ssh
      */
     public static String getSubjectFromP10(String p10) throws Exception{
-        p10 = p10.replace(P10_TAIL, "").replace(P10_HEAD, "");
-        p10 = p10.replace("\r", "").replace("\n", "");
-        p10 = p10.replace("\\r", "").replace("\\n", "");
-        PKCS10CertificationRequest re = new PKCS10CertificationRequest(Base64.decode(p10));
-        return re.getSubject().toString();
+        return P10Request.parse(p10).getSubjectString();
     }
 }
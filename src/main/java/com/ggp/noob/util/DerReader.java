@@ -0,0 +1,141 @@
+package com.ggp.noob.util;
+
+import java.io.IOException;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/13 9:50
+ * @Description: 按顺序遍历DER编码的游标，和DerWriter相对
+ * 不构造ASN1Primitive树，只返回各元素在原数组中的位置，调用方按结构进入构造类型或跳过不关心的元素。
+ * 只支持DER(单字节tag、定长长度)
+ */
+public final class DerReader {
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+    private int length;
+
+    public DerReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public DerReader(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * @return 下一个元素的tag，已到末尾时返回-1
+     */
+    public int peek() {
+        return position < limit ? buffer[position] & 0xFF : -1;
+    }
+
+    public boolean hasNext() {
+        return position < limit;
+    }
+
+    /**
+     * 读取构造类型的头部，游标停在内容开始处，之后读到的是它的子元素
+     *
+     * @param tag 期望的tag
+     * @return 内容结束的位置
+     * @throws IOException tag不符或长度越界
+     */
+    public int enter(int tag) throws IOException {
+        header(tag);
+        return position + length;
+    }
+
+    /**
+     * 读取一个元素并移到它之后
+     *
+     * @param tag 期望的tag
+     * @return 内容开始的位置，内容长度见{@link #length()}
+     * @throws IOException tag不符或长度越界
+     */
+    public int read(int tag) throws IOException {
+        header(tag);
+        int start = position;
+        position += length;
+        return start;
+    }
+
+    /**
+     * 跳过一个元素
+     *
+     * @param tag 期望的tag
+     * @return 元素(包括头部)开始的位置
+     * @throws IOException
+     */
+    public int skip(int tag) throws IOException {
+        int start = position;
+        read(tag);
+        return start;
+    }
+
+    /**
+     * 读取INTEGER并转为int，只用于版本号这类小整数
+     */
+    public int readInt() throws IOException {
+        int start = read(DerWriter.INTEGER);
+        if (length < 1 || length > 4) {
+            throw new IOException("INTEGER长度不支持:" + length);
+        }
+        int value = buffer[start];
+        for (int i = 1; i < length; i++) {
+            value = (value << 8) | (buffer[start + i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @return 最近一次读取的内容长度
+     */
+    public int length() {
+        return length;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    private void header(int tag) throws IOException {
+        if (position + 2 > limit) {
+            throw new IOException("DER数据不完整，位置:" + position);
+        }
+        int actual = buffer[position] & 0xFF;
+        if (actual != tag) {
+            throw new IOException("DER tag不符，位置:" + position + "，期望:" + Integer.toHexString(tag) + "，实际:" + Integer.toHexString(actual));
+        }
+        int first = buffer[position + 1] & 0xFF;
+        position += 2;
+        if (first < 0x80) {
+            length = first;
+        } else {
+            int size = first & 0x7F;
+            if (size == 0 || size > 4) {
+                throw new IOException("不支持的长度编码:" + Integer.toHexString(first));
+            }
+            if (position + size > limit) {
+                throw new IOException("DER数据不完整，位置:" + position);
+            }
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = (value << 8) | (buffer[position++] & 0xFF);
+            }
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("长度越界:" + value);
+            }
+            length = (int) value;
+        }
+        if (length > limit - position) {
+            throw new IOException("长度越界，位置:" + position + "，长度:" + length);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.ggp.noob.util;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/10 9:40
+ * @Description: 写入预先分配好的数组的DER编码器
+ * 调用方先用{@link #tlv(int)}等算出各层长度，分配一次数组后自外向内依次写入头部和内容，
+ * 每个组成部分只编码一次，不产生中间对象和中间数组
+ */
+public final class DerWriter {
+    public static final int INTEGER = 0x02;
+    public static final int BIT_STRING = 0x03;
+    public static final int OCTET_STRING = 0x04;
+    public static final int SEQUENCE = 0x30;
+    public static final int SET = 0x31;
+    /**
+     * [0] IMPLICIT，原始类型
+     */
+    public static final int CONTEXT_0 = 0x80;
+
+    private final byte[] buffer;
+    private int position;
+
+    public DerWriter(byte[] buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    /**
+     * @param length 内容长度
+     * @return 长度字段占用的字节数
+     */
+    public static int lengthOfLength(int length) {
+        if (length < 0x80) {
+            return 1;
+        } else if (length < 0x100) {
+            return 2;
+        } else if (length < 0x10000) {
+            return 3;
+        } else if (length < 0x1000000) {
+            return 4;
+        }
+        return 5;
+    }
+
+    /**
+     * @param length 内容长度
+     * @return 单字节tag的TLV总长度
+     */
+    public static int tlv(int length) {
+        return 1 + lengthOfLength(length) + length;
+    }
+
+    /**
+     * @param unsigned 无符号大端整数
+     * @return INTEGER的内容长度(去掉多余的前导0，最高位为1时补一个0)
+     */
+    public static int integerLength(byte[] unsigned, int offset, int length) {
+        while (length > 1 && unsigned[offset] == 0) {
+            offset++;
+            length--;
+        }
+        return (unsigned[offset] & 0x80) != 0 ? length + 1 : length;
+    }
+
+    /**
+     * 写入tag和长度
+     */
+    public DerWriter header(int tag, int length) {
+        buffer[position++] = (byte) tag;
+        int size = lengthOfLength(length);
+        if (size > 1) {
+            buffer[position++] = (byte) (0x80 | (size - 1));
+            for (int i = size - 2; i >= 0; i--) {
+                buffer[position++] = (byte) (length >>> (i * 8));
+            }
+        } else {
+            buffer[position++] = (byte) length;
+        }
+        return this;
+    }
+
+    /**
+     * 写入已编码好的内容
+     */
+    public DerWriter raw(byte[] bytes) {
+        return raw(bytes, 0, bytes.length);
+    }
+
+    public DerWriter raw(byte[] bytes, int offset, int length) {
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    /**
+     * 写入完整的TLV
+     */
+    public DerWriter tlv(int tag, byte[] bytes, int offset, int length) {
+        return header(tag, length).raw(bytes, offset, length);
+    }
+
+    /**
+     * 写入INTEGER，内容为无符号大端整数
+     */
+    public DerWriter integer(byte[] unsigned, int offset, int length) {
+        while (length > 1 && unsigned[offset] == 0) {
+            offset++;
+            length--;
+        }
+        if ((unsigned[offset] & 0x80) != 0) {
+            header(INTEGER, length + 1);
+            buffer[position++] = 0;
+        } else {
+            header(INTEGER, length);
+        }
+        return raw(unsigned, offset, length);
+    }
+
+    /**
+     * 跳过一段，稍后由调用方直接填入
+     */
+    public int skip(int length) {
+        int start = position;
+        position += length;
+        return start;
+    }
+
+    public int position() {
+        return position;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+}
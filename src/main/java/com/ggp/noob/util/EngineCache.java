@@ -0,0 +1,406 @@
+package com.ggp.noob.util;
+
+import org.bouncycastle.crypto.engines.RSAEngine;
+import org.bouncycastle.crypto.engines.SM2Engine;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/14 15:20
+ * @Description: 每个线程按算法缓存Cipher/Signature实例，避免每次调用都做provider查找和引擎创建
+ * 与上次使用的是同一把密钥（Signature按对象、Cipher按密钥内容）且方向相同时，连初始化也省掉，
+ * SM3WITHSM2签名验签不走JCA，用Sm2Signature，验签的多是一次性的CSR公钥，ZA只在换了密钥时现算，不进全局缓存。
+ * 取到的实例只能在当前线程中使用，用完（sign/verify/doFinal）后自动回到初始化后的状态。
+ * 缓存的Cipher和签名实例会一直持有最后一次的密钥，数字信封的会话秘钥和被托管的加密私钥这类一次性密钥
+ * 用doFinalOnce/signOnce：前者复用Cipher但用完即用全零密钥覆盖，后者每次新建签名实例。
+ * 数字信封用到的SM2/RSA引擎和随机数源也按线程缓存，引擎每次使用前重新init。
+ */
+public final class EngineCache {
+    private static final ThreadLocal<Map<String, SignatureEntry>> SIGNATURES = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, CipherEntry>> CIPHERS = ThreadLocal.withInitial(HashMap::new);
+    /**
+     * doFinalOnce用的Cipher，不记录密钥，用完后已用全零密钥重新init
+     */
+    private static final ThreadLocal<Map<String, Cipher>> ONCE_CIPHERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<SecureRandom> RANDOMS = ThreadLocal.withInitial(SecureRandom::new);
+    private static final ThreadLocal<SM2Engine> SM2_ENGINES = ThreadLocal.withInitial(SM2Engine::new);
+    private static final ThreadLocal<RSAEngine> RSA_ENGINES = ThreadLocal.withInitial(RSAEngine::new);
+    private static final ThreadLocal<Sm2Entry> SM2_SIGNATURES = ThreadLocal.withInitial(Sm2Entry::new);
+    private static final String SM2_SIGNATURE = "SM3WITHSM2";
+
+    private EngineCache() {
+    }
+
+    private static final class SignatureEntry {
+        private final Signature signature;
+        private Key key;
+        private boolean signMode;
+
+        private SignatureEntry(Signature signature) {
+            this.signature = signature;
+        }
+    }
+
+    /**
+     * SM3WITHSM2的签名和验签实例分开，交替使用时不用来回init
+     */
+    private static final class Sm2Entry {
+        private final Sm2Signature signer = new Sm2Signature();
+        private final Sm2Signature verifier = new Sm2Signature();
+        private PrivateKey signKey;
+        private PublicKey verifyKey;
+    }
+
+    private static final class CipherEntry {
+        private final Cipher cipher;
+        private byte[] key;
+        private int mode;
+
+        private CipherEntry(Cipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+
+    /**
+     * 获取已用私钥初始化好的签名实例
+     *
+     * @param algorithm 签名算法，如SM3WITHSM2
+     * @param key       私钥
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static Signature signer(String algorithm, PrivateKey key) throws GeneralSecurityException {
+        SignatureEntry entry = signatureEntry(algorithm);
+        if (!entry.signMode || entry.key != key) {
+            entry.key = null;
+            entry.signature.initSign(key);
+            entry.key = key;
+            entry.signMode = true;
+        }
+        return entry.signature;
+    }
+
+    /**
+     * 获取已用公钥初始化好的验签实例
+     *
+     * @param algorithm 签名算法
+     * @param key       公钥
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static Signature verifier(String algorithm, PublicKey key) throws GeneralSecurityException {
+        SignatureEntry entry = signatureEntry(algorithm);
+        if (entry.signMode || entry.key != key) {
+            entry.key = null;
+            entry.signature.initVerify(key);
+            entry.key = key;
+            entry.signMode = false;
+        }
+        return entry.signature;
+    }
+
+    /**
+     * 签名，出现异常时丢弃缓存的实例
+     *
+     * @param algorithm
+     * @param key
+     * @param plain
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static byte[] sign(String algorithm, PrivateKey key, byte[] plain) throws GeneralSecurityException {
+        return sign(algorithm, key, plain, 0, plain.length);
+    }
+
+    /**
+     * 对数组中的一段签名，出现异常时丢弃缓存的实例
+     *
+     * @param algorithm
+     * @param key
+     * @param plain
+     * @param offset
+     * @param length
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static byte[] sign(String algorithm, PrivateKey key, byte[] plain, int offset, int length) throws GeneralSecurityException {
+        if (key instanceof ECPrivateKey && SM2_SIGNATURE.equalsIgnoreCase(algorithm)) {
+            return sm2Sign(key, plain, offset, length);
+        }
+        try {
+            Signature signature = signer(algorithm, key);
+            signature.update(plain, offset, length);
+            return signature.sign();
+        } catch (GeneralSecurityException | RuntimeException e) {
+            SIGNATURES.get().remove(algorithm);
+            throw e;
+        }
+    }
+
+    /**
+     * 一次性私钥的签名，不进线程缓存：签名实例每次新建，用完即丢弃，线程不再引用该私钥。
+     * 数字信封用被托管的加密私钥签名时使用，否则该私钥会被线程缓存一直持有到下一次签名
+     *
+     * @param algorithm
+     * @param key       一次性私钥
+     * @param plain
+     * @param offset
+     * @param length
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static byte[] signOnce(String algorithm, PrivateKey key, byte[] plain, int offset, int length) throws GeneralSecurityException {
+        if (key instanceof ECPrivateKey && SM2_SIGNATURE.equalsIgnoreCase(algorithm)) {
+            try {
+                Sm2Signature signer = new Sm2Signature();
+                signer.initSign(key);
+                signer.update(plain, offset, length);
+                return signer.sign();
+            } catch (RuntimeException e) {
+                throw new SignatureException("SM2签名失败:" + e.getMessage(), e);
+            }
+        }
+        Signature signature = Signature.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME);
+        signature.initSign(key);
+        signature.update(plain, offset, length);
+        return signature.sign();
+    }
+
+    private static byte[] sm2Sign(PrivateKey key, byte[] plain, int offset, int length) throws GeneralSecurityException {
+        Sm2Entry entry = SM2_SIGNATURES.get();
+        try {
+            if (entry.signKey != key) {
+                entry.signKey = null;
+                entry.signer.initSign(key);
+                entry.signKey = key;
+            }
+            entry.signer.update(plain, offset, length);
+            return entry.signer.sign();
+        } catch (RuntimeException e) {
+            SM2_SIGNATURES.remove();
+            throw new SignatureException("SM2签名失败:" + e.getMessage(), e);
+        } catch (GeneralSecurityException e) {
+            SM2_SIGNATURES.remove();
+            throw e;
+        }
+    }
+
+    private static boolean sm2Verify(PublicKey key, byte[] plain, int offset, int length, byte[] signed, int signedOffset, int signedLength) throws GeneralSecurityException {
+        Sm2Entry entry = SM2_SIGNATURES.get();
+        try {
+            if (entry.verifyKey != key) {
+                entry.verifyKey = null;
+                entry.verifier.initVerify(key);
+                entry.verifyKey = key;
+            }
+            entry.verifier.update(plain, offset, length);
+            return entry.verifier.verify(signed, signedOffset, signedLength);
+        } catch (RuntimeException e) {
+            SM2_SIGNATURES.remove();
+            throw new SignatureException("SM2验签失败:" + e.getMessage(), e);
+        } catch (GeneralSecurityException e) {
+            SM2_SIGNATURES.remove();
+            throw e;
+        }
+    }
+
+    /**
+     * 验签，出现异常时丢弃缓存的实例
+     *
+     * @param algorithm
+     * @param key
+     * @param plain
+     * @param signed
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static boolean verify(String algorithm, PublicKey key, byte[] plain, byte[] signed) throws GeneralSecurityException {
+        return verify(algorithm, key, plain, 0, plain.length, signed, 0, signed.length);
+    }
+
+    /**
+     * 原文和签名值都是数组中的一段时验签，出现异常时丢弃缓存的实例
+     *
+     * @param algorithm
+     * @param key
+     * @param plain
+     * @param offset
+     * @param length
+     * @param signed
+     * @param signedOffset
+     * @param signedLength
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static boolean verify(String algorithm, PublicKey key, byte[] plain, int offset, int length, byte[] signed, int signedOffset, int signedLength) throws GeneralSecurityException {
+        if (key instanceof ECPublicKey && SM2_SIGNATURE.equalsIgnoreCase(algorithm)) {
+            return sm2Verify(key, plain, offset, length, signed, signedOffset, signedLength);
+        }
+        try {
+            Signature signature = verifier(algorithm, key);
+            signature.update(plain, offset, length);
+            return signature.verify(signed, signedOffset, signedLength);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            SIGNATURES.get().remove(algorithm);
+            throw e;
+        }
+    }
+
+    /**
+     * 获取已初始化好的对称加解密实例，只适用于不需要IV的模式（如ECB）
+     *
+     * @param transformation 如SM4/ECB/NoPadding
+     * @param mode           Cipher.ENCRYPT_MODE|Cipher.DECRYPT_MODE
+     * @param key            密钥
+     * @param keyAlgorithm   密钥算法，如SM4
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static Cipher cipher(String transformation, int mode, byte[] key, String keyAlgorithm) throws GeneralSecurityException {
+        Map<String, CipherEntry> ciphers = CIPHERS.get();
+        CipherEntry entry = ciphers.get(transformation);
+        if (null == entry) {
+            entry = new CipherEntry(Cipher.getInstance(transformation, BouncyCastleProvider.PROVIDER_NAME));
+            ciphers.put(transformation, entry);
+        }
+        if (entry.mode != mode || null == entry.key || !MessageDigest.isEqual(entry.key, key)) {
+            entry.key = null;
+            entry.cipher.init(mode, new SecretKeySpec(key, keyAlgorithm));
+            entry.key = key.clone();
+            entry.mode = mode;
+        }
+        return entry.cipher;
+    }
+
+    /**
+     * 一次性完成对称加解密，出现异常时丢弃缓存的实例
+     *
+     * @param transformation
+     * @param mode
+     * @param key
+     * @param keyAlgorithm
+     * @param data
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static byte[] doFinal(String transformation, int mode, byte[] key, String keyAlgorithm, byte[] data) throws GeneralSecurityException {
+        return doFinal(transformation, mode, key, keyAlgorithm, data, 0, data.length);
+    }
+
+    /**
+     * 对数组中的一段一次性完成对称加解密，出现异常时丢弃缓存的实例
+     *
+     * @param transformation
+     * @param mode
+     * @param key
+     * @param keyAlgorithm
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static byte[] doFinal(String transformation, int mode, byte[] key, String keyAlgorithm, byte[] data, int offset, int length) throws GeneralSecurityException {
+        try {
+            return cipher(transformation, mode, key, keyAlgorithm).doFinal(data, offset, length);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            CIPHERS.get().remove(transformation);
+            throw e;
+        }
+    }
+
+    /**
+     * 一次性密钥的对称加解密：Cipher按线程和transformation复用，省掉provider查找和引擎创建，
+     * 但不保留密钥副本，每次用新密钥init，用完后再用全零密钥init一次，把会话秘钥从引擎的轮密钥中覆盖掉
+     *
+     * @param transformation
+     * @param mode
+     * @param key            一次性密钥，如数字信封的会话秘钥，由调用方用完后清零
+     * @param keyAlgorithm
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public static byte[] doFinalOnce(String transformation, int mode, byte[] key, String keyAlgorithm, byte[] data, int offset, int length) throws GeneralSecurityException {
+        Map<String, Cipher> ciphers = ONCE_CIPHERS.get();
+        Cipher cipher = ciphers.get(transformation);
+        if (null == cipher) {
+            cipher = Cipher.getInstance(transformation, BouncyCastleProvider.PROVIDER_NAME);
+            ciphers.put(transformation, cipher);
+        }
+        try {
+            cipher.init(mode, new SecretKeySpec(key, keyAlgorithm));
+            byte[] result = cipher.doFinal(data, offset, length);
+            cipher.init(mode, new SecretKeySpec(new byte[key.length], keyAlgorithm));
+            return result;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            ciphers.remove(transformation);
+            throw e;
+        }
+    }
+
+    /**
+     * @return 当前线程的随机数源，避免每次new SecureRandom的初始化和多线程争用同一个实例
+     */
+    public static SecureRandom random() {
+        return RANDOMS.get();
+    }
+
+    /**
+     * 获取当前线程的SM2加密引擎，每次使用前需要init
+     *
+     * @return
+     */
+    public static SM2Engine sm2Engine() {
+        return SM2_ENGINES.get();
+    }
+
+    /**
+     * 获取当前线程的RSA引擎(无填充)，每次使用前需要init
+     *
+     * @return
+     */
+    public static RSAEngine rsaEngine() {
+        return RSA_ENGINES.get();
+    }
+
+    /**
+     * 清空当前线程缓存的实例和密钥引用，线程池线程退出前可调用
+     */
+    public static void clear() {
+        SIGNATURES.remove();
+        CIPHERS.remove();
+        ONCE_CIPHERS.remove();
+        RANDOMS.remove();
+        SM2_ENGINES.remove();
+        RSA_ENGINES.remove();
+        SM2_SIGNATURES.remove();
+    }
+
+    private static SignatureEntry signatureEntry(String algorithm) throws GeneralSecurityException {
+        Map<String, SignatureEntry> signatures = SIGNATURES.get();
+        SignatureEntry entry = signatures.get(algorithm);
+        if (null == entry) {
+            entry = new SignatureEntry(Signature.getInstance(algorithm, BouncyCastleProvider.PROVIDER_NAME));
+            signatures.put(algorithm, entry);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,223 @@
+package com.ggp.noob.util;
+
+import com.ggp.noob.asn1.SignAlgEnum;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.pkcs.Attribute;
+import org.bouncycastle.asn1.pkcs.CertificationRequest;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.pkcs.PKCS10CertificationRequest;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.Arrays;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/11 10:31
+ * @Description: 解析后的p10，一次解码后主体、公钥、扩展项、签名都从同一个对象获取
+ * 输入可以是PEM、去掉头尾的base64，也可以带有字面量的\r\n，解码时直接跳过头尾和空白，不产生中间字符串
+ */
+public class P10Request {
+    private static final int[] BASE64 = new int[128];
+
+    static {
+        Arrays.fill(BASE64, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final PKCS10CertificationRequest request;
+    private final byte[] encoded;
+    private PublicKey publicKey;
+
+    private P10Request(byte[] encoded) {
+        this.encoded = encoded;
+        this.request = new PKCS10CertificationRequest(CertificationRequest.getInstance(encoded));
+    }
+
+    /**
+     * 解析PEM或base64格式的p10
+     *
+     * @param p10
+     * @return
+     */
+    public static P10Request parse(CharSequence p10) {
+        return new P10Request(decode(p10));
+    }
+
+    /**
+     * 解析DER编码的p10
+     *
+     * @param der
+     * @return
+     */
+    public static P10Request parse(byte[] der) {
+        return new P10Request(der);
+    }
+
+    /**
+     * 单遍解码：跳过-----BEGIN/END ...-----、空白以及字面量的\r \n，其余按base64解码
+     *
+     * @param p10
+     * @return
+     */
+    static byte[] decode(CharSequence p10) {
+        int length = p10.length();
+        byte[] out = new byte[length / 4 * 3 + 3];
+        int pos = 0;
+        int bits = 0;
+        int count = 0;
+        int i = 0;
+        while (i < length) {
+            char c = p10.charAt(i);
+            if (c == '-') {
+                /**
+                 * 头尾标记：跳过开头的-----、标签、结尾的-----
+                 */
+                while (i < length && p10.charAt(i) == '-') {
+                    i++;
+                }
+                while (i < length && p10.charAt(i) != '-') {
+                    i++;
+                }
+                while (i < length && p10.charAt(i) == '-') {
+                    i++;
+                }
+                continue;
+            }
+            if (c == '\\' && i + 1 < length && (p10.charAt(i + 1) == 'r' || p10.charAt(i + 1) == 'n')) {
+                i += 2;
+                continue;
+            }
+            i++;
+            if (c == '=' || c <= ' ') {
+                continue;
+            }
+            int v = c < 128 ? BASE64[c] : -1;
+            if (v < 0) {
+                throw new IllegalArgumentException("p10格式错误，非法字符:" + c + " 位置:" + (i - 1));
+            }
+            bits = (bits << 6) | v;
+            if (++count == 4) {
+                out[pos++] = (byte) (bits >> 16);
+                out[pos++] = (byte) (bits >> 8);
+                out[pos++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            out[pos++] = (byte) (bits >> 10);
+            out[pos++] = (byte) (bits >> 2);
+        } else if (count == 2) {
+            out[pos++] = (byte) (bits >> 4);
+        } else if (count == 1) {
+            throw new IllegalArgumentException("p10格式错误，base64长度不正确");
+        }
+        return pos == out.length ? out : Arrays.copyOf(out, pos);
+    }
+
+    public X500Name getSubject() {
+        return request.getSubject();
+    }
+
+    /**
+     * @return 主体dn字符串，与{@link CertUtil#getSubjectFromP10(String)}一致
+     */
+    public String getSubjectString() {
+        return request.getSubject().toString();
+    }
+
+    public SubjectPublicKeyInfo getSubjectPublicKeyInfo() {
+        return request.getSubjectPublicKeyInfo();
+    }
+
+    /**
+     * @return 公钥，首次调用时转换并缓存
+     * @throws IOException
+     */
+    public PublicKey getPublicKey() throws IOException {
+        PublicKey key = publicKey;
+        if (null == key) {
+            JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME);
+            key = converter.getPublicKey(request.getSubjectPublicKeyInfo());
+            publicKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * @return 申请的证书扩展项(pkcs-9 extensionRequest)，没有时返回null
+     */
+    public Extensions getRequestedExtensions() {
+        Attribute[] attributes = request.getAttributes(PKCSObjectIdentifiers.pkcs_9_at_extensionRequest);
+        if (attributes.length == 0) {
+            return null;
+        }
+        ASN1Encodable[] values = attributes[0].getAttributeValues();
+        return values.length == 0 ? null : Extensions.getInstance(values[0]);
+    }
+
+    public AlgorithmIdentifier getSignatureAlgorithm() {
+        return request.getSignatureAlgorithm();
+    }
+
+    public byte[] getSignature() {
+        return request.getSignature();
+    }
+
+    /**
+     * @return 被签名的CertificationRequestInfo的DER编码
+     * @throws IOException
+     */
+    public byte[] getSignedContent() throws IOException {
+        return request.toASN1Structure().getCertificationRequestInfo().getEncoded(ASN1Encoding.DER);
+    }
+
+    /**
+     * 验证p10的签名(私钥持有证明)，签名算法按p10中的标识，验签引擎由EngineCache按线程缓存。
+     * 原文和签名值直接取编码中的片段，不重新编码CertificationRequestInfo；编码不是DER时退回重新编码
+     *
+     * @return 签名是否正确
+     * @throws Exception 不支持的签名算法、公钥无法解析
+     */
+    public boolean verify() throws Exception {
+        SignAlgEnum alg = SignatureUtil.signAlg(request.getSignatureAlgorithm().getAlgorithm());
+        PublicKey key = getPublicKey();
+        try {
+            DerReader reader = new DerReader(encoded);
+            reader.enter(DerWriter.SEQUENCE);
+            int infoStart = reader.skip(DerWriter.SEQUENCE);
+            int infoEnd = reader.position();
+            reader.skip(DerWriter.SEQUENCE);
+            int signatureStart = reader.read(DerWriter.BIT_STRING);
+            int signatureLength = reader.length();
+            if (signatureLength > 1 && encoded[signatureStart] == 0) {
+                return SignatureUtil.verify(encoded, infoStart, infoEnd - infoStart, encoded, signatureStart + 1, signatureLength - 1, key, alg);
+            }
+        } catch (IOException e) {
+            // 不是DER，按解析后的对象验签
+        }
+        return SignatureUtil.verify(getSignedContent(), getSignature(), key, alg);
+    }
+
+    public PKCS10CertificationRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return p10的DER编码副本
+     */
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+}
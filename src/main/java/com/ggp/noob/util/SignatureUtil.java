@@ -1,16 +1,17 @@
 package com.ggp.noob.util;
 
 import com.ggp.noob.asn1.SignAlgEnum;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.gm.GMObjectIdentifiers;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
 
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.Signature;
 
 /**
  * @Author:ggp
  * @Date:2020-06-08 15:59
- * @Description:
+ * @Description: 签名/验签，引擎由{@link EngineCache}按线程缓存
  */
 public class SignatureUtil {
     /**
@@ -22,10 +23,35 @@ public class SignatureUtil {
      * @throws Exception
      */
     public static byte[] sign(byte[] plain, PrivateKey key, SignAlgEnum algEnum) throws Exception {
-        Signature signature = Signature.getInstance(algEnum.value, BouncyCastleProvider.PROVIDER_NAME);
-        signature.initSign(key);
-        signature.update(plain);
-        return signature.sign();
+        return EngineCache.sign(algEnum.value, key, plain);
+    }
+
+    /**
+     * 对数组中的一段签名
+     * @param plain      包含原文的数组
+     * @param offset     原文起始位置
+     * @param length     原文长度
+     * @param key        私钥
+     * @param algEnum    签名算法
+     * @return
+     * @throws Exception
+     */
+    public static byte[] sign(byte[] plain, int offset, int length, PrivateKey key, SignAlgEnum algEnum) throws Exception {
+        return EngineCache.sign(algEnum.value, key, plain, offset, length);
+    }
+
+    /**
+     * 用一次性私钥对数组中的一段签名，签名实例不进线程缓存，见{@link EngineCache#signOnce}
+     * @param plain      包含原文的数组
+     * @param offset     原文起始位置
+     * @param length     原文长度
+     * @param key        私钥
+     * @param algEnum    签名算法
+     * @return
+     * @throws Exception
+     */
+    public static byte[] signOnce(byte[] plain, int offset, int length, PrivateKey key, SignAlgEnum algEnum) throws Exception {
+        return EngineCache.signOnce(algEnum.value, key, plain, offset, length);
     }
 
     /**
@@ -38,9 +64,40 @@ public class SignatureUtil {
      * @throws Exception
      */
     public static boolean verify(byte[] plain, byte[] cipher, PublicKey key, SignAlgEnum algEnum) throws Exception {
-        Signature signature = Signature.getInstance(algEnum.value,BouncyCastleProvider.PROVIDER_NAME);
-        signature.initVerify(key);
-        signature.update(plain);
-        return signature.verify(cipher);
+        return EngineCache.verify(algEnum.value, key, plain, cipher);
+    }
+
+    /**
+     * 原文和签名值都是数组中的一段时验签
+     * @param plain          包含原文的数组
+     * @param offset         原文起始位置
+     * @param length         原文长度
+     * @param cipher         包含签名值的数组
+     * @param cipherOffset   签名值起始位置
+     * @param cipherLength   签名值长度
+     * @param key            公钥
+     * @param algEnum        签名算法
+     * @return
+     * @throws Exception
+     */
+    public static boolean verify(byte[] plain, int offset, int length, byte[] cipher, int cipherOffset, int cipherLength, PublicKey key, SignAlgEnum algEnum) throws Exception {
+        return EngineCache.verify(algEnum.value, key, plain, offset, length, cipher, cipherOffset, cipherLength);
+    }
+
+    /**
+     * 证书、p10中的签名算法标识转为SignAlgEnum
+     * @param oid        签名算法oid
+     * @return
+     * @throws IllegalArgumentException 不支持的算法
+     */
+    public static SignAlgEnum signAlg(ASN1ObjectIdentifier oid) {
+        if (GMObjectIdentifiers.sm2sign_with_sm3.equals(oid)) {
+            return SignAlgEnum.SM3_WITH_SM2;
+        } else if (PKCSObjectIdentifiers.sha256WithRSAEncryption.equals(oid)) {
+            return SignAlgEnum.SHA256_WITH_RSA;
+        } else if (PKCSObjectIdentifiers.sha1WithRSAEncryption.equals(oid)) {
+            return SignAlgEnum.SHA1_WITH_RSA;
+        }
+        throw new IllegalArgumentException("不支持的签名算法:" + oid);
     }
 }
@@ -0,0 +1,378 @@
+package com.ggp.noob.util;
+
+import com.ggp.noob.Constant;
+import org.bouncycastle.crypto.digests.SM3Digest;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.jcajce.provider.asymmetric.util.ECUtil;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECFieldElement;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/15 9:30
+ * @Description: SM3withSM2签名验签，按(公钥, 用户ID)缓存哈希完ZA之后的SM3状态
+ * ZA = SM3(ENTL || ID || a || b || xG || yG || xA || yA)，同一公钥每次都一样，
+ * BC的SM2Signer每次init都重新计算，签名时还要先算一次d*G得到公钥。
+ * 这里每次签名验签只从缓存的状态复制一份再哈希消息；签名时(1+d)^-1也只在init时算一次。
+ * 缓存只以公钥为键，不保存私钥；只有CA根密钥这类反复使用的密钥(initSign(key, publicKey)和prepare)进缓存，
+ * 只给私钥签名和用公钥直接验签(如核对每个CSR的签名)时ZA现算、不进缓存，避免一次性的密钥占满缓存。
+ * 实例不是线程安全的，按线程复用见EngineCache
+ */
+public final class Sm2Signature {
+    /**
+     * 默认用户ID 1234567812345678
+     */
+    private static final byte[] DEFAULT_USER_ID = "1234567812345678".getBytes(StandardCharsets.US_ASCII);
+    private static final Map<ByteBuffer, SM3Digest> PREFIXES = new ConcurrentHashMap<>();
+    /**
+     * 已核对过与公钥匹配的私钥对象，弱引用，私钥对象不再使用后自动清除
+     */
+    private static final Map<PrivateKey, ECPoint> CHECKED_KEYS = Collections.synchronizedMap(new WeakHashMap<PrivateKey, ECPoint>());
+
+    private final byte[] userId;
+    private final SM3Digest digest = new SM3Digest();
+    private final byte[] hash = new byte[32];
+    private SM3Digest prefix;
+    private BigInteger d;
+    private BigInteger dPlus1Inverse;
+    private ECPoint q;
+    /**
+     * 公钥Q的定点窗口表，只有用PreparedKey初始化验签时才有
+     */
+    private ECMultiplier qMultiplier;
+    private boolean signMode;
+
+    /**
+     * 预处理好的验签公钥：哈希完ZA的SM3状态和公钥Q的定点窗口表，只读，可在多线程间共享。
+     * 验签的sG+tQ变成两次查表，同一公钥要验成百上千个签名(如用根公钥核对全部已签发证书)时使用
+     */
+    public static final class PreparedKey {
+        private final ECPoint q;
+        private final SM3Digest prefix;
+        private final ECMultiplier multiplier;
+
+        private PreparedKey(ECPoint q, SM3Digest prefix, ECMultiplier multiplier) {
+            this.q = q;
+            this.prefix = prefix;
+            this.multiplier = multiplier;
+        }
+    }
+
+    public Sm2Signature() {
+        this(DEFAULT_USER_ID);
+    }
+
+    /**
+     * @param userId 用户ID，长度不超过8191字节
+     */
+    public Sm2Signature(byte[] userId) {
+        if (userId.length >= 8192) {
+            throw new IllegalArgumentException("SM2 user ID too long:" + userId.length);
+        }
+        this.userId = userId.clone();
+    }
+
+    /**
+     * 用私钥初始化签名，公钥由d*G算出，ZA现算不缓存
+     *
+     * @param key SM2私钥
+     * @throws InvalidKeyException
+     */
+    public void initSign(PrivateKey key) throws InvalidKeyException {
+        initSign(key, null);
+    }
+
+    /**
+     * 用私钥初始化签名，ZA按公钥缓存，适用于CA根私钥这类反复使用的密钥。
+     * 每个私钥对象第一次使用时核对公钥是否等于d*G
+     *
+     * @param key       SM2私钥
+     * @param publicKey 与私钥对应的公钥，为空时同initSign(key)
+     * @throws InvalidKeyException 私钥越界或公钥与私钥不匹配
+     */
+    public void initSign(PrivateKey key, PublicKey publicKey) throws InvalidKeyException {
+        ECPrivateKeyParameters params = (ECPrivateKeyParameters) ECUtil.generatePrivateKeyParameter(key);
+        BigInteger n = Sm2Util.SPEC.getN();
+        BigInteger d = params.getD();
+        if (d.signum() <= 0 || d.compareTo(n.subtract(BigInteger.ONE)) >= 0) {
+            throw new InvalidKeyException("SM2私钥不在[1,n-2]内");
+        }
+        this.prefix = null;
+        if (null == publicKey) {
+            this.q = Sm2Util.baseMultiplier().multiply(Sm2Util.SPEC.getG(), d).normalize();
+            this.prefix = createPrefix(userId, q);
+        } else {
+            this.q = publicPoint(publicKey);
+            if (!q.equals(CHECKED_KEYS.get(key))) {
+                if (!q.equals(Sm2Util.baseMultiplier().multiply(Sm2Util.SPEC.getG(), d).normalize())) {
+                    throw new InvalidKeyException("SM2公钥与私钥不匹配");
+                }
+                CHECKED_KEYS.put(key, q);
+            }
+            this.prefix = prefix(userId, q);
+        }
+        this.qMultiplier = null;
+        this.d = d;
+        this.dPlus1Inverse = d.add(BigInteger.ONE).modInverse(n);
+        this.signMode = true;
+        digest.reset(prefix);
+    }
+
+    /**
+     * 为大量验签预处理公钥，使用默认用户ID
+     *
+     * @param key SM2公钥
+     * @return
+     * @throws InvalidKeyException
+     */
+    public static PreparedKey prepare(PublicKey key) throws InvalidKeyException {
+        return prepare(key, DEFAULT_USER_ID);
+    }
+
+    /**
+     * 为大量验签预处理公钥
+     *
+     * @param key    SM2公钥
+     * @param userId 用户ID，用PreparedKey初始化验签时以这里的为准
+     * @return
+     * @throws InvalidKeyException
+     */
+    public static PreparedKey prepare(PublicKey key, byte[] userId) throws InvalidKeyException {
+        ECPoint q = publicPoint(key);
+        return new PreparedKey(q, prefix(userId, q), Sm2Util.fixedPointMultiplier(q));
+    }
+
+    /**
+     * 用预处理好的公钥初始化验签
+     *
+     * @param key 见prepare
+     */
+    public void initVerify(PreparedKey key) {
+        this.prefix = key.prefix;
+        this.q = key.q;
+        this.qMultiplier = key.multiplier;
+        this.d = null;
+        this.dPlus1Inverse = null;
+        this.signMode = false;
+        digest.reset(prefix);
+    }
+
+    /**
+     * 用公钥初始化验签，ZA现算不缓存；同一公钥要验大量签名时用prepare
+     *
+     * @param key SM2公钥
+     * @throws InvalidKeyException
+     */
+    public void initVerify(PublicKey key) throws InvalidKeyException {
+        this.prefix = null;
+        this.q = publicPoint(key);
+        this.prefix = createPrefix(userId, q);
+        this.qMultiplier = null;
+        this.d = null;
+        this.dPlus1Inverse = null;
+        this.signMode = false;
+        digest.reset(prefix);
+    }
+
+    public void update(byte b) {
+        digest.update(b);
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        digest.update(data, offset, length);
+    }
+
+    /**
+     * 签名，完成后回到init之后的状态
+     *
+     * @return DER编码的SEQUENCE{r, s}
+     * @throws SignatureException 未用私钥初始化
+     */
+    public byte[] sign() throws SignatureException {
+        if (!signMode || null == prefix) {
+            throw new SignatureException("未用私钥初始化");
+        }
+        BigInteger e = digestFinal();
+        BigInteger n = Sm2Util.SPEC.getN();
+        SecureRandom random = EngineCache.random();
+        BigInteger r;
+        BigInteger s;
+        do {
+            BigInteger k;
+            do {
+                do {
+                    k = new BigInteger(n.bitLength(), random);
+                } while (k.signum() == 0 || k.compareTo(n) >= 0);
+                BigInteger x1 = Sm2Util.baseMultiplier().multiply(Sm2Util.SPEC.getG(), k).normalize().getAffineXCoord().toBigInteger();
+                r = e.add(x1).mod(n);
+            } while (r.signum() == 0 || r.add(k).equals(n));
+            s = dPlus1Inverse.multiply(k.subtract(r.multiply(d))).mod(n);
+        } while (s.signum() == 0);
+        return encode(r, s);
+    }
+
+    /**
+     * 验签，完成后回到init之后的状态
+     *
+     * @param signature DER编码的SEQUENCE{r, s}
+     * @return 签名格式错误或不匹配时返回false
+     * @throws SignatureException 未用公钥初始化
+     */
+    public boolean verify(byte[] signature, int offset, int length) throws SignatureException {
+        if (signMode || null == prefix) {
+            throw new SignatureException("未用公钥初始化");
+        }
+        BigInteger e = digestFinal();
+        BigInteger[] rs = decode(signature, offset, length);
+        if (null == rs) {
+            return false;
+        }
+        BigInteger n = Sm2Util.SPEC.getN();
+        BigInteger r = rs[0];
+        BigInteger s = rs[1];
+        if (r.signum() <= 0 || r.compareTo(n) >= 0 || s.signum() <= 0 || s.compareTo(n) >= 0) {
+            return false;
+        }
+        BigInteger t = r.add(s).mod(n);
+        if (t.signum() == 0) {
+            return false;
+        }
+        ECPoint point;
+        if (null == qMultiplier) {
+            point = ECAlgorithms.sumOfTwoMultiplies(Sm2Util.SPEC.getG(), s, q, t).normalize();
+        } else {
+            point = Sm2Util.baseMultiplier().multiply(Sm2Util.SPEC.getG(), s).add(qMultiplier.multiply(q, t)).normalize();
+        }
+        if (point.isInfinity()) {
+            return false;
+        }
+        return e.add(point.getAffineXCoord().toBigInteger()).mod(n).equals(r);
+    }
+
+    public boolean verify(byte[] signature) throws SignatureException {
+        return verify(signature, 0, signature.length);
+    }
+
+    /**
+     * @return e = SM3(ZA || M)，并把摘要恢复到只哈希了ZA的状态
+     */
+    private BigInteger digestFinal() {
+        digest.doFinal(hash, 0);
+        digest.reset(prefix);
+        return new BigInteger(1, hash);
+    }
+
+    private static ECPoint publicPoint(PublicKey key) throws InvalidKeyException {
+        ECPoint point = ((ECPublicKeyParameters) ECUtil.generatePublicKeyParameter(key)).getQ();
+        if (!Sm2Util.SPEC.getCurve().equals(point.getCurve())) {
+            throw new InvalidKeyException("不是SM2公钥");
+        }
+        return ECAlgorithms.importPoint(Sm2Util.SPEC.getCurve(), point).normalize();
+    }
+
+    /**
+     * 从缓存取哈希完ZA的SM3状态，缓存满了之后新公钥现算不缓存
+     */
+    private static SM3Digest prefix(byte[] userId, ECPoint q) {
+        byte[] encoded = q.getEncoded(false);
+        byte[] key = Arrays.copyOf(encoded, encoded.length + userId.length);
+        System.arraycopy(userId, 0, key, encoded.length, userId.length);
+        ByteBuffer cacheKey = ByteBuffer.wrap(key);
+        SM3Digest prefix = PREFIXES.get(cacheKey);
+        if (null == prefix) {
+            prefix = createPrefix(userId, q);
+            if (PREFIXES.size() < Constant.sm2ZaCacheSize) {
+                PREFIXES.putIfAbsent(cacheKey, prefix);
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * 缓存的状态只作为reset(Memoable)的来源被读取，可以多线程共享
+     */
+    private static SM3Digest createPrefix(byte[] userId, ECPoint q) {
+        SM3Digest digest = new SM3Digest();
+        int bits = userId.length * 8;
+        digest.update((byte) (bits >>> 8));
+        digest.update((byte) bits);
+        digest.update(userId, 0, userId.length);
+        addFieldElement(digest, Sm2Util.SPEC.getCurve().getA());
+        addFieldElement(digest, Sm2Util.SPEC.getCurve().getB());
+        addFieldElement(digest, Sm2Util.SPEC.getG().getAffineXCoord());
+        addFieldElement(digest, Sm2Util.SPEC.getG().getAffineYCoord());
+        addFieldElement(digest, q.getAffineXCoord());
+        addFieldElement(digest, q.getAffineYCoord());
+        byte[] za = new byte[digest.getDigestSize()];
+        digest.doFinal(za, 0);
+        SM3Digest prefix = new SM3Digest();
+        prefix.update(za, 0, za.length);
+        return prefix;
+    }
+
+    private static void addFieldElement(SM3Digest digest, ECFieldElement element) {
+        byte[] encoded = element.getEncoded();
+        digest.update(encoded, 0, encoded.length);
+    }
+
+    private static byte[] encode(BigInteger r, BigInteger s) {
+        byte[] rBytes = r.toByteArray();
+        byte[] sBytes = s.toByteArray();
+        int length = DerWriter.tlv(rBytes.length) + DerWriter.tlv(sBytes.length);
+        byte[] out = new byte[DerWriter.tlv(length)];
+        new DerWriter(out, 0).header(DerWriter.SEQUENCE, length)
+                .tlv(DerWriter.INTEGER, rBytes, 0, rBytes.length)
+                .tlv(DerWriter.INTEGER, sBytes, 0, sBytes.length);
+        return out;
+    }
+
+    /**
+     * 严格按DER解码，有多余数据或整数编码不是最短形式时返回null
+     */
+    private static BigInteger[] decode(byte[] signature, int offset, int length) {
+        try {
+            DerReader reader = new DerReader(signature, offset, length);
+            int end = reader.enter(DerWriter.SEQUENCE);
+            if (end != offset + length) {
+                return null;
+            }
+            BigInteger r = readInteger(reader);
+            BigInteger s = readInteger(reader);
+            if (null == r || null == s || reader.hasNext()) {
+                return null;
+            }
+            return new BigInteger[]{r, s};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static BigInteger readInteger(DerReader reader) throws IOException {
+        byte[] buffer = reader.buffer();
+        int start = reader.read(DerWriter.INTEGER);
+        int length = reader.length();
+        if (length == 0 || (length > 1 && buffer[start] == 0 && buffer[start + 1] >= 0)
+                || (length > 1 && buffer[start] == -1 && buffer[start + 1] < 0)) {
+            return null;
+        }
+        return new BigInteger(Arrays.copyOfRange(buffer, start, start + length));
+    }
+}
@@ -0,0 +1,237 @@
+package com.ggp.noob.util;
+
+import com.ggp.noob.Constant;
+import org.bouncycastle.asn1.gm.GMObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
+import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPublicKey;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.bouncycastle.math.ec.AbstractECMultiplier;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.RuntimeOperatorException;
+
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/14 10:00
+ * @Description: SM2密钥生成和签名，基点G的倍点运算使用预先计算好的定点窗口表
+ * 表在类加载时按Constant.sm2BaseWindow计算一次，之后只读，所有线程共享。
+ * k*G按窗口拆成 sum(d_i * 2^(w*i) * G)，每个窗口直接查表做一次仿射点加法，没有倍点运算；
+ * BC默认的FixedPointCombMultiplier为5位梳状表，256位标量要做52次倍点加52次点加。
+ * 查表下标取决于标量，和BC 1.60的梳状表一样不是常量时间的。签名验签见Sm2Signature
+ */
+public class Sm2Util {
+    public static final ECNamedCurveParameterSpec SPEC = ECNamedCurveTable.getParameterSpec("sm2p256v1");
+    public static final ECDomainParameters DOMAIN = new ECDomainParameters(SPEC.getCurve(), SPEC.getG(), SPEC.getN(), SPEC.getH());
+    private static final AlgorithmIdentifier SM3_WITH_SM2 = new AlgorithmIdentifier(GMObjectIdentifiers.sm2sign_with_sm3);
+
+    private static final FixedBaseMultiplier BASE = new FixedBaseMultiplier(SPEC.getG(), SPEC.getN(), Constant.sm2BaseWindow);
+
+    /**
+     * @return 使用定点窗口表的基点乘法，传入的点不是SM2的G时退回BC的梳状表
+     */
+    public static ECMultiplier baseMultiplier() {
+        return BASE;
+    }
+
+    /**
+     * 为任意点建同样的定点窗口表，用于同一公钥的大量验签，建表约相当于几十次点乘
+     *
+     * @param point SM2曲线上的点
+     * @return 相乘时传入的点不是建表的点时退回BC的梳状表
+     */
+    static ECMultiplier fixedPointMultiplier(ECPoint point) {
+        return new FixedBaseMultiplier(point, SPEC.getN(), Constant.sm2BaseWindow);
+    }
+
+    /**
+     * 生成SM2密钥对，公钥为d*G
+     *
+     * @return
+     */
+    public static KeyPair createKeyPair() {
+        SecureRandom random = EngineCache.random();
+        BigInteger n = SPEC.getN();
+        BigInteger d;
+        do {
+            d = new BigInteger(n.bitLength(), random);
+        } while (d.signum() == 0 || d.compareTo(n.subtract(BigInteger.ONE)) >= 0);
+        return keyPair(d, BASE.multiply(SPEC.getG(), d).normalize());
+    }
+
+    /**
+     * 由私钥d和公钥Q构造密钥对，私钥的编码中带公钥，和KeyPairGenerator生成的一样，写成PEM后能再读回密钥对
+     *
+     * @param d 私钥
+     * @param q 公钥，d*G
+     * @return
+     */
+    public static KeyPair keyPair(BigInteger d, ECPoint q) {
+        BCECPublicKey publicKey = new BCECPublicKey("EC", new ECPublicKeySpec(q, SPEC), BouncyCastleProvider.CONFIGURATION);
+        return new KeyPair(publicKey, new BCECPrivateKey("EC", new ECPrivateKeyParameters(d, DOMAIN), publicKey, SPEC, BouncyCastleProvider.CONFIGURATION));
+    }
+
+    /**
+     * 证书、OCSP响应等用的SM3withSM2 ContentSigner，签名走定点窗口表，ZA按公钥缓存。
+     * 和JcaContentSignerBuilder一样，一个实例只能在一个线程里使用
+     *
+     * @param key       SM2私钥
+     * @param publicKey 对应的公钥，为空时由私钥算出
+     * @return
+     * @throws InvalidKeyException
+     */
+    public static ContentSigner contentSigner(PrivateKey key, PublicKey publicKey) throws InvalidKeyException {
+        final Sm2Signature signer = new Sm2Signature();
+        signer.initSign(key, publicKey);
+        final OutputStream stream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                signer.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                signer.update(b, off, len);
+            }
+        };
+        return new ContentSigner() {
+            @Override
+            public AlgorithmIdentifier getAlgorithmIdentifier() {
+                return SM3_WITH_SM2;
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return stream;
+            }
+
+            @Override
+            public byte[] getSignature() {
+                try {
+                    return signer.sign();
+                } catch (SignatureException e) {
+                    throw new RuntimeOperatorException("SM2签名失败:" + e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * 定点窗口表：table[i][j-1] = j * 2^(w*i) * P，全部为仿射坐标
+     */
+    private static final class FixedBaseMultiplier extends AbstractECMultiplier {
+        private final ECPoint base;
+        private final BigInteger n;
+        private final int width;
+        private final ECPoint[][] table;
+        private final FixedPointCombMultiplier fallback = new FixedPointCombMultiplier();
+        /**
+         * 最近确认是表中定点的点，签名时传入的是密钥参数中的G，通常每次是同一个对象
+         */
+        private volatile ECPoint known;
+
+        private FixedBaseMultiplier(ECPoint base, BigInteger n, int width) {
+            if (width < 1 || width > 12) {
+                throw new IllegalArgumentException("width must be in [1,12]:" + width);
+            }
+            this.base = base.normalize();
+            this.n = n;
+            this.width = width;
+            int windows = (n.bitLength() + width - 1) / width;
+            int size = (1 << width) - 1;
+            this.table = new ECPoint[windows][];
+            ECPoint start = this.base;
+            for (int i = 0; i < windows; i++) {
+                ECPoint[] row = new ECPoint[size];
+                row[0] = start;
+                for (int j = 1; j < size; j++) {
+                    row[j] = row[j - 1].add(start);
+                }
+                base.getCurve().normalizeAll(row);
+                table[i] = row;
+                start = row[size - 1].add(start).normalize();
+            }
+            this.known = this.base;
+        }
+
+        @Override
+        protected ECPoint multiplyPositive(ECPoint p, BigInteger k) {
+            if (!isBase(p)) {
+                return fallback.multiply(p, k);
+            }
+            if (k.bitLength() > n.bitLength()) {
+                k = k.mod(n);
+            }
+            ECPoint result = base.getCurve().getInfinity();
+            int mask = (1 << width) - 1;
+            int[] words = toWords(k);
+            for (int i = 0, bit = 0; i < table.length; i++, bit += width) {
+                int digit = bits(words, bit) & mask;
+                if (digit != 0) {
+                    result = result.add(table[i][digit - 1]);
+                }
+            }
+            /** 结果在表所在的曲线对象上，调用方的点可能来自另一个等价的曲线对象 */
+            return p.getCurve() == base.getCurve() ? result : ECAlgorithms.importPoint(p.getCurve(), result.normalize());
+        }
+
+        private boolean isBase(ECPoint p) {
+            if (p == known) {
+                return true;
+            }
+            ECPoint normalized = p.normalize();
+            if (p.getCurve().getFieldSize() == base.getCurve().getFieldSize()
+                    && p.getCurve().getA().toBigInteger().equals(base.getCurve().getA().toBigInteger())
+                    && p.getCurve().getB().toBigInteger().equals(base.getCurve().getB().toBigInteger())
+                    && normalized.getAffineXCoord().toBigInteger().equals(base.getAffineXCoord().toBigInteger())
+                    && normalized.getAffineYCoord().toBigInteger().equals(base.getAffineYCoord().toBigInteger())) {
+                known = p;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return 小端32位字
+         */
+        private static int[] toWords(BigInteger k) {
+            byte[] bytes = k.toByteArray();
+            int[] words = new int[(bytes.length + 3) / 4 + 1];
+            for (int i = 0; i < bytes.length; i++) {
+                int index = bytes.length - 1 - i;
+                words[i >>> 2] |= (bytes[index] & 0xFF) << ((i & 3) << 3);
+            }
+            return words;
+        }
+
+        private static int bits(int[] words, int bit) {
+            int word = bit >>> 5;
+            int shift = bit & 31;
+            if (word >= words.length) {
+                return 0;
+            }
+            long value = words[word] & 0xFFFFFFFFL;
+            if (word + 1 < words.length) {
+                value |= (words[word + 1] & 0xFFFFFFFFL) << 32;
+            }
+            return (int) (value >>> shift);
+        }
+    }
+}
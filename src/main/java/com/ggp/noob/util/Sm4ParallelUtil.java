@@ -0,0 +1,347 @@
+package com.ggp.noob.util;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.SM4Engine;
+import org.bouncycastle.crypto.modes.gcm.GCMUtil;
+import org.bouncycastle.crypto.modes.gcm.Tables8kGCMMultiplier;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/18 9:40
+ * @Description: 多核并行的sm4文件加解密，仅支持CTR和GCM
+ * 输入输出文件按块分段内存映射，各段的CTR密钥流在fork-join线程池中并行计算；
+ * GCM各段先独立计算GHASH，合并时左段乘以H^(右段分组数)再与右段异或，得到与顺序计算相同的tag。
+ * 输出与{@link Sm4StreamUtil}的同一模式逐字节一致，GCM只支持12字节iv。
+ */
+public class Sm4ParallelUtil {
+    /**
+     * 默认分段大小，必须是16的整数倍
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int BLOCK_SIZE = 16;
+    private static final int TAG_SIZE = Sm4StreamUtil.GCM_TAG_BITS / 8;
+    /**
+     * 每段内部一次处理的数据大小
+     */
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    /**
+     * GCM的32位计数器从2开始，最多2^32-2个分组，超过后计数器回绕会重复使用密钥流(包括掩盖tag的J0)
+     */
+    private static final long MAX_GCM_LENGTH = 0xFFFFFFFEL * BLOCK_SIZE;
+
+    /**
+     * 使用公共fork-join线程池加密文件
+     *
+     * @return 写出的字节数
+     */
+    public static long encrypt(Sm4StreamUtil.Mode mode, byte[] key, byte[] iv, Path in, Path out) throws IOException, InvalidCipherTextException {
+        return process(mode, true, key, iv, in, out, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 使用公共fork-join线程池解密文件，GCM校验失败时清空输出文件
+     *
+     * @return 写出的字节数
+     */
+    public static long decrypt(Sm4StreamUtil.Mode mode, byte[] key, byte[] iv, Path in, Path out) throws IOException, InvalidCipherTextException {
+        return process(mode, false, key, iv, in, out, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * 并行加解密文件，输出文件已存在时覆盖
+     *
+     * @param mode      CTR|GCM
+     * @param encrypt   true加密 false解密
+     * @param key       16字节密钥
+     * @param iv        CTR为16字节，GCM为12字节
+     * @param in        输入文件
+     * @param out       输出文件
+     * @param pool      线程池
+     * @param chunkSize 分段大小，16的整数倍
+     * @return 写出的字节数
+     * @throws IOException
+     * @throws InvalidCipherTextException GCM校验失败
+     */
+    public static long process(Sm4StreamUtil.Mode mode, boolean encrypt, byte[] key, byte[] iv, Path in, Path out, ForkJoinPool pool, int chunkSize) throws IOException, InvalidCipherTextException {
+        if (mode == Sm4StreamUtil.Mode.CBC) {
+            throw new IllegalArgumentException("CBC不能并行处理，请使用Sm4StreamUtil");
+        }
+        if (mode == Sm4StreamUtil.Mode.GCM && iv.length != 12) {
+            throw new IllegalArgumentException("GCM并行处理只支持12字节iv");
+        }
+        if (mode == Sm4StreamUtil.Mode.CTR && iv.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("CTR的iv必须为16字节");
+        }
+        if (chunkSize <= 0 || chunkSize % BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("chunkSize必须是16的正整数倍:" + chunkSize);
+        }
+        boolean gcm = mode == Sm4StreamUtil.Mode.GCM;
+        /** 在打开(截断)输出文件之前检查 */
+        if (gcm && Files.size(in) - (encrypt ? 0 : TAG_SIZE) > MAX_GCM_LENGTH) {
+            throw new IllegalArgumentException("GCM单次最多处理" + MAX_GCM_LENGTH + "字节:" + in);
+        }
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long dataLength = src.size();
+            if (gcm && !encrypt) {
+                dataLength -= TAG_SIZE;
+                if (dataLength < 0) {
+                    throw new InvalidCipherTextException("密文长度不足");
+                }
+            }
+            long outLength = gcm && encrypt ? dataLength + TAG_SIZE : dataLength;
+            if (outLength > 0) {
+                /**
+                 * 先把输出文件扩到最终大小，各段映射时不再改变文件长度
+                 */
+                dst.write(ByteBuffer.allocate(1), outLength - 1);
+            }
+
+            Job job = new Job(src, dst, key, iv, gcm, encrypt, dataLength, chunkSize);
+            int chunks = (int) ((dataLength + chunkSize - 1) / chunkSize);
+            byte[] ghash = chunks == 0 ? new byte[BLOCK_SIZE] : pool.invoke(new ChunkTask(job, 0, chunks));
+            if (!gcm) {
+                return outLength;
+            }
+            byte[] tag = job.tag(ghash);
+            if (encrypt) {
+                dst.write(ByteBuffer.wrap(tag), dataLength);
+                return outLength;
+            }
+            ByteBuffer expected = ByteBuffer.allocate(TAG_SIZE);
+            while (expected.hasRemaining()) {
+                if (src.read(expected, dataLength + expected.position()) < 0) {
+                    throw new InvalidCipherTextException("密文长度不足");
+                }
+            }
+            if (!MessageDigest.isEqual(tag, expected.array())) {
+                dst.truncate(0);
+                throw new InvalidCipherTextException("mac check in GCM failed");
+            }
+            return outLength;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 一次并行处理共享的只读参数
+     */
+    private static final class Job {
+        private final FileChannel src;
+        private final FileChannel dst;
+        private final byte[] key;
+        private final byte[] iv;
+        private final boolean gcm;
+        private final boolean encrypt;
+        private final long dataLength;
+        private final int chunkSize;
+        /**
+         * GCM的H=E(K,0^128)
+         */
+        private final byte[] h;
+
+        private Job(FileChannel src, FileChannel dst, byte[] key, byte[] iv, boolean gcm, boolean encrypt, long dataLength, int chunkSize) {
+            this.src = src;
+            this.dst = dst;
+            this.key = key;
+            this.iv = iv;
+            this.gcm = gcm;
+            this.encrypt = encrypt;
+            this.dataLength = dataLength;
+            this.chunkSize = chunkSize;
+            this.h = new byte[BLOCK_SIZE];
+            if (gcm) {
+                newEngine().processBlock(new byte[BLOCK_SIZE], 0, h, 0);
+            }
+        }
+
+        private SM4Engine newEngine() {
+            SM4Engine engine = new SM4Engine();
+            engine.init(true, new KeyParameter(key));
+            return engine;
+        }
+
+        /**
+         * 第blockIndex个分组的计数器块：CTR为iv+blockIndex(128位)，GCM为iv||(2+blockIndex)(32位)
+         */
+        private byte[] counter(long blockIndex) {
+            byte[] counter = new byte[BLOCK_SIZE];
+            System.arraycopy(iv, 0, counter, 0, iv.length);
+            if (gcm) {
+                int c = (int) (blockIndex + 2);
+                counter[12] = (byte) (c >>> 24);
+                counter[13] = (byte) (c >>> 16);
+                counter[14] = (byte) (c >>> 8);
+                counter[15] = (byte) c;
+                return counter;
+            }
+            long carry = blockIndex;
+            for (int i = BLOCK_SIZE - 1; i >= 0 && carry != 0; i--) {
+                long sum = (counter[i] & 0xFFL) + (carry & 0xFF);
+                counter[i] = (byte) sum;
+                carry = (carry >>> 8) + (sum >>> 8);
+            }
+            return counter;
+        }
+
+        private void increment(byte[] counter) {
+            int end = gcm ? 12 : 0;
+            for (int i = BLOCK_SIZE - 1; i >= end; i--) {
+                if (++counter[i] != 0) {
+                    break;
+                }
+            }
+        }
+
+        private long blocks(long bytes) {
+            return (bytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        }
+
+        /**
+         * 处理一段，返回该段从0开始计算的GHASH
+         */
+        private byte[] processChunk(int chunk) throws IOException {
+            long offset = (long) chunk * chunkSize;
+            int length = (int) Math.min(chunkSize, dataLength - offset);
+            MappedByteBuffer in = src.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            MappedByteBuffer out = dst.map(FileChannel.MapMode.READ_WRITE, offset, length);
+            SM4Engine engine = newEngine();
+            Tables8kGCMMultiplier multiplier = null;
+            byte[] ghash = null;
+            if (gcm) {
+                multiplier = new Tables8kGCMMultiplier();
+                multiplier.init(h);
+                ghash = new byte[BLOCK_SIZE];
+            }
+            byte[] counter = counter(offset / BLOCK_SIZE);
+            byte[] keyStream = new byte[BLOCK_SIZE];
+            byte[] input = new byte[Math.min(SEGMENT_SIZE, length)];
+            byte[] output = new byte[input.length];
+            while (in.hasRemaining()) {
+                int n = Math.min(input.length, in.remaining());
+                in.get(input, 0, n);
+                for (int pos = 0; pos < n; pos += BLOCK_SIZE) {
+                    int len = Math.min(BLOCK_SIZE, n - pos);
+                    engine.processBlock(counter, 0, keyStream, 0);
+                    increment(counter);
+                    for (int i = 0; i < len; i++) {
+                        output[pos + i] = (byte) (input[pos + i] ^ keyStream[i]);
+                    }
+                    if (gcm) {
+                        /**
+                         * GHASH作用于密文，加密时取输出，解密时取输入
+                         */
+                        GCMUtil.xor(ghash, encrypt ? output : input, pos, len);
+                        multiplier.multiplyH(ghash);
+                    }
+                }
+                out.put(output, 0, n);
+            }
+            return ghash;
+        }
+
+        /**
+         * 合并相邻两段的GHASH：left*H^(右段分组数) xor right
+         */
+        private byte[] combine(byte[] left, byte[] right, long rightBlocks) {
+            byte[] result = pow(h, rightBlocks);
+            GCMUtil.multiply(result, left);
+            GCMUtil.xor(result, right);
+            return result;
+        }
+
+        /**
+         * 由全部密文的GHASH计算tag：E(K,J0) xor ((ghash xor len(A)||len(C))*H)
+         */
+        private byte[] tag(byte[] ghash) {
+            byte[] lengths = new byte[BLOCK_SIZE];
+            long bits = dataLength * 8;
+            for (int i = 0; i < 8; i++) {
+                lengths[15 - i] = (byte) (bits >>> (8 * i));
+            }
+            byte[] s = ghash.clone();
+            GCMUtil.xor(s, lengths);
+            GCMUtil.multiply(s, h);
+            byte[] j0 = new byte[BLOCK_SIZE];
+            System.arraycopy(iv, 0, j0, 0, iv.length);
+            j0[15] = 1;
+            byte[] tag = new byte[BLOCK_SIZE];
+            newEngine().processBlock(j0, 0, tag, 0);
+            GCMUtil.xor(tag, s);
+            return tag;
+        }
+    }
+
+    /**
+     * GF(2^128)上的x^n
+     */
+    private static byte[] pow(byte[] x, long n) {
+        byte[] result = GCMUtil.oneAsBytes();
+        byte[] base = x.clone();
+        while (n > 0) {
+            if ((n & 1) != 0) {
+                GCMUtil.multiply(result, base);
+            }
+            n >>>= 1;
+            if (n > 0) {
+                byte[] square = base.clone();
+                GCMUtil.multiply(square, base);
+                base = square;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 处理[from,to)范围内的段，返回该范围的GHASH(CTR模式为null)
+     */
+    private static final class ChunkTask extends RecursiveTask<byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final int from;
+        private final int to;
+
+        private ChunkTask(Job job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected byte[] compute() {
+            if (to - from == 1) {
+                try {
+                    return job.processChunk(from);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int mid = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(job, from, mid);
+            left.fork();
+            byte[] right = new ChunkTask(job, mid, to).compute();
+            byte[] leftHash = left.join();
+            if (!job.gcm) {
+                return null;
+            }
+            long rightStart = (long) mid * job.chunkSize;
+            long rightEnd = Math.min((long) to * job.chunkSize, job.dataLength);
+            return job.combine(leftHash, right, job.blocks(rightEnd - rightStart));
+        }
+    }
+}
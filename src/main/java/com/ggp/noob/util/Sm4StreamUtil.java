@@ -0,0 +1,259 @@
+package com.ggp.noob.util;
+
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.SM4Engine;
+import org.bouncycastle.crypto.modes.AEADBlockCipher;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/16 10:05
+ * @Description: sm4流式加解密，支持CBC(PKCS7填充)、CTR、GCM
+ * 每次调用只分配固定大小的缓冲区，内存占用与数据大小无关；通道读写使用直接缓冲区。
+ * 输出与JCE的SM4/CBC/PKCS5Padding、SM4/CTR/NoPadding、SM4/GCM/NoPadding(128位tag)一致。
+ * GCM解密时明文在校验tag之前就已写出，校验失败抛出InvalidCipherTextException，调用方必须丢弃已写出的内容
+ */
+public class Sm4StreamUtil {
+    /**
+     * 每次读取的数据大小
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int GCM_TAG_BITS = 128;
+    /**
+     * 输出缓冲区比输入多出的部分，容纳引擎内部缓存的不完整分组、填充和GCM tag
+     */
+    private static final int OUTPUT_SLACK = 64;
+
+    public enum Mode {
+        /**
+         * iv 16字节
+         */
+        CBC(16),
+        /**
+         * iv 16字节，作为初始计数器块
+         */
+        CTR(16),
+        /**
+         * iv 推荐12字节，密文末尾附加16字节tag
+         */
+        GCM(12);
+
+        public final int ivLength;
+
+        Mode(int ivLength) {
+            this.ivLength = ivLength;
+        }
+    }
+
+    /**
+     * 统一CBC/CTR与GCM的分组处理接口
+     */
+    private interface Engine {
+        int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff);
+
+        int doFinal(byte[] out, int outOff) throws InvalidCipherTextException;
+    }
+
+    private static Engine engine(Mode mode, boolean encrypt, byte[] key, byte[] iv) {
+        KeyParameter keyParameter = new KeyParameter(key);
+        switch (mode) {
+            case CBC:
+                return block(new PaddedBufferedBlockCipher(new CBCBlockCipher(new SM4Engine()), new PKCS7Padding()), encrypt, keyParameter, iv);
+            case CTR:
+                return block(new BufferedBlockCipher(new SICBlockCipher(new SM4Engine())), encrypt, keyParameter, iv);
+            case GCM:
+                final AEADBlockCipher gcm = new GCMBlockCipher(new SM4Engine());
+                gcm.init(encrypt, new AEADParameters(keyParameter, GCM_TAG_BITS, iv));
+                return new Engine() {
+                    @Override
+                    public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) {
+                        return gcm.processBytes(in, inOff, len, out, outOff);
+                    }
+
+                    @Override
+                    public int doFinal(byte[] out, int outOff) throws InvalidCipherTextException {
+                        return gcm.doFinal(out, outOff);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("不支持的模式:" + mode);
+        }
+    }
+
+    private static Engine block(final BufferedBlockCipher cipher, boolean encrypt, KeyParameter key, byte[] iv) {
+        cipher.init(encrypt, new ParametersWithIV(key, iv));
+        return new Engine() {
+            @Override
+            public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) {
+                return cipher.processBytes(in, inOff, len, out, outOff);
+            }
+
+            @Override
+            public int doFinal(byte[] out, int outOff) throws InvalidCipherTextException {
+                return cipher.doFinal(out, outOff);
+            }
+        };
+    }
+
+    /**
+     * 流式加密
+     *
+     * @param mode 模式
+     * @param key  16字节密钥
+     * @param iv   初始向量
+     * @param in   明文输入，不会被关闭
+     * @param out  密文输出，不会被关闭
+     * @return 写出的字节数
+     * @throws IOException
+     * @throws InvalidCipherTextException
+     */
+    public static long encrypt(Mode mode, byte[] key, byte[] iv, InputStream in, OutputStream out) throws IOException, InvalidCipherTextException {
+        return process(engine(mode, true, key, iv), in, out);
+    }
+
+    /**
+     * 流式解密
+     *
+     * @param mode 模式
+     * @param key  16字节密钥
+     * @param iv   初始向量
+     * @param in   密文输入，不会被关闭
+     * @param out  明文输出，不会被关闭
+     * @return 写出的字节数
+     * @throws IOException
+     * @throws InvalidCipherTextException 填充错误或GCM校验失败
+     */
+    public static long decrypt(Mode mode, byte[] key, byte[] iv, InputStream in, OutputStream out) throws IOException, InvalidCipherTextException {
+        return process(engine(mode, false, key, iv), in, out);
+    }
+
+    /**
+     * 通道加密，FileChannel、SocketChannel均可
+     *
+     * @return 写出的字节数
+     */
+    public static long encrypt(Mode mode, byte[] key, byte[] iv, ReadableByteChannel in, WritableByteChannel out) throws IOException, InvalidCipherTextException {
+        return process(engine(mode, true, key, iv), in, out);
+    }
+
+    /**
+     * 通道解密
+     *
+     * @return 写出的字节数
+     */
+    public static long decrypt(Mode mode, byte[] key, byte[] iv, ReadableByteChannel in, WritableByteChannel out) throws IOException, InvalidCipherTextException {
+        return process(engine(mode, false, key, iv), in, out);
+    }
+
+    /**
+     * 文件加密，输出文件已存在时覆盖
+     *
+     * @return 写出的字节数
+     */
+    public static long encrypt(Mode mode, byte[] key, byte[] iv, Path in, Path out) throws IOException, InvalidCipherTextException {
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return encrypt(mode, key, iv, src, dst);
+        }
+    }
+
+    /**
+     * 文件解密，输出文件已存在时覆盖
+     *
+     * @return 写出的字节数
+     */
+    public static long decrypt(Mode mode, byte[] key, byte[] iv, Path in, Path out) throws IOException, InvalidCipherTextException {
+        try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return decrypt(mode, key, iv, src, dst);
+        }
+    }
+
+    /**
+     * 处理src中剩余的全部数据写入dst，dst空间不足时抛出BufferOverflowException
+     *
+     * @param mode    模式
+     * @param encrypt true加密 false解密
+     * @param key     16字节密钥
+     * @param iv      初始向量
+     * @param src     输入
+     * @param dst     输出
+     * @return 写出的字节数
+     * @throws InvalidCipherTextException
+     */
+    public static int process(Mode mode, boolean encrypt, byte[] key, byte[] iv, ByteBuffer src, ByteBuffer dst) throws InvalidCipherTextException {
+        Engine engine = engine(mode, encrypt, key, iv);
+        byte[] input = new byte[Math.min(BUFFER_SIZE, Math.max(1, src.remaining()))];
+        byte[] output = new byte[input.length + OUTPUT_SLACK];
+        int total = 0;
+        while (src.hasRemaining()) {
+            int len = Math.min(input.length, src.remaining());
+            src.get(input, 0, len);
+            int n = engine.processBytes(input, 0, len, output, 0);
+            dst.put(output, 0, n);
+            total += n;
+        }
+        int n = engine.doFinal(output, 0);
+        dst.put(output, 0, n);
+        return total + n;
+    }
+
+    private static long process(Engine engine, InputStream in, OutputStream out) throws IOException, InvalidCipherTextException {
+        byte[] input = new byte[BUFFER_SIZE];
+        byte[] output = new byte[BUFFER_SIZE + OUTPUT_SLACK];
+        long total = 0;
+        int len;
+        while ((len = in.read(input)) != -1) {
+            int n = engine.processBytes(input, 0, len, output, 0);
+            out.write(output, 0, n);
+            total += n;
+        }
+        int n = engine.doFinal(output, 0);
+        out.write(output, 0, n);
+        return total + n;
+    }
+
+    private static long process(Engine engine, ReadableByteChannel in, WritableByteChannel out) throws IOException, InvalidCipherTextException {
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE + OUTPUT_SLACK);
+        byte[] input = new byte[BUFFER_SIZE];
+        byte[] output = new byte[writeBuffer.capacity()];
+        long total = 0;
+        while (in.read(readBuffer) != -1) {
+            readBuffer.flip();
+            int len = readBuffer.remaining();
+            readBuffer.get(input, 0, len);
+            readBuffer.clear();
+            total += write(out, writeBuffer, output, engine.processBytes(input, 0, len, output, 0));
+        }
+        return total + write(out, writeBuffer, output, engine.doFinal(output, 0));
+    }
+
+    private static int write(WritableByteChannel out, ByteBuffer buffer, byte[] data, int len) throws IOException {
+        buffer.clear();
+        buffer.put(data, 0, len);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        return len;
+    }
+}
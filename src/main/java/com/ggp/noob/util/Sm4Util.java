@@ -2,16 +2,14 @@ package com.ggp.noob.util;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.gm.GMObjectIdentifiers;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
-import java.security.Key;
 
 /**
  * @Author:ggp
  * @Date:2020-06-08 14:42
- * @Description:
+ * @Description: SM4 ECB加解密，调用方都是数字信封的一次性会话秘钥，走EngineCache.doFinalOnce：
+ * Cipher按线程复用，不再每次getInstance，密钥用完即被覆盖，不留在线程缓存中
  */
 public class Sm4Util {
     public static final ASN1ObjectIdentifier sm4 = GMObjectIdentifiers.sm_scheme.branch("104");
@@ -23,10 +21,7 @@ public class Sm4Util {
      * @return
      */
     public static byte[] sm4_encrypt_ecb_pkcs5_padding(byte[] key,byte[] data) throws Exception {
-        javax.crypto.Cipher cipher = Cipher.getInstance("SM4/ECB/PKCS5Padding", BouncyCastleProvider.PROVIDER_NAME);
-        Key keySpec = new SecretKeySpec(key,"SM4");
-        cipher.init(1,keySpec);
-        return cipher.doFinal(data);
+        return EngineCache.doFinalOnce("SM4/ECB/PKCS5Padding", Cipher.ENCRYPT_MODE, key, "SM4", data, 0, data.length);
     }
     /**
      * sm4_ecb加密，填充方式noPadding
@@ -35,10 +30,7 @@ public class Sm4Util {
      * @return
      */
     public static byte[] sm4_encrypt_ecb_no_padding(byte[] key,byte[] data) throws Exception {
-        javax.crypto.Cipher cipher = Cipher.getInstance("SM4/ECB/NoPadding", BouncyCastleProvider.PROVIDER_NAME);
-        Key keySpec = new SecretKeySpec(key,"SM4");
-        cipher.init(1,keySpec);
-        return cipher.doFinal(data);
+        return EngineCache.doFinalOnce("SM4/ECB/NoPadding", Cipher.ENCRYPT_MODE, key, "SM4", data, 0, data.length);
     }
     /**
      * sm4_ecb加密，填充方式Pkcs7
@@ -47,9 +39,28 @@ public class Sm4Util {
      * @return
      */
     public static byte[] sm4_encrypt_ecb_pkcs7_padding(byte[] key,byte[] data) throws Exception {
-        javax.crypto.Cipher cipher = Cipher.getInstance("SM4/ECB/PKCS7Padding", BouncyCastleProvider.PROVIDER_NAME);
-        Key keySpec = new SecretKeySpec(key,"SM4");
-        cipher.init(1,keySpec);
-        return cipher.doFinal(data);
+        return EngineCache.doFinalOnce("SM4/ECB/PKCS7Padding", Cipher.ENCRYPT_MODE, key, "SM4", data, 0, data.length);
+    }
+    /**
+     * sm4_ecb解密，填充方式pkcs5padding
+     * @param key      秘钥
+     * @param data     包含密文的数组
+     * @param offset   密文起始位置
+     * @param length   密文长度
+     * @return
+     */
+    public static byte[] sm4_decrypt_ecb_pkcs5_padding(byte[] key,byte[] data,int offset,int length) throws Exception {
+        return EngineCache.doFinalOnce("SM4/ECB/PKCS5Padding", Cipher.DECRYPT_MODE, key, "SM4", data, offset, length);
+    }
+    /**
+     * sm4_ecb解密，填充方式noPadding
+     * @param key      秘钥
+     * @param data     包含密文的数组
+     * @param offset   密文起始位置
+     * @param length   密文长度
+     * @return
+     */
+    public static byte[] sm4_decrypt_ecb_no_padding(byte[] key,byte[] data,int offset,int length) throws Exception {
+        return EngineCache.doFinalOnce("SM4/ECB/NoPadding", Cipher.DECRYPT_MODE, key, "SM4", data, offset, length);
     }
 }
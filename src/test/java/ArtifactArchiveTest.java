@@ -0,0 +1,73 @@
+import com.ggp.noob.ArtifactArchive;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/9 16:40
+ * @Description:
+ */
+public class ArtifactArchiveTest {
+    @Test
+    public void test_write_read() throws Exception {
+        File dir = Files.createTempDirectory("archive").toFile();
+        String path = dir + "/out.ecar";
+        byte[] large = new byte[5 * 1024 * 1024];
+        new Random(1).nextBytes(large);
+        try (ArtifactArchive archive = new ArtifactArchive(path)) {
+            for (int i = 0; i < 1000; i++) {
+                archive.write("p" + i + "/signCert.p7b", ("head-" + i + "\n").getBytes(StandardCharsets.UTF_8), ("body-" + i).getBytes(StandardCharsets.UTF_8));
+            }
+            archive.write("large/signedAndEnvelopedData", large);
+            archive.writeString("p0/signCert.p7b", "x");
+            Assert.assertEquals(1002, archive.getCount());
+        }
+        try (ArtifactArchive.Reader reader = ArtifactArchive.open(path)) {
+            Assert.assertFalse(reader.isRecovered());
+            Assert.assertEquals(1002, reader.size());
+            Assert.assertEquals("p1/signCert.p7b", reader.list().get(1));
+            Assert.assertEquals("head-1\nbody-1", new String(reader.read("p1/signCert.p7b"), StandardCharsets.UTF_8));
+            /** 同名条目取最后写入的 */
+            Assert.assertEquals("x", new String(reader.read("p0/signCert.p7b"), StandardCharsets.UTF_8));
+            Assert.assertArrayEquals(large, reader.read("large/signedAndEnvelopedData"));
+            Assert.assertNull(reader.read("none"));
+
+            Assert.assertEquals(1, reader.extract(dir + "/x", "p9/"));
+            Assert.assertEquals("head-9\nbody-9", new String(Files.readAllBytes(new File(dir + "/x/p9/signCert.p7b").toPath()), StandardCharsets.UTF_8));
+        }
+
+        /** 没有正常关闭(丢失索引和最后一条的一部分)时顺序扫描恢复完整的条目 */
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.seek(file.length() - 20);
+            file.setLength(file.readLong() - 1);
+        }
+        try (ArtifactArchive.Reader reader = ArtifactArchive.open(path)) {
+            Assert.assertTrue(reader.isRecovered());
+            Assert.assertEquals(1001, reader.size());
+            Assert.assertEquals("head-999\nbody-999", new String(reader.read(999), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void test_extract_outside() throws Exception {
+        File dir = Files.createTempDirectory("archive").toFile();
+        String path = dir + "/out.ecar";
+        try (ArtifactArchive archive = new ArtifactArchive(path)) {
+            archive.writeString("../evil", "x");
+        }
+        try (ArtifactArchive.Reader reader = ArtifactArchive.open(path)) {
+            reader.extract(dir + "/x", null);
+            Assert.fail();
+        } catch (IOException e) {
+            // 条目名不能指向目标目录之外
+        }
+        Assert.assertFalse(new File(dir, "evil").exists());
+    }
+}
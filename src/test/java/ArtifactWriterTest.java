@@ -0,0 +1,55 @@
+import com.ggp.noob.ArtifactWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/30 15:20
+ * @Description:
+ */
+public class ArtifactWriterTest {
+    @Test
+    public void test_batched_write() throws Exception {
+        final File dir = Files.createTempDirectory("artifact").toFile();
+        final ArtifactWriter writer = new ArtifactWriter(16, true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<CompletableFuture<Void>>> futures = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final int n = i;
+            futures.add(executor.submit(() -> writer.write(dir + "/" + (n % 10) + "/" + n + ".txt",
+                    ("head-" + n + "\n").getBytes(StandardCharsets.UTF_8), ("body-" + n).getBytes(StandardCharsets.UTF_8))));
+        }
+        for (Future<CompletableFuture<Void>> future : futures) {
+            ArtifactWriter.await(future.get());
+        }
+        executor.shutdown();
+        for (int i = 0; i < 2000; i++) {
+            File file = new File(dir + "/" + (i % 10) + "/" + i + ".txt");
+            Assert.assertEquals("head-" + i + "\nbody-" + i, new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(2000, writer.getFiles());
+        Assert.assertTrue(writer.toString(), writer.getBatches() < 2000);
+
+        /** 覆盖已有文件，失败的写入通过future通知 */
+        ArtifactWriter.await(writer.write(dir + "/0/0.txt", new byte[]{'x'}));
+        Assert.assertEquals("x", new String(Files.readAllBytes(new File(dir + "/0/0.txt").toPath()), StandardCharsets.UTF_8));
+        try {
+            ArtifactWriter.await(writer.write(dir + "/0", new byte[]{'x'}));
+            Assert.fail();
+        } catch (IOException e) {
+            // 目录不能作为文件写入
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,117 @@
+import com.ggp.noob.BatchIssuer;
+import com.ggp.noob.CaService;
+import com.ggp.noob.IssueResult;
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.Sm2Util;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/18 15:10
+ * @Description:
+ */
+public class BatchIssuerTest {
+    static {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * 结果按提交顺序返回；格式错误和签名被改的p10各自失败，不影响同批其他p10
+     */
+    @Test
+    public void test_order_and_per_item_error() throws Exception {
+        File dir = Files.createTempDirectory("batch").toFile();
+        List<BatchIssuer.Item> items = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            String p10;
+            if (i == 3) {
+                p10 = "not a p10";
+            } else if (i == 7) {
+                p10 = tamper(p10("CN=batch" + i + ",O=XDJA,C=CN"));
+            } else {
+                p10 = p10("CN=batch" + i + ",O=XDJA,C=CN");
+            }
+            items.add(new BatchIssuer.Item("p" + i, p10));
+        }
+        List<IssueResult> results;
+        try (CaService service = new CaService();
+             BatchIssuer issuer = new BatchIssuer(service, 2)) {
+            results = issuer.issue(items, "single", dir.getPath());
+        }
+        Assert.assertEquals(items.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            IssueResult result = results.get(i);
+            Assert.assertEquals(i, result.getIndex());
+            Assert.assertEquals("p" + i, result.getName());
+            if (i == 3 || i == 7) {
+                Assert.assertFalse(result.isSuccess());
+                Assert.assertNotNull(result.getError());
+                Assert.assertNull(result.getCerts());
+                Assert.assertFalse(new File(dir, "p" + i + "/user.cer").exists());
+            } else {
+                Assert.assertTrue(String.valueOf(result.getError()), result.isSuccess());
+                Assert.assertTrue(result.getCerts()[0].getSubjectX500Principal().getName().contains("CN=batch" + i));
+                Assert.assertTrue(new File(dir, "p" + i + "/user.cer").exists());
+            }
+        }
+    }
+
+    @Test
+    public void test_parse_p10s() throws Exception {
+        String a = p10("CN=a,O=XDJA,C=CN");
+        String b = p10("CN=b,O=XDJA,C=CN");
+        String c = p10("CN=c,O=XDJA,C=CN");
+        List<BatchIssuer.Item> items = BatchIssuer.parseP10s("# batch\r\n" + a + "\r\n\r\n" + b + c + "trailing");
+        Assert.assertEquals(3, items.size());
+        Assert.assertEquals("0", items.get(0).getName());
+        Assert.assertEquals("2", items.get(2).getName());
+        Assert.assertEquals(a.trim(), items.get(0).getP10());
+        Assert.assertEquals(b.trim(), items.get(1).getP10());
+        Assert.assertEquals(c.trim(), items.get(2).getP10());
+
+        /** 没有PEM头尾时整体按一个base64的p10处理，空白文本没有p10 */
+        String base64 = a.substring(CertUtil.P10_HEAD.length(), a.indexOf(CertUtil.P10_TAIL)).trim();
+        items = BatchIssuer.parseP10s(base64);
+        Assert.assertEquals(1, items.size());
+        Assert.assertEquals(base64, items.get(0).getP10());
+        Assert.assertTrue(BatchIssuer.parseP10s(" \n").isEmpty());
+
+        try {
+            BatchIssuer.parseP10s(a + CertUtil.P10_HEAD + "\nMIIB");
+            Assert.fail("missing tail must be rejected");
+        } catch (IllegalArgumentException e) {
+            /** 预期 */
+        }
+    }
+
+    private static String p10(String subject) throws Exception {
+        KeyPair keyPair = Sm2Util.createKeyPair();
+        byte[] der = new JcaPKCS10CertificationRequestBuilder(new X500Name(subject), keyPair.getPublic())
+                .build(CertUtil.createContentSigner("SM3WITHSM2", keyPair.getPrivate())).getEncoded();
+        return CertUtil.P10_HEAD + "\n" + Base64.toBase64String(der) + "\n" + CertUtil.P10_TAIL + "\n";
+    }
+
+    /**
+     * 改签名值的最后一个字节(DER的最后一个字节就是签名的一部分)，p10仍能解析但私钥持有证明验证不过
+     */
+    private static String tamper(String p10) {
+        String body = p10.substring(CertUtil.P10_HEAD.length(), p10.indexOf(CertUtil.P10_TAIL)).trim();
+        byte[] der = Base64.decode(body);
+        der[der.length - 1] ^= 1;
+        return CertUtil.P10_HEAD + "\n" + Base64.toBase64String(der) + "\n" + CertUtil.P10_TAIL + "\n";
+    }
+}
@@ -0,0 +1,78 @@
+import com.ggp.noob.BatchVerifier;
+import com.ggp.noob.asn1.SignAlgEnum;
+import com.ggp.noob.pki.key.KeyUtil;
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.P10Request;
+import com.ggp.noob.util.Sm2Util;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/15 14:00
+ * @Description:
+ */
+public class BatchVerifierTest {
+    private static final X500Name ISSUER = new X500Name("CN=root,O=XDJA,C=CN");
+
+    @Test
+    public void test_verify() throws Exception {
+        registerProvider();
+        KeyPair root = Sm2Util.createKeyPair();
+        KeyPair other = Sm2Util.createKeyPair();
+        KeyPair rsaRoot = KeyUtil.createRSAKeyPair(2048);
+        KeyPair user = Sm2Util.createKeyPair();
+        Date now = new Date();
+        Date notAfter = new Date(now.getTime() + 86400000L);
+        List<BatchVerifier.Item> items = new ArrayList<>();
+        BitSet expected = new BitSet();
+        /** 同一根公钥的证书超过阈值，走预处理的公钥 */
+        for (int i = 0; i < 150; i++) {
+            X509Certificate cert = CertUtil.generateCert(ISSUER, "CN=user" + i + ",O=XDJA,C=CN", BigInteger.valueOf(i + 1), now, notAfter, root, user.getPublic(), SignAlgEnum.SM3_WITH_SM2.value, null);
+            BatchVerifier.Item item = BatchVerifier.Item.of(cert, i % 10 == 3 ? other.getPublic() : root.getPublic());
+            if (i % 10 != 3) {
+                expected.set(items.size());
+            }
+            items.add(item);
+        }
+        for (int i = 0; i < 5; i++) {
+            X509Certificate cert = CertUtil.generateCert(ISSUER, "CN=rsa" + i + ",O=XDJA,C=CN", BigInteger.valueOf(i + 1), now, notAfter, rsaRoot, rsaRoot.getPublic(), SignAlgEnum.SHA256_WITH_RSA.value, null);
+            expected.set(items.size());
+            items.add(BatchVerifier.Item.of(cert, rsaRoot.getPublic()));
+        }
+        byte[] p10 = new JcaPKCS10CertificationRequestBuilder(new X500Name("CN=p10,O=XDJA,C=CN"), user.getPublic())
+                .build(CertUtil.createContentSigner(SignAlgEnum.SM3_WITH_SM2.value, user.getPrivate())).getEncoded();
+        expected.set(items.size());
+        items.add(BatchVerifier.Item.of(P10Request.parse(p10)));
+        /** 签名值被修改、格式错误 */
+        byte[] message = new byte[]{1, 2, 3};
+        byte[] signature = items.get(0).getSignature().clone();
+        signature[signature.length - 1] ^= 1;
+        items.add(new BatchVerifier.Item(items.get(0).getMessage(), signature, root.getPublic(), SignAlgEnum.SM3_WITH_SM2));
+        items.add(new BatchVerifier.Item(message, new byte[]{0x30, 0x00}, root.getPublic(), SignAlgEnum.SM3_WITH_SM2));
+        items.add(new BatchVerifier.Item(message, new byte[8], rsaRoot.getPublic(), SignAlgEnum.SHA256_WITH_RSA));
+
+        try (BatchVerifier verifier = new BatchVerifier(3)) {
+            Assert.assertEquals(expected, verifier.verify(items));
+            Assert.assertEquals(new BitSet(), verifier.verify(new ArrayList<>()));
+        }
+    }
+
+    private static void registerProvider() {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+}
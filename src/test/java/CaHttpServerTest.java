@@ -0,0 +1,157 @@
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.ggp.noob.CaHttpServer;
+import com.ggp.noob.CaService;
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.Sm2Util;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.bouncycastle.util.encoders.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/18 10:20
+ * @Description:
+ */
+public class CaHttpServerTest {
+    static {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    @Test
+    public void test_issue_batch_p12() throws Exception {
+        try (CaService service = new CaService();
+             CaHttpServer server = new CaHttpServer(service, 0)) {
+            server.start();
+            String url = "http://127.0.0.1:" + server.getPort();
+
+            Response issued = post(url + "/issue?type=single", p10("CN=http,O=XDJA,C=CN").getBytes(StandardCharsets.US_ASCII));
+            Assert.assertEquals(200, issued.code);
+            Assert.assertTrue(issued.json().getString("signCert").contains("CERTIFICATE"));
+
+            /** 批量结果与p10顺序一致，签名被改的一个单独报错 */
+            String tampered = p10("CN=tampered,O=XDJA,C=CN");
+            int end = tampered.indexOf("-----END");
+            char last = tampered.charAt(end - 3);
+            tampered = tampered.substring(0, end - 3) + (last == 'A' ? 'B' : 'A') + tampered.substring(end - 2);
+            String batch = p10("CN=b0,O=XDJA,C=CN") + tampered + p10("CN=b2,O=XDJA,C=CN");
+            Response batched = post(url + "/issueBatch?type=single", batch.getBytes(StandardCharsets.US_ASCII));
+            Assert.assertEquals(200, batched.code);
+            JSONArray results = batched.json().getJSONArray("results");
+            Assert.assertEquals(3, results.size());
+            Assert.assertTrue(cert(results.getJSONObject(0).getString("signCert")).getSubjectX500Principal().getName().contains("CN=b0"));
+            Assert.assertNotNull(results.getJSONObject(1).getString("error"));
+            Assert.assertTrue(cert(results.getJSONObject(2).getString("signCert")).getSubjectX500Principal().getName().contains("CN=b2"));
+
+            /** p12密码在请求体中，没有时拒绝 */
+            Assert.assertEquals(400, post(url + "/p12", new byte[0]).code);
+            Response p12 = post(url + "/p12", "s3cret".getBytes(StandardCharsets.UTF_8));
+            Assert.assertEquals(200, p12.code);
+            KeyStore store = KeyStore.getInstance("PKCS12", BouncyCastleProvider.PROVIDER_NAME);
+            store.load(new ByteArrayInputStream(p12.body), "s3cret".toCharArray());
+            Assert.assertTrue(store.aliases().hasMoreElements());
+        }
+    }
+
+    /**
+     * 一个处理线程、一个等待位置：两个只发了请求头的请求占满后，再来的请求直接得到503
+     */
+    @Test
+    public void test_overloaded() throws Exception {
+        try (CaService service = new CaService();
+             CaHttpServer server = new CaHttpServer(service, null, 0, 1, 1)) {
+            server.start();
+            Socket[] stalled = new Socket[2];
+            try {
+                for (int i = 0; i < stalled.length; i++) {
+                    stalled[i] = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                    OutputStream os = stalled[i].getOutputStream();
+                    os.write(("POST /issue HTTP/1.1\r\nHost: 127.0.0.1\r\nContent-Length: 100\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    os.flush();
+                }
+                Response busy = null;
+                for (int i = 0; i < 50; i++) {
+                    busy = post("http://127.0.0.1:" + server.getPort() + "/issue", new byte[0]);
+                    if (503 == busy.code) {
+                        break;
+                    }
+                    Thread.sleep(20);
+                }
+                Assert.assertEquals(503, busy.code);
+                Assert.assertEquals("server busy", busy.json().getString("error"));
+            } finally {
+                for (Socket socket : stalled) {
+                    if (null != socket) {
+                        socket.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private static String p10(String subject) throws Exception {
+        KeyPair keyPair = Sm2Util.createKeyPair();
+        byte[] der = new JcaPKCS10CertificationRequestBuilder(new X500Name(subject), keyPair.getPublic())
+                .build(CertUtil.createContentSigner("SM3WITHSM2", keyPair.getPrivate())).getEncoded();
+        return "-----BEGIN CERTIFICATE REQUEST-----\n" + Base64.toBase64String(der) + "\n-----END CERTIFICATE REQUEST-----\n";
+    }
+
+    private static X509Certificate cert(String pem) throws Exception {
+        return (X509Certificate) CertificateFactory.getInstance("X.509", BouncyCastleProvider.PROVIDER_NAME).generateCertificate(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static Response post(String url, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(30000);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        Response response = new Response();
+        response.code = connection.getResponseCode();
+        InputStream in = response.code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (null != in) {
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            in.close();
+        }
+        response.body = out.toByteArray();
+        return response;
+    }
+
+    private static class Response {
+        private int code;
+        private byte[] body;
+
+        private JSONObject json() {
+            return JSON.parseObject(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import com.ggp.noob.CertRepository;
+import com.ggp.noob.util.CertUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/23 15:20
+ * @Description:
+ */
+public class CertRepositoryTest {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private static X509Certificate cert(KeyPair keyPair, int i, long notAfter) throws Exception {
+        return CertUtil.generateCert("CN=root,O=XDJA,C=CN", "CN=user" + (i % 10) + ",O=XDJA,C=CN", BigInteger.valueOf(1000 + i).shiftLeft(64).add(BigInteger.valueOf(i)),
+                new Date(notAfter - DAY), new Date(notAfter), keyPair.getPrivate(), keyPair.getPublic(), "SHA256WITHRSA", null);
+    }
+
+    /**
+     * 写入实例持有目录锁，复制一份目录再打开，模拟进程退出后重启
+     */
+    private static File crashCopy(File dir) throws Exception {
+        File copy = Files.createTempDirectory("repo").toFile();
+        for (File file : dir.listFiles()) {
+            Files.copy(file.toPath(), new File(copy, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return copy;
+    }
+
+    @Test
+    public void test_lookup_and_recover() throws Exception {
+        File dir = Files.createTempDirectory("repo").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        long base = System.currentTimeMillis() / 1000 * 1000;
+        CertRepository repository = new CertRepository(dir.getPath(), 4096, 7, 2, false);
+        for (int i = 0; i < 100; i++) {
+            repository.add(cert(keyPair, i, base + i * DAY));
+        }
+        Assert.assertEquals(100, repository.size());
+        Assert.assertTrue(new File(dir, "certs-00000001.seg").exists());
+        repository.awaitCompaction();
+        /**
+         * 不调用close，模拟进程退出，内存表中未落盘的部分由段文件重放恢复
+         */
+        CertRepository reopened = new CertRepository(crashCopy(dir).getPath(), 4096, 7, 2, false);
+        Assert.assertEquals(100, reopened.size());
+        for (int i = 0; i < 100; i++) {
+            BigInteger serial = BigInteger.valueOf(1000 + i).shiftLeft(64).add(BigInteger.valueOf(i));
+            Assert.assertEquals(serial, reopened.findBySerial(serial).getSerialNumber());
+        }
+        Assert.assertNull(reopened.findBySerial(BigInteger.valueOf(1)));
+        List<X509Certificate> subjects = reopened.findBySubject("CN=user3,O=XDJA,C=CN");
+        Assert.assertEquals(10, subjects.size());
+        List<X509Certificate> expiring = reopened.findByNotAfter(new Date(base + 10 * DAY), new Date(base + 20 * DAY), 100);
+        Assert.assertEquals(10, expiring.size());
+        for (int i = 1; i < expiring.size(); i++) {
+            Assert.assertTrue(expiring.get(i - 1).getNotAfter().before(expiring.get(i).getNotAfter()));
+        }
+        Assert.assertEquals(3, reopened.findByNotAfter(new Date(base), new Date(base + 100 * DAY), 3).size());
+        reopened.close();
+        repository.close();
+    }
+
+    @Test
+    public void test_truncate_torn_record() throws Exception {
+        File dir = Files.createTempDirectory("repo").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        CertRepository repository = new CertRepository(dir.getPath(), 1 << 20, 1000, 8, false);
+        for (int i = 0; i < 3; i++) {
+            repository.add(cert(keyPair, i, System.currentTimeMillis() + DAY));
+        }
+        File copy = crashCopy(dir);
+        File segment = new File(copy, "certs-00000000.seg");
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+        CertRepository reopened = new CertRepository(copy.getPath(), 1 << 20, 1000, 8, false);
+        Assert.assertEquals(2, reopened.size());
+        reopened.add(cert(keyPair, 5, System.currentTimeMillis() + DAY));
+        Assert.assertNotNull(reopened.findBySerial(BigInteger.valueOf(1005).shiftLeft(64).add(BigInteger.valueOf(5))));
+        reopened.close();
+        repository.close();
+    }
+
+    @Test
+    public void test_read_only_does_not_truncate() throws Exception {
+        File dir = Files.createTempDirectory("repo").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        CertRepository repository = new CertRepository(dir.getPath(), 1 << 20, 1000, 8, false);
+        for (int i = 0; i < 3; i++) {
+            repository.add(cert(keyPair, i, System.currentTimeMillis() + DAY));
+        }
+        try {
+            new CertRepository(dir.getPath(), 1 << 20, 1000, 8, false);
+            Assert.fail("second writer must not open a locked repository");
+        } catch (IOException e) {
+            /** 预期 */
+        }
+        /**
+         * 模拟写入进程正在写的一条记录：只读打开看不到它，也不能把它截掉
+         */
+        File segment = new File(dir, "certs-00000000.seg");
+        long length = segment.length();
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(length + 10);
+        file.close();
+        CertRepository reader = CertRepository.openReadOnly(dir.getPath());
+        Assert.assertEquals(3, reader.size());
+        Assert.assertNotNull(reader.findBySerial(BigInteger.valueOf(1002).shiftLeft(64).add(BigInteger.valueOf(2))));
+        Assert.assertEquals(length + 10, segment.length());
+        try {
+            reader.add(cert(keyPair, 5, System.currentTimeMillis() + DAY));
+            Assert.fail("read-only repository must reject add");
+        } catch (IllegalStateException e) {
+            /** 预期 */
+        }
+        reader.close();
+        file = new RandomAccessFile(segment, "rw");
+        file.setLength(length);
+        file.close();
+        repository.close();
+    }
+
+    @Test
+    public void test_read_only_refresh() throws Exception {
+        File dir = Files.createTempDirectory("repo").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        long base = System.currentTimeMillis() / 1000 * 1000;
+        CertRepository repository = new CertRepository(dir.getPath(), 4096, 7, 2, false);
+        CertRepository reader = CertRepository.openReadOnly(dir.getPath());
+        Assert.assertEquals(0, reader.size());
+        for (int i = 0; i < 100; i++) {
+            repository.add(cert(keyPair, i, base + i * DAY));
+        }
+        repository.awaitCompaction();
+        /**
+         * 第一次跨段重放到最新，第二次内存表已超过阈值，按写入方的检查点重新打开索引
+         */
+        for (int round = 0; round < 2; round++) {
+            reader.refresh();
+            Assert.assertEquals(100, reader.size());
+            for (int i = 0; i < 100; i++) {
+                BigInteger serial = BigInteger.valueOf(1000 + i).shiftLeft(64).add(BigInteger.valueOf(i));
+                Assert.assertEquals(serial, reader.findBySerial(serial).getSerialNumber());
+            }
+            Assert.assertEquals(10, reader.findBySubject("CN=user3,O=XDJA,C=CN").size());
+        }
+        reader.close();
+        repository.close();
+    }
+
+    /**
+     * 每次落盘7张、每层2个run就合并：7张在第0层，14到27张第1层，28到55张第2层，56张以上第3层，
+     * 合并做完后每层最多剩1个run；合并在后台做，完成后查询和重启都不受影响
+     */
+    @Test
+    public void test_tiered_compaction() throws Exception {
+        File dir = Files.createTempDirectory("repo").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keyPair = generator.generateKeyPair();
+        long base = System.currentTimeMillis() / 1000 * 1000;
+        CertRepository repository = new CertRepository(dir.getPath(), 1 << 20, 7, 2, false);
+        for (int i = 0; i < 112; i++) {
+            repository.add(cert(keyPair, i, base + i * DAY));
+        }
+        repository.awaitCompaction();
+        for (String name : new String[]{"serial", "subject", "notAfter"}) {
+            File[] runs = runFiles(dir, name);
+            Assert.assertTrue(name + " runs:" + runs.length, runs.length <= 4);
+        }
+        long bytes = 0;
+        for (File run : runFiles(dir, "serial")) {
+            bytes += run.length();
+        }
+        /** 每个条目是20字节序列号加12字节位置，每个文件16字节头 */
+        Assert.assertEquals(112 * 32 + 16 * runFiles(dir, "serial").length, bytes);
+        for (int i = 0; i < 112; i++) {
+            BigInteger serial = BigInteger.valueOf(1000 + i).shiftLeft(64).add(BigInteger.valueOf(i));
+            Assert.assertEquals(serial, repository.findBySerial(serial).getSerialNumber());
+        }
+        CertRepository reopened = new CertRepository(crashCopy(dir).getPath(), 1 << 20, 7, 2, false);
+        Assert.assertEquals(112, reopened.size());
+        Assert.assertEquals(11, reopened.findBySubject("CN=user3,O=XDJA,C=CN").size());
+        Assert.assertEquals(112, reopened.findByNotAfter(new Date(base), new Date(base + 112 * DAY), 200).size());
+        reopened.close();
+        repository.close();
+    }
+
+    private static File[] runFiles(File dir, final String name) {
+        return dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String fileName) {
+                return fileName.startsWith(name + "-") && fileName.endsWith(".run");
+            }
+        });
+    }
+}
@@ -1,6 +1,25 @@
 import com.ggp.noob.CaService;
+import com.ggp.noob.IssuedCert;
+import com.ggp.noob.pki.key.KeyUtil;
+import com.ggp.noob.util.Asn1Util;
+import com.ggp.noob.util.CertChainEncoder;
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.P10Request;
+import com.ggp.noob.util.Sm2Util;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.pkcs.jcajce.JcaPKCS10CertificationRequestBuilder;
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * @Author:ggp
  * @Date:2020/8/28 17:13
@@ -9,9 +28,75 @@ import org.junit.Test;
 public class CertTest {
     @Test
     public void test_p12() throws Exception{
-        CaService service = new CaService();
-        //service.issueP12WithNoP10("/cert/");
-        service.issueCertWithNoP10("/cert");
+        try (CaService service = new CaService()) {
+            //service.issueP12WithNoP10("/cert/");
+            service.issueCertWithNoP10("/cert");
+        }
+    }
+    @Test
+    public void test_p10_pop() throws Exception{
+        try (CaService service = new CaService()) {
+            KeyPair keyPair = Sm2Util.createKeyPair();
+            byte[] p10 = new JcaPKCS10CertificationRequestBuilder(new X500Name("CN=pop,O=XDJA,C=CN"), keyPair.getPublic())
+                    .build(CertUtil.createContentSigner("SM3WITHSM2", keyPair.getPrivate())).getEncoded();
+            Assert.assertTrue(P10Request.parse(p10).verify());
+            IssuedCert issued = service.issue(P10Request.parse(p10), "single");
+            Assert.assertEquals(keyPair.getPublic(), issued.getSignCert().getPublicKey());
+            /** 签名值被修改 */
+            p10[p10.length - 1] ^= 1;
+            Assert.assertFalse(P10Request.parse(p10).verify());
+            long rejected = service.getRejectedP10Count();
+            try {
+                service.issue(P10Request.parse(p10), "single");
+                Assert.fail();
+            } catch (SignatureException e) {
+                Assert.assertEquals(rejected + 1, service.getRejectedP10Count());
+            }
+        }
+    }
+    @Test
+    public void test_double() throws Exception{
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (CaService service = new CaService(executor)) {
+            /** 数字信封的算法跟随根密钥 */
+            boolean sm2 = service.issuerContext().isSm2();
+            KeyPair keyPair = sm2 ? Sm2Util.createKeyPair() : KeyUtil.createRSAKeyPair(2048);
+            byte[] p10 = new JcaPKCS10CertificationRequestBuilder(new X500Name("CN=double,O=XDJA,C=CN"), keyPair.getPublic())
+                    .build(CertUtil.createContentSigner(sm2 ? "SM3WITHSM2" : "SHA256WITHRSA", keyPair.getPrivate())).getEncoded();
+            IssuedCert issued = service.issue(P10Request.parse(p10), "double");
+            Assert.assertTrue(issued.isDouble());
+            Assert.assertEquals(keyPair.getPublic(), issued.getSignCert().getPublicKey());
+            Assert.assertNotEquals(issued.getSignCert().getSerialNumber(), issued.getEncCert().getSerialNumber());
+            issued.getEncCert().verify(issued.getRootCert().getPublicKey());
+            Assert.assertTrue(issued.getSignCertChain().contains("PKCS7"));
+            Assert.assertTrue(issued.getEncCertChain().contains("PKCS7"));
+            KeyPair opened = Asn1Util.openSignedAndEnvelopedData(issued.getEnvelope(), keyPair.getPrivate());
+            Assert.assertEquals(issued.getEncCert().getPublicKey(), opened.getPublic());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    /**
+     * 拼接生成的p7b和CMSSignedDataGenerator生成的逐字节相同，用户证书编码比根证书短或长时排序不同
+     */
+    @Test
+    public void test_chain() throws Exception{
+        chain(Sm2Util.createKeyPair(), "SM3WITHSM2");
+        chain(KeyUtil.createRSAKeyPair(2048), "SHA256WITHRSA");
+    }
+    private void chain(KeyPair root, String signAlg) throws Exception{
+        String issuer = "CN=root,O=XDJA,C=CN";
+        Date notBefore = new Date();
+        Date notAfter = new Date(notBefore.getTime() + 24 * 60 * 60 * 1000L);
+        X509Certificate rootCert = CertUtil.generateCert(issuer, issuer, BigInteger.ONE, notBefore, notAfter, root.getPrivate(), root.getPublic(), signAlg, null);
+        CertChainEncoder encoder = new CertChainEncoder(rootCert);
+        StringBuilder cn = new StringBuilder("u");
+        for (int i = 0; i < 40; i++) {
+            cn.append(i);
+            X509Certificate cert = CertUtil.generateCert(issuer, "CN=" + cn + ",O=XDJA,C=CN", BigInteger.valueOf(i + 2), notBefore, notAfter, root.getPrivate(), root.getPublic(), signAlg, null);
+            Assert.assertEquals(CertUtil.createCertChainByCerts(Arrays.asList(rootCert, cert)), encoder.encodePem(cert));
+            Assert.assertArrayEquals(encoder.encode(cert), CertChainEncoder.encode(Arrays.asList(cert, rootCert)));
+        }
     }
     @Test
     public void test_inverse_mode(){
@@ -0,0 +1,220 @@
+import com.ggp.noob.CrlGenerator;
+import com.ggp.noob.IssuerContext;
+import com.ggp.noob.RevocationFilter;
+import com.ggp.noob.RevocationRegistry;
+import com.ggp.noob.RevokedSet;
+import com.ggp.noob.util.CertUtil;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/25 16:40
+ * @Description:
+ */
+public class CrlTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void test_revoked_set() {
+        RevokedSet set = new RevokedSet();
+        SecureRandom random = new SecureRandom();
+        List<BigInteger> serials = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            BigInteger serial = new BigInteger(128, random);
+            serials.add(serial);
+            Assert.assertTrue(set.add(serial, i, i % 3));
+        }
+        Assert.assertFalse(set.add(serials.get(7), 0, 0));
+        set.rebase();
+        BigInteger late = new BigInteger(64, random);
+        Assert.assertTrue(set.add(late, 1, 1));
+        Assert.assertFalse(set.add(serials.get(9), 0, 0));
+        Assert.assertEquals(501, set.size());
+        Assert.assertEquals(1, set.delta().size());
+        Assert.assertEquals(late, set.delta().serial(0));
+        for (int i = 0; i < 500; i++) {
+            Assert.assertEquals(i % 3, set.get(serials.get(i)).getReason());
+        }
+        Assert.assertNull(set.get(BigInteger.ONE));
+        RevokedSet.Snapshot base = set.base();
+        for (int i = 1; i < base.size(); i++) {
+            Assert.assertTrue(base.serial(i - 1).compareTo(base.serial(i)) < 0);
+        }
+    }
+
+    @Test
+    public void test_full_and_delta_crl() throws Exception {
+        File dir = Files.createTempDirectory("crl").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(new ECGenParameterSpec("sm2p256v1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        X509Certificate root = CertUtil.generateCert("CN=root,O=XDJA,C=CN", "CN=root,O=XDJA,C=CN", BigInteger.ONE, new Date(),
+                new Date(System.currentTimeMillis() + 100000000L), keyPair.getPrivate(), keyPair.getPublic(), "SM3WITHSM2", null);
+        CertUtil.writeObjectToFile(keyPair, dir + "/root.private");
+        CertUtil.writeObjectToFile(root, dir + "/root.cer");
+        IssuerContext context = IssuerContext.load(dir + "/root.private", dir + "/root.cer");
+
+        RevocationRegistry registry = new RevocationRegistry(dir.getPath());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(registry.revoke(BigInteger.valueOf(i * 7919L).shiftLeft(64).add(BigInteger.valueOf(i)), now, i % 2));
+        }
+        RevocationRegistry.Cut full = registry.full();
+        X509CRL crl = parse(CrlGenerator.generate(context, full.getEntries(), full.getCrlNumber(), 0, new Date(now), new Date(now + 3600000L)));
+        crl.verify(keyPair.getPublic(), BouncyCastleProvider.PROVIDER_NAME);
+        Assert.assertEquals(1000, crl.getRevokedCertificates().size());
+        X509CRLEntry entry = crl.getRevokedCertificate(BigInteger.valueOf(3 * 7919L).shiftLeft(64).add(BigInteger.valueOf(3)));
+        Assert.assertNotNull(entry);
+        Assert.assertEquals(now / 1000, entry.getRevocationDate().getTime() / 1000);
+        Assert.assertNotNull(entry.getExtensionValue(Extension.reasonCode.getId()));
+        Assert.assertNull(crl.getRevokedCertificate(BigInteger.valueOf(2 * 7919L).shiftLeft(64).add(BigInteger.valueOf(2))).getExtensionValue(Extension.reasonCode.getId()));
+        Assert.assertNull(crl.getExtensionValue(Extension.deltaCRLIndicator.getId()));
+
+        for (int i = 0; i < 5; i++) {
+            registry.revoke(BigInteger.valueOf(100000 + i), now, 4);
+        }
+        registry.close();
+        RevocationRegistry reopened = new RevocationRegistry(dir.getPath());
+        Assert.assertEquals(1005, reopened.getRevoked().size());
+        RevocationRegistry.Cut delta = reopened.delta();
+        X509CRL deltaCrl = parse(CrlGenerator.generate(context, delta.getEntries(), delta.getCrlNumber(), delta.getBaseCrlNumber(), new Date(now), new Date(now + 3600000L)));
+        deltaCrl.verify(keyPair.getPublic(), BouncyCastleProvider.PROVIDER_NAME);
+        Assert.assertEquals(5, deltaCrl.getRevokedCertificates().size());
+        Assert.assertEquals(full.getCrlNumber(), extensionInteger(deltaCrl, Extension.deltaCRLIndicator));
+        Assert.assertEquals(full.getCrlNumber() + 1, extensionInteger(deltaCrl, Extension.cRLNumber));
+        Assert.assertTrue(deltaCrl.getCriticalExtensionOIDs().contains(Extension.deltaCRLIndicator.getId()));
+        reopened.close();
+    }
+
+    @Test
+    public void test_filter() {
+        RevokedSet set = new RevokedSet();
+        SecureRandom random = new SecureRandom();
+        List<BigInteger> serials = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            BigInteger serial = new BigInteger(i % 2 == 0 ? 64 : 128, random);
+            serials.add(serial);
+            set.add(serial, i, 0);
+            if (i == 50000) {
+                set.rebase();
+            }
+        }
+        for (BigInteger serial : serials) {
+            Assert.assertTrue(set.contains(serial));
+        }
+        RevocationFilter filter = set.getFilter();
+        Assert.assertEquals(0, filter.getFalsePositives());
+        for (int i = 0; i < 1000000; i++) {
+            set.contains(new BigInteger(128, random));
+        }
+        Assert.assertTrue(filter.toString(), filter.getFalsePositiveRate() < 1e-4);
+        Assert.assertTrue(filter.toString(), filter.getFalsePositives() <= Math.max(10, 1000000 * filter.getFalsePositiveRate() * 10));
+    }
+
+    @Test
+    public void test_refresh() throws Exception {
+        File dir = Files.createTempDirectory("crl").toFile();
+        RevocationRegistry writer = new RevocationRegistry(dir.getPath());
+        RevocationRegistry reader = new RevocationRegistry(dir.getPath());
+        writer.revoke(BigInteger.valueOf(11), 1, 1);
+        writer.revoke(BigInteger.valueOf(12), 1, 1);
+        Assert.assertNull(reader.get(BigInteger.valueOf(11)));
+        reader.refresh();
+        Assert.assertEquals(2, reader.getRevoked().size());
+
+        /** 完整CRL之后换用新日志，读取方重新加载基准 */
+        writer.full();
+        writer.revoke(BigInteger.valueOf(13), 1, 1);
+        reader.refresh();
+        Assert.assertEquals(3, reader.getRevoked().size());
+        Assert.assertEquals(2, reader.getRevoked().base().size());
+        Assert.assertNotNull(reader.get(BigInteger.valueOf(13)));
+        writer.close();
+        reader.close();
+    }
+
+    /**
+     * 两个实例代表两个-revoke/-crl进程：吊销不会互相覆盖，另一方生成完整CRL后也不会写进被删除的旧日志
+     */
+    @Test
+    public void test_concurrent_writers() throws Exception {
+        File dir = Files.createTempDirectory("crl").toFile();
+        final RevocationRegistry first = new RevocationRegistry(dir.getPath());
+        final RevocationRegistry second = new RevocationRegistry(dir.getPath());
+        first.revoke(BigInteger.valueOf(1), 1, 1);
+        second.revoke(BigInteger.valueOf(2), 1, 1);
+        Assert.assertEquals(1, second.full().getCrlNumber());
+        first.revoke(BigInteger.valueOf(3), 1, 1);
+        RevocationRegistry.Cut full = first.full();
+        Assert.assertEquals(2, full.getCrlNumber());
+        Assert.assertEquals(3, full.getEntries().size());
+
+        List<Thread> threads = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final RevocationRegistry registry = t % 2 == 0 ? first : second;
+            final int base = 1000 * (t + 1);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        registry.revoke(BigInteger.valueOf(base + i), 1, 1);
+                        if (i % 20 == 0) {
+                            registry.full();
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        first.close();
+        second.close();
+        RevocationRegistry reopened = new RevocationRegistry(dir.getPath());
+        Assert.assertEquals(203, reopened.getRevoked().size());
+        Assert.assertEquals(15, reopened.full().getCrlNumber());
+        reopened.close();
+    }
+
+    private static X509CRL parse(byte[] der) throws Exception {
+        return (X509CRL) CertificateFactory.getInstance("X.509", BouncyCastleProvider.PROVIDER_NAME).generateCRL(new ByteArrayInputStream(der));
+    }
+
+    private static long extensionInteger(X509CRL crl, ASN1ObjectIdentifier oid) {
+        byte[] value = ASN1OctetString.getInstance(crl.getExtensionValue(oid.getId())).getOctets();
+        return ASN1Integer.getInstance(value).getValue().longValue();
+    }
+}
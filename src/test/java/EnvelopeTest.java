@@ -0,0 +1,175 @@
+import com.ggp.noob.BatchEnveloper;
+import com.ggp.noob.EnvelopeResult;
+import com.ggp.noob.asn1.AlgTypeEnum;
+import com.ggp.noob.asn1.SignAlgEnum;
+import com.ggp.noob.asn1.SignedAndEnvelopedData;
+import com.ggp.noob.pki.key.KeyUtil;
+import com.ggp.noob.util.Asn1Util;
+import com.ggp.noob.util.SignatureUtil;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.cms.SignerInfo;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPrivateKey;
+import org.bouncycastle.jcajce.provider.asymmetric.ec.BCECPublicKey;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECPrivateKeySpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.ref.WeakReference;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/10 14:20
+ * @Description:
+ */
+public class EnvelopeTest {
+    private static final String ISSUER = "CN=root,O=XDJA,C=CN";
+
+    @Test
+    public void test_encode() throws Exception {
+        registerProvider();
+        KeyPair sign = KeyUtil.createSm2KeyPair();
+        for (int i = 0; i < 200; i++) {
+            check(AlgTypeEnum.SM2.alg, sign, KeyUtil.createSm2KeyPair(), SignAlgEnum.SM3_WITH_SM2);
+        }
+        check(AlgTypeEnum.RSA.alg, KeyUtil.createRSAKeyPair(2048), KeyUtil.createRSAKeyPair(2048), SignAlgEnum.SHA1_WITH_RSA);
+    }
+
+    @Test
+    public void test_batch() throws Exception {
+        registerProvider();
+        KeyPair sign = KeyUtil.createSm2KeyPair();
+        List<KeyPair> keys = new ArrayList<>();
+        List<BatchEnveloper.Item> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(KeyUtil.createSm2KeyPair());
+            items.add(new BatchEnveloper.Item("k" + i, AlgTypeEnum.SM2.alg, sign.getPublic(), keys.get(i).getPrivate()));
+        }
+        /** 算法不支持的单个失败不影响其他 */
+        items.add(new BatchEnveloper.Item("bad", 0, sign.getPublic(), keys.get(0).getPrivate()));
+        final List<EnvelopeResult> results = new ArrayList<>();
+        BatchEnveloper.Report report;
+        try (BatchEnveloper enveloper = new BatchEnveloper(3)) {
+            report = enveloper.envelop(items, ISSUER, "1", results::add);
+        }
+        Assert.assertEquals(101, report.getCount());
+        Assert.assertEquals(1, report.getFailed());
+        Assert.assertTrue(report.getThroughput() > 0);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, results.get(i).getIndex());
+            Assert.assertEquals("k" + i, results.get(i).getName());
+            verify(results.get(i).getEnvelope(), keys.get(i), SignAlgEnum.SM3_WITH_SM2);
+        }
+        Assert.assertFalse(results.get(100).isSuccess());
+    }
+
+    @Test
+    public void test_open() throws Exception {
+        registerProvider();
+        KeyPair sign = KeyUtil.createSm2KeyPair();
+        for (int i = 0; i < 20; i++) {
+            open(AlgTypeEnum.SM2.alg, sign, KeyUtil.createSm2KeyPair());
+        }
+        /** 私钥不足32字节时按大端右对齐 */
+        ECNamedCurveParameterSpec spec = ECNamedCurveTable.getParameterSpec("sm2p256v1");
+        BigInteger d = new BigInteger(200, new SecureRandom());
+        KeyPair small = new KeyPair(new BCECPublicKey("EC", new ECPublicKeySpec(spec.getG().multiply(d).normalize(), spec), BouncyCastleProvider.CONFIGURATION),
+                new BCECPrivateKey("EC", new ECPrivateKeySpec(d, spec), BouncyCastleProvider.CONFIGURATION));
+        open(AlgTypeEnum.SM2.alg, sign, small);
+        open(AlgTypeEnum.RSA.alg, KeyUtil.createRSAKeyPair(2048), KeyUtil.createRSAKeyPair(2048));
+
+        byte[] envelope = Asn1Util.encodeSignedAndEnvelopedData(AlgTypeEnum.SM2.alg, sign.getPublic(), small.getPrivate(), ISSUER, "1");
+        envelope[envelope.length - 1] ^= 1;
+        try {
+            Asn1Util.openSignedAndEnvelopedData(envelope, sign.getPrivate());
+            Assert.fail();
+        } catch (SignatureException e) {
+            // 签名值被修改
+        }
+        envelope[envelope.length - 1] ^= 1;
+        try {
+            Asn1Util.openSignedAndEnvelopedData(envelope, KeyUtil.createSm2KeyPair().getPrivate());
+            Assert.fail();
+        } catch (InvalidCipherTextException e) {
+            // 不是接收者的私钥
+        }
+    }
+
+    private void open(int alg, KeyPair sign, KeyPair enc) throws Exception {
+        byte[] envelope = Asn1Util.encodeSignedAndEnvelopedData(alg, sign.getPublic(), enc.getPrivate(), ISSUER, "1");
+        KeyPair opened = Asn1Util.openSignedAndEnvelopedData(envelope, sign.getPrivate());
+        Assert.assertArrayEquals(enc.getPublic().getEncoded(), opened.getPublic().getEncoded());
+        if (enc.getPrivate() instanceof ECPrivateKey) {
+            Assert.assertEquals(((ECPrivateKey) enc.getPrivate()).getS(), ((ECPrivateKey) opened.getPrivate()).getS());
+        } else {
+            Assert.assertEquals(((RSAPrivateKey) enc.getPrivate()).getPrivateExponent(), ((RSAPrivateKey) opened.getPrivate()).getPrivateExponent());
+        }
+    }
+
+    /**
+     * 被托管的加密私钥签名后不能被线程缓存留住：封装完丢掉引用，私钥对象应当能被回收
+     */
+    @Test
+    public void test_enc_private_not_retained() throws Exception {
+        registerProvider();
+        KeyPair sign = KeyUtil.createSm2KeyPair();
+        Assert.assertTrue(collectable(seal(AlgTypeEnum.SM2.alg, sign, KeyUtil.createSm2KeyPair(), SignAlgEnum.SM3_WITH_SM2)));
+        sign = KeyUtil.createRSAKeyPair(2048);
+        Assert.assertTrue(collectable(seal(AlgTypeEnum.RSA.alg, sign, KeyUtil.createRSAKeyPair(2048), SignAlgEnum.SHA1_WITH_RSA)));
+    }
+
+    private WeakReference<PrivateKey> seal(int alg, KeyPair sign, KeyPair enc, SignAlgEnum signAlg) throws Exception {
+        check(alg, sign, enc, signAlg);
+        return new WeakReference<>(enc.getPrivate());
+    }
+
+    private static boolean collectable(WeakReference<PrivateKey> reference) throws InterruptedException {
+        for (int i = 0; i < 50 && null != reference.get(); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return null == reference.get();
+    }
+
+    private void check(int alg, KeyPair sign, KeyPair enc, SignAlgEnum signAlg) throws Exception {
+        verify(Asn1Util.encodeSignedAndEnvelopedData(alg, sign.getPublic(), enc.getPrivate(), ISSUER, "1"), enc, signAlg);
+    }
+
+    /**
+     * 直接编码的结果和按对象模型重新编码的一致，签名覆盖签名者信息之前的各部分
+     */
+    private void verify(byte[] encoded, KeyPair enc, SignAlgEnum signAlg) throws Exception {
+        SignedAndEnvelopedData data = SignedAndEnvelopedData.getInstance(ASN1Primitive.fromByteArray(encoded));
+        Assert.assertArrayEquals(encoded, data.getEncoded(ASN1Encoding.DER));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(data.getVersion().getEncoded());
+        os.write(data.getRecipientInfos().getEncoded());
+        os.write(data.getDigestAlgorithms().getEncoded());
+        os.write(data.getEncryptedContentInfo().getEncoded());
+        SignerInfo signerInfo = SignerInfo.getInstance(data.getSignerInfos().getObjectAt(0));
+        Assert.assertTrue(SignatureUtil.verify(os.toByteArray(), signerInfo.getEncryptedDigest().getOctets(), enc.getPublic(), signAlg));
+    }
+
+    private static void registerProvider() {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import com.ggp.noob.KeyPairPool;
+import com.ggp.noob.asn1.AlgTypeEnum;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.KeyPair;
+import java.security.Security;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/18 15:40
+ * @Description:
+ */
+public class KeyPairPoolTest {
+    static {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    /**
+     * 低水位1、高水位3：第一次取池是空的，现场生成并触发补充到3；
+     * 取到剩2个不补充，取到剩1个(低水位)再补充到3
+     */
+    @Test
+    public void test_watermarks() throws Exception {
+        try (KeyPairPool pool = new KeyPairPool(AlgTypeEnum.SM2, 1, 3, 1)) {
+            Assert.assertEquals(0, pool.size());
+            Assert.assertNotNull(pool.take());
+            Assert.assertEquals(0, pool.getHits());
+            Assert.assertEquals(1, pool.getMisses());
+            awaitSize(pool, 3);
+
+            Assert.assertNotNull(pool.take());
+            Thread.sleep(200);
+            Assert.assertEquals(2, pool.size());
+
+            Assert.assertNotNull(pool.take());
+            awaitSize(pool, 3);
+            Assert.assertEquals(2, pool.getHits());
+            Assert.assertEquals(1, pool.getMisses());
+        }
+    }
+
+    /**
+     * 高水位为0时不预生成，每次都在调用线程上现场生成；关闭后清空池子，取仍然可用
+     */
+    @Test
+    public void test_inline_on_miss() throws Exception {
+        try (KeyPairPool pool = new KeyPairPool(AlgTypeEnum.SM2, 0, 0, 1)) {
+            KeyPair first = pool.take();
+            KeyPair second = pool.take();
+            Assert.assertNotNull(first);
+            Assert.assertNotEquals(first.getPublic(), second.getPublic());
+            Thread.sleep(100);
+            Assert.assertEquals(0, pool.size());
+            Assert.assertEquals(0, pool.getHits());
+            Assert.assertEquals(2, pool.getMisses());
+        }
+        KeyPairPool pool = new KeyPairPool(AlgTypeEnum.SM2, 1, 2, 1);
+        pool.refill();
+        awaitSize(pool, 2);
+        pool.close();
+        Assert.assertEquals(0, pool.size());
+        Assert.assertNotNull(pool.take());
+        Assert.assertEquals(1, pool.getMisses());
+        Assert.assertEquals(0, pool.size());
+    }
+
+    private static void awaitSize(KeyPairPool pool, int size) throws InterruptedException {
+        for (int i = 0; i < 250 && pool.size() < size; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(size, pool.size());
+    }
+}
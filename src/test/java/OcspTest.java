@@ -0,0 +1,182 @@
+import com.ggp.noob.CertRepository;
+import com.ggp.noob.IssuerContext;
+import com.ggp.noob.OcspResponder;
+import com.ggp.noob.OcspServer;
+import com.ggp.noob.RevocationRegistry;
+import com.ggp.noob.util.CertUtil;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.cert.ocsp.UnknownStatus;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Callable;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/28 16:10
+ * @Description:
+ */
+public class OcspTest {
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void test_good_revoked_unknown() throws Exception {
+        File dir = Files.createTempDirectory("ocsp").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(new ECGenParameterSpec("sm2p256v1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        X509Certificate root = CertUtil.generateCert("CN=root,O=XDJA,C=CN", "CN=root,O=XDJA,C=CN", BigInteger.ONE, new Date(),
+                new Date(System.currentTimeMillis() + 100000000L), keyPair.getPrivate(), keyPair.getPublic(), "SM3WITHSM2", null);
+        X509Certificate user = CertUtil.generateCert("CN=root,O=XDJA,C=CN", "CN=user,O=XDJA,C=CN", BigInteger.valueOf(0x1234567L), new Date(),
+                new Date(System.currentTimeMillis() + 100000000L), keyPair.getPrivate(), generator.generateKeyPair().getPublic(), "SM3WITHSM2", null);
+        CertUtil.writeObjectToFile(keyPair, dir + "/root.private");
+        CertUtil.writeObjectToFile(root, dir + "/root.cer");
+        final IssuerContext context = IssuerContext.load(dir + "/root.private", dir + "/root.cer");
+
+        CertRepository repository = new CertRepository(dir + "/repo", 1 << 20, 1000, 4, false);
+        repository.add(user);
+        RevocationRegistry registry = new RevocationRegistry(dir + "/crl");
+        OcspResponder responder = new OcspResponder(new Callable<IssuerContext>() {
+            @Override
+            public IssuerContext call() {
+                return context;
+            }
+        }, repository, registry, 60000L, 1000);
+        OcspServer server = new OcspServer(responder, "127.0.0.1", 0);
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getPort() + "/";
+            X509CertificateHolder holder = new X509CertificateHolder(root.getEncoded());
+            byte[] request = request(holder, user.getSerialNumber());
+
+            byte[] first = post(url, request);
+            SingleResp good = single(first, keyPair);
+            Assert.assertNull(good.getCertStatus());
+            long signs = responder.getSigns();
+            byte[] second = post(url, request);
+            Assert.assertArrayEquals(first, second);
+            Assert.assertEquals(signs, responder.getSigns());
+            Assert.assertEquals(1, responder.getHits());
+
+            /** 吊销后缓存的good响应不再返回 */
+            registry.revoke(user.getSerialNumber(), System.currentTimeMillis(), 1);
+            byte[] third = post(url, request);
+            Assert.assertFalse(Arrays.equals(first, third));
+            Assert.assertTrue(single(third, keyPair).getCertStatus() instanceof RevokedStatus);
+
+            SingleResp unknown = single(post(url, request(holder, BigInteger.valueOf(0x7654321L))), keyPair);
+            Assert.assertTrue(unknown.getCertStatus() instanceof UnknownStatus);
+        } finally {
+            server.close();
+            responder.close();
+            registry.close();
+            repository.close();
+        }
+    }
+
+    @Test
+    public void test_issued_after_start() throws Exception {
+        File dir = Files.createTempDirectory("ocsp").toFile();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+        generator.initialize(new ECGenParameterSpec("sm2p256v1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        X509Certificate root = CertUtil.generateCert("CN=root,O=XDJA,C=CN", "CN=root,O=XDJA,C=CN", BigInteger.ONE, new Date(),
+                new Date(System.currentTimeMillis() + 100000000L), keyPair.getPrivate(), keyPair.getPublic(), "SM3WITHSM2", null);
+        CertUtil.writeObjectToFile(keyPair, dir + "/root.private");
+        CertUtil.writeObjectToFile(root, dir + "/root.cer");
+        final IssuerContext context = IssuerContext.load(dir + "/root.private", dir + "/root.cer");
+
+        /** 签发方持有写入实例，应答方和单独的OCSP进程一样只读打开 */
+        CertRepository writer = new CertRepository(dir + "/repo", 1 << 20, 1000, 4, false);
+        CertRepository reader = CertRepository.openReadOnly(dir + "/repo");
+        RevocationRegistry registry = new RevocationRegistry(dir + "/crl");
+        OcspResponder responder = new OcspResponder(new Callable<IssuerContext>() {
+            @Override
+            public IssuerContext call() {
+                return context;
+            }
+        }, reader, registry, 60000L, 1000);
+        OcspServer server = new OcspServer(responder, "127.0.0.1", 0);
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getPort() + "/";
+            byte[] request = request(new X509CertificateHolder(root.getEncoded()), BigInteger.valueOf(0x1234567L));
+            Assert.assertTrue(single(post(url, request), keyPair).getCertStatus() instanceof UnknownStatus);
+
+            writer.add(CertUtil.generateCert("CN=root,O=XDJA,C=CN", "CN=user,O=XDJA,C=CN", BigInteger.valueOf(0x1234567L), new Date(),
+                    new Date(System.currentTimeMillis() + 100000000L), keyPair.getPrivate(), generator.generateKeyPair().getPublic(), "SM3WITHSM2", null));
+            /** 应答方每秒跟进一次证书库 */
+            SingleResp resp = single(post(url, request), keyPair);
+            for (int i = 0; i < 50 && resp.getCertStatus() instanceof UnknownStatus; i++) {
+                Thread.sleep(100);
+                resp = single(post(url, request), keyPair);
+            }
+            Assert.assertNull(resp.getCertStatus());
+        } finally {
+            server.close();
+            responder.close();
+            registry.close();
+            reader.close();
+            writer.close();
+        }
+    }
+
+    private static byte[] request(X509CertificateHolder issuer, BigInteger serial) throws Exception {
+        CertificateID id = new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1), issuer, serial);
+        return new OCSPReqBuilder().addRequest(id).build().getEncoded();
+    }
+
+    private static SingleResp single(byte[] encoded, KeyPair keyPair) throws Exception {
+        OCSPResp resp = new OCSPResp(encoded);
+        Assert.assertEquals(OCSPResp.SUCCESSFUL, resp.getStatus());
+        BasicOCSPResp basic = (BasicOCSPResp) resp.getResponseObject();
+        Assert.assertTrue(basic.isSignatureValid(new JcaContentVerifierProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(keyPair.getPublic())));
+        return basic.getResponses()[0];
+    }
+
+    private static byte[] post(String url, byte[] request) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/ocsp-request");
+        OutputStream os = connection.getOutputStream();
+        os.write(request);
+        os.close();
+        Assert.assertEquals(200, connection.getResponseCode());
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[2048];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+            out.write(buffer, 0, len);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
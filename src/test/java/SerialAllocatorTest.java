@@ -0,0 +1,52 @@
+import com.ggp.noob.SerialAllocator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/7 11:02
+ * @Description:
+ */
+public class SerialAllocatorTest {
+    @Test
+    public void test_unique_concurrent() throws Exception {
+        File file = File.createTempFile("serial", "");
+        file.delete();
+        SerialAllocator allocator = new SerialAllocator(file.getPath(), 64, true);
+        Set<BigInteger> serials = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    serials.add(allocator.next());
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        Assert.assertEquals(40000, serials.size());
+        file.delete();
+    }
+
+    @Test
+    public void test_restart_not_reuse() throws Exception {
+        File file = File.createTempFile("serial", "");
+        file.delete();
+        SerialAllocator first = new SerialAllocator(file.getPath(), 100, false);
+        BigInteger last = null;
+        for (int i = 0; i < 150; i++) {
+            last = first.next();
+        }
+        SerialAllocator restarted = new SerialAllocator(file.getPath(), 100, false);
+        Assert.assertTrue(restarted.next().compareTo(last) > 0);
+        file.delete();
+    }
+}
@@ -0,0 +1,159 @@
+import com.ggp.noob.asn1.SignAlgEnum;
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.SignatureUtil;
+import com.ggp.noob.util.Sm2Signature;
+import com.ggp.noob.util.Sm2Util;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.crypto.params.ParametersWithID;
+import org.bouncycastle.crypto.params.ParametersWithRandom;
+import org.bouncycastle.crypto.signers.SM2Signer;
+import org.bouncycastle.jcajce.provider.asymmetric.util.ECUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/14 10:00
+ * @Description:
+ */
+public class Sm2Test {
+
+    @Test
+    public void test_multiply() {
+        SecureRandom random = new SecureRandom();
+        FixedPointCombMultiplier comb = new FixedPointCombMultiplier();
+        ECPoint g = Sm2Util.SPEC.getG();
+        BigInteger n = Sm2Util.SPEC.getN();
+        for (int i = 0; i < 500; i++) {
+            BigInteger k = new BigInteger(i % 2 == 0 ? n.bitLength() : 1 + random.nextInt(n.bitLength()), random).mod(n);
+            Assert.assertEquals(comb.multiply(g, k).normalize(), Sm2Util.baseMultiplier().multiply(g, k).normalize());
+        }
+        /** 不是G的点退回梳状表 */
+        ECPoint p = g.twice();
+        BigInteger k = new BigInteger(200, random);
+        Assert.assertEquals(comb.multiply(p, k).normalize(), Sm2Util.baseMultiplier().multiply(p, k).normalize());
+    }
+
+    /**
+     * 私钥编码中带公钥，写成PEM后能读回密钥对
+     */
+    @Test
+    public void test_keyPair() throws Exception {
+        registerProvider();
+        KeyPair keyPair = Sm2Util.createKeyPair();
+        org.bouncycastle.asn1.sec.ECPrivateKey encoded = org.bouncycastle.asn1.sec.ECPrivateKey.getInstance(PrivateKeyInfo.getInstance(keyPair.getPrivate().getEncoded()).parsePrivateKey());
+        Assert.assertNotNull(encoded.getPublicKey());
+        PEMKeyPair pem = (PEMKeyPair) new PEMParser(new StringReader(CertUtil.writeObjectToString(keyPair.getPrivate()))).readObject();
+        KeyPair read = new JcaPEMKeyConverter().setProvider(BouncyCastleProvider.PROVIDER_NAME).getKeyPair(pem);
+        Assert.assertEquals(keyPair.getPublic(), read.getPublic());
+        Assert.assertEquals(keyPair.getPrivate(), read.getPrivate());
+    }
+
+    @Test
+    public void test_sign() throws Exception {
+        registerProvider();
+        byte[] plain = new byte[512];
+        new SecureRandom().nextBytes(plain);
+        for (int i = 0; i < 50; i++) {
+            KeyPair keyPair = Sm2Util.createKeyPair();
+            byte[] signature = SignatureUtil.sign(plain, keyPair.getPrivate(), SignAlgEnum.SM3_WITH_SM2);
+            Signature verifier = Signature.getInstance(SignAlgEnum.SM3_WITH_SM2.value, BouncyCastleProvider.PROVIDER_NAME);
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(plain);
+            Assert.assertTrue(verifier.verify(signature));
+        }
+    }
+
+    /**
+     * 和BC的SM2Signer互相验签，包括自定义用户ID和缓存的ZA
+     */
+    @Test
+    public void test_signature() throws Exception {
+        registerProvider();
+        byte[] plain = new byte[300];
+        new SecureRandom().nextBytes(plain);
+        byte[] userId = "alice@example.com".getBytes("UTF-8");
+        KeyPair keyPair = Sm2Util.createKeyPair();
+        for (int i = 0; i < 20; i++) {
+            Sm2Signature signer = new Sm2Signature(userId);
+            signer.initSign(keyPair.getPrivate(), i % 2 == 0 ? keyPair.getPublic() : null);
+            signer.update(plain, 0, plain.length);
+            byte[] signature = signer.sign();
+            SM2Signer bc = new SM2Signer();
+            bc.init(false, new ParametersWithID(ECUtil.generatePublicKeyParameter(keyPair.getPublic()), userId));
+            bc.update(plain, 0, plain.length);
+            Assert.assertTrue(bc.verifySignature(signature));
+
+            bc.init(true, new ParametersWithID(new ParametersWithRandom(ECUtil.generatePrivateKeyParameter(keyPair.getPrivate())), userId));
+            bc.update(plain, 0, plain.length);
+            signature = bc.generateSignature();
+            Sm2Signature verifier = new Sm2Signature(userId);
+            verifier.initVerify(keyPair.getPublic());
+            verifier.update(plain, 0, plain.length);
+            Assert.assertTrue(verifier.verify(signature));
+            /** 验签后回到init之后的状态，原文改一位不通过 */
+            plain[i] ^= 1;
+            verifier.update(plain, 0, plain.length);
+            Assert.assertFalse(verifier.verify(signature));
+            plain[i] ^= 1;
+        }
+        /** 默认用户ID的签名用其他用户ID验不过，签名值格式错误返回false */
+        byte[] signature = SignatureUtil.sign(plain, keyPair.getPrivate(), SignAlgEnum.SM3_WITH_SM2);
+        Assert.assertTrue(SignatureUtil.verify(plain, signature, keyPair.getPublic(), SignAlgEnum.SM3_WITH_SM2));
+        Sm2Signature verifier = new Sm2Signature(userId);
+        verifier.initVerify(keyPair.getPublic());
+        verifier.update(plain, 0, plain.length);
+        Assert.assertFalse(verifier.verify(signature));
+        byte[] padded = Arrays.copyOf(signature, signature.length + 1);
+        Assert.assertFalse(SignatureUtil.verify(plain, padded, keyPair.getPublic(), SignAlgEnum.SM3_WITH_SM2));
+        Assert.assertFalse(SignatureUtil.verify(plain, new byte[]{0x30, 0x00}, keyPair.getPublic(), SignAlgEnum.SM3_WITH_SM2));
+        Assert.assertTrue(SignatureUtil.verify(plain, signature, keyPair.getPublic(), SignAlgEnum.SM3_WITH_SM2));
+        /** 给的公钥和私钥不匹配时拒绝初始化 */
+        try {
+            new Sm2Signature(userId).initSign(keyPair.getPrivate(), Sm2Util.createKeyPair().getPublic());
+            Assert.fail("mismatched public key must be rejected");
+        } catch (InvalidKeyException e) {
+            /** 预期 */
+        }
+    }
+
+    @Test
+    public void test_cert() throws Exception {
+        registerProvider();
+        KeyPair issuer = Sm2Util.createKeyPair();
+        KeyPair subject = Sm2Util.createKeyPair();
+        Date now = new Date();
+        X509Certificate cert = CertUtil.generateCert("CN=root,O=XDJA,C=CN", "CN=user,O=XDJA,C=CN", BigInteger.ONE, now,
+                new Date(now.getTime() + 86400000L), issuer.getPrivate(), subject.getPublic(), SignAlgEnum.SM3_WITH_SM2.value, null);
+        cert.verify(issuer.getPublic(), BouncyCastleProvider.PROVIDER_NAME);
+        Assert.assertEquals(subject.getPublic(), cert.getPublicKey());
+        /** 已知颁发者公钥时ZA走缓存 */
+        cert = CertUtil.generateCert(new X500Name("CN=root,O=XDJA,C=CN"), "CN=user,O=XDJA,C=CN", BigInteger.TEN, now,
+                new Date(now.getTime() + 86400000L), issuer, subject.getPublic(), SignAlgEnum.SM3_WITH_SM2.value, null);
+        cert.verify(issuer.getPublic(), BouncyCastleProvider.PROVIDER_NAME);
+    }
+
+    private static void registerProvider() {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import com.ggp.noob.util.Sm4ParallelUtil;
+import com.ggp.noob.util.Sm4StreamUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/16 16:40
+ * @Description:
+ */
+public class Sm4StreamTest {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    @BeforeClass
+    public static void init() {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    @Test
+    public void test_stream_same_as_jce() throws Exception {
+        int[] sizes = {0, 1, 15, 16, 17, Sm4StreamUtil.BUFFER_SIZE - 1, Sm4StreamUtil.BUFFER_SIZE + 17, 3 * Sm4StreamUtil.BUFFER_SIZE};
+        for (Sm4StreamUtil.Mode mode : Sm4StreamUtil.Mode.values()) {
+            for (int size : sizes) {
+                byte[] key = random(16);
+                byte[] iv = random(mode.ivLength);
+                byte[] plain = random(size);
+                byte[] expected = jce(mode, key, iv, plain);
+
+                ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                Sm4StreamUtil.encrypt(mode, key, iv, new ByteArrayInputStream(plain), encrypted);
+                Assert.assertArrayEquals(mode + " " + size, expected, encrypted.toByteArray());
+
+                ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                Sm4StreamUtil.decrypt(mode, key, iv, new ByteArrayInputStream(expected), decrypted);
+                Assert.assertArrayEquals(mode + " " + size, plain, decrypted.toByteArray());
+
+                ByteBuffer dst = ByteBuffer.allocate(expected.length);
+                Sm4StreamUtil.process(mode, true, key, iv, ByteBuffer.wrap(plain), dst);
+                Assert.assertArrayEquals(mode + " " + size, expected, dst.array());
+            }
+        }
+    }
+
+    @Test
+    public void test_file_round_trip() throws Exception {
+        File plain = File.createTempFile("sm4", ".plain");
+        File encrypted = File.createTempFile("sm4", ".enc");
+        File decrypted = File.createTempFile("sm4", ".dec");
+        byte[] data = random(5 * Sm4StreamUtil.BUFFER_SIZE + 123);
+        Files.write(plain.toPath(), data);
+        for (Sm4StreamUtil.Mode mode : Sm4StreamUtil.Mode.values()) {
+            byte[] key = random(16);
+            byte[] iv = random(mode.ivLength);
+            Sm4StreamUtil.encrypt(mode, key, iv, plain.toPath(), encrypted.toPath());
+            Assert.assertArrayEquals(jce(mode, key, iv, data), Files.readAllBytes(encrypted.toPath()));
+            Sm4StreamUtil.decrypt(mode, key, iv, encrypted.toPath(), decrypted.toPath());
+            Assert.assertArrayEquals(data, Files.readAllBytes(decrypted.toPath()));
+        }
+        plain.delete();
+        encrypted.delete();
+        decrypted.delete();
+    }
+
+    @Test
+    public void test_parallel_same_as_stream() throws Exception {
+        File plain = File.createTempFile("sm4", ".plain");
+        File sequential = File.createTempFile("sm4", ".seq");
+        File parallel = File.createTempFile("sm4", ".par");
+        File decrypted = File.createTempFile("sm4", ".dec");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        int[] sizes = {0, 15, 16, 4096 * 5 + 7, 4096 * 16};
+        for (int size : sizes) {
+            byte[] data = random(size);
+            Files.write(plain.toPath(), data);
+            for (Sm4StreamUtil.Mode mode : new Sm4StreamUtil.Mode[]{Sm4StreamUtil.Mode.CTR, Sm4StreamUtil.Mode.GCM}) {
+                byte[] key = random(16);
+                byte[] iv = random(mode.ivLength);
+                if (mode == Sm4StreamUtil.Mode.CTR) {
+                    /**
+                     * 计数器低位接近溢出，检查进位
+                     */
+                    Arrays.fill(iv, 8, 16, (byte) 0xFF);
+                }
+                Sm4StreamUtil.encrypt(mode, key, iv, plain.toPath(), sequential.toPath());
+                Sm4ParallelUtil.process(mode, true, key, iv, plain.toPath(), parallel.toPath(), pool, 4096);
+                Assert.assertArrayEquals(mode + " " + size, Files.readAllBytes(sequential.toPath()), Files.readAllBytes(parallel.toPath()));
+                Sm4ParallelUtil.process(mode, false, key, iv, parallel.toPath(), decrypted.toPath(), pool, 4096);
+                Assert.assertArrayEquals(mode + " " + size, data, Files.readAllBytes(decrypted.toPath()));
+            }
+        }
+        pool.shutdown();
+        plain.delete();
+        sequential.delete();
+        parallel.delete();
+        decrypted.delete();
+    }
+
+    /**
+     * GCM超过2^32-2个分组时拒绝处理，用稀疏文件，不实际写出64G数据
+     */
+    @Test
+    public void test_gcm_too_long() throws Exception {
+        File plain = File.createTempFile("sm4", ".plain");
+        File out = File.createTempFile("sm4", ".out");
+        Files.write(out.toPath(), new byte[]{1});
+        try (RandomAccessFile file = new RandomAccessFile(plain, "rw")) {
+            file.setLength(0xFFFFFFFEL * 16 + 1);
+        }
+        try {
+            Sm4ParallelUtil.process(Sm4StreamUtil.Mode.GCM, true, random(16), random(12), plain.toPath(), out.toPath(), ForkJoinPool.commonPool(), 4096);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // 超过GCM计数器范围
+        }
+        /** 输出文件没有被截断 */
+        Assert.assertEquals(1, out.length());
+        plain.delete();
+        out.delete();
+    }
+
+    @Test(expected = org.bouncycastle.crypto.InvalidCipherTextException.class)
+    public void test_gcm_tampered() throws Exception {
+        byte[] key = random(16);
+        byte[] iv = random(12);
+        byte[] encrypted = jce(Sm4StreamUtil.Mode.GCM, key, iv, random(1000));
+        encrypted[10] ^= 1;
+        Sm4StreamUtil.decrypt(Sm4StreamUtil.Mode.GCM, key, iv, new ByteArrayInputStream(encrypted), new ByteArrayOutputStream());
+    }
+
+    private static byte[] jce(Sm4StreamUtil.Mode mode, byte[] key, byte[] iv, byte[] plain) throws Exception {
+        String transformation;
+        AlgorithmParameterSpec spec;
+        switch (mode) {
+            case CBC:
+                transformation = "SM4/CBC/PKCS5Padding";
+                spec = new IvParameterSpec(iv);
+                break;
+            case CTR:
+                transformation = "SM4/CTR/NoPadding";
+                spec = new IvParameterSpec(iv);
+                break;
+            default:
+                transformation = "SM4/GCM/NoPadding";
+                spec = new GCMParameterSpec(Sm4StreamUtil.GCM_TAG_BITS, iv);
+        }
+        Cipher cipher = Cipher.getInstance(transformation, BouncyCastleProvider.PROVIDER_NAME);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "SM4"), spec);
+        return cipher.doFinal(plain);
+    }
+
+    private static byte[] random(int len) {
+        byte[] bytes = new byte[len];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+}
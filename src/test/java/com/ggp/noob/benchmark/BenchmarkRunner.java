@@ -0,0 +1,31 @@
+package com.ggp.noob.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/9 16:10
+ * @Description: 基准测试入口，输出吞吐量以及GC分析器统计的分配速率(gc.alloc.rate.norm)
+ * mvn -Pbenchmark verify -Dbenchmark=CertBenchmark
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        String include = args.length > 0 ? args[0] : "com.ggp.noob.benchmark.*";
+        Options options = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build();
+        new Runner(options).run();
+    }
+}
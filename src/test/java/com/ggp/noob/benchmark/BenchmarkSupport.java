@@ -0,0 +1,42 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.asn1.AlgTypeEnum;
+import com.ggp.noob.asn1.SignAlgEnum;
+import com.ggp.noob.pki.key.KeyUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.KeyPair;
+import java.security.Security;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/9 16:10
+ * @Description: 基准测试公共方法，alg参数取SM2或RSA
+ */
+public class BenchmarkSupport {
+    public static final String ISSUER = "CN=root,O=XDJA,C=CN";
+    public static final String SUBJECT = "CN=benchmark,O=XDJA,C=CN";
+
+    public static void registerProvider() {
+        if (null == Security.getProvider(BouncyCastleProvider.PROVIDER_NAME)) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    public static boolean isSm2(String alg) {
+        return alg.equalsIgnoreCase("SM2");
+    }
+
+    public static KeyPair createKeyPair(String alg) throws Exception {
+        registerProvider();
+        return isSm2(alg) ? KeyUtil.createSm2KeyPair() : KeyUtil.createRSAKeyPair(2048);
+    }
+
+    public static SignAlgEnum signAlg(String alg) {
+        return isSm2(alg) ? SignAlgEnum.SM3_WITH_SM2 : SignAlgEnum.SHA256_WITH_RSA;
+    }
+
+    public static int algType(String alg) {
+        return isSm2(alg) ? AlgTypeEnum.SM2.alg : AlgTypeEnum.RSA.alg;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.pki.p10.P10Util;
+import com.ggp.noob.util.CertChainEncoder;
+import com.ggp.noob.util.CertUtil;
+import com.ggp.noob.util.P10Request;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.util.encoders.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/9 16:10
+ * @Description: 证书签发、证书链、p10解析
+ */
+@State(Scope.Benchmark)
+public class CertBenchmark {
+    @Param({"SM2", "RSA"})
+    public String alg;
+
+    private KeyPair rootKeyPair;
+    private KeyPair userKeyPair;
+    private String signAlg;
+    private Date notBefore;
+    private Date notAfter;
+    private List<X509Certificate> chain;
+    private CertChainEncoder chainEncoder;
+    private String p10;
+
+    @Setup
+    public void setup() throws Exception {
+        rootKeyPair = BenchmarkSupport.createKeyPair(alg);
+        userKeyPair = BenchmarkSupport.createKeyPair(alg);
+        signAlg = BenchmarkSupport.signAlg(alg).value;
+        notBefore = new Date();
+        notAfter = new Date(notBefore.getTime() + 365 * 24 * 60 * 60 * 1000L);
+        X509Certificate rootCert = CertUtil.generateCert(BenchmarkSupport.ISSUER, BenchmarkSupport.ISSUER, BigInteger.ONE, notBefore, notAfter, rootKeyPair.getPrivate(), rootKeyPair.getPublic(), signAlg, null);
+        X509Certificate userCert = CertUtil.generateCert(BenchmarkSupport.ISSUER, BenchmarkSupport.SUBJECT, BigInteger.TEN, notBefore, notAfter, rootKeyPair.getPrivate(), userKeyPair.getPublic(), signAlg, null);
+        chain = new ArrayList<>();
+        chain.add(rootCert);
+        chain.add(userCert);
+        chainEncoder = new CertChainEncoder(rootCert);
+        p10 = CertUtil.P10_HEAD + "\n" + Base64.toBase64String(P10Util.createP10(new X500Name(BenchmarkSupport.SUBJECT), signAlg, userKeyPair.getPublic(), userKeyPair.getPrivate()).getEncoded()) + "\n" + CertUtil.P10_TAIL;
+    }
+
+    @Benchmark
+    public X509Certificate generateCert() throws Exception {
+        return CertUtil.generateCert(BenchmarkSupport.ISSUER, BenchmarkSupport.SUBJECT, BigInteger.TEN, notBefore, notAfter, rootKeyPair.getPrivate(), userKeyPair.getPublic(), signAlg, null);
+    }
+
+    @Benchmark
+    public String createCertChainByCerts() throws Exception {
+        return CertUtil.createCertChainByCerts(chain);
+    }
+
+    /**
+     * 预先编码根证书和SignedData结构，只拼接用户证书
+     */
+    @Benchmark
+    public String encodeCertChain() throws Exception {
+        return chainEncoder.encodePem(chain.get(1));
+    }
+
+    @Benchmark
+    public PublicKey getPublicKeyFromP10() throws Exception {
+        return CertUtil.getPublicKeyFromP10(p10);
+    }
+
+    @Benchmark
+    public String getSubjectFromP10() throws Exception {
+        return CertUtil.getSubjectFromP10(p10);
+    }
+
+    /**
+     * 签发时的实际用法：一次解析同时取公钥和主体
+     */
+    @Benchmark
+    public PublicKey parseP10() throws Exception {
+        P10Request request = P10Request.parse(p10);
+        request.getSubjectString();
+        return request.getPublicKey();
+    }
+}
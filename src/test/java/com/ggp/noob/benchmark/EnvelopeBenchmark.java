@@ -0,0 +1,51 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.asn1.SignedAndEnvelopedData;
+import com.ggp.noob.util.Asn1Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/9 16:10
+ * @Description: GM/T 0010 数字信封
+ */
+@State(Scope.Benchmark)
+public class EnvelopeBenchmark {
+    @Param({"SM2", "RSA"})
+    public String alg;
+
+    private int algType;
+    private KeyPair signKeyPair;
+    private KeyPair encKeyPair;
+    private byte[] envelope;
+
+    @Setup
+    public void setup() throws Exception {
+        algType = BenchmarkSupport.algType(alg);
+        signKeyPair = BenchmarkSupport.createKeyPair(alg);
+        encKeyPair = BenchmarkSupport.createKeyPair(alg);
+        envelope = Asn1Util.encodeSignedAndEnvelopedData(algType, signKeyPair.getPublic(), encKeyPair.getPrivate(), BenchmarkSupport.ISSUER, "1");
+    }
+
+    @Benchmark
+    public byte[] generateSignedAndEnvelopedData() throws Exception {
+        SignedAndEnvelopedData data = Asn1Util.generateSignedAndEnvelopedData(algType, signKeyPair.getPublic(), encKeyPair.getPrivate(), BenchmarkSupport.ISSUER, "1");
+        return data.getEncoded();
+    }
+
+    @Benchmark
+    public byte[] encodeSignedAndEnvelopedData() throws Exception {
+        return Asn1Util.encodeSignedAndEnvelopedData(algType, signKeyPair.getPublic(), encKeyPair.getPrivate(), BenchmarkSupport.ISSUER, "1");
+    }
+
+    @Benchmark
+    public KeyPair openSignedAndEnvelopedData() throws Exception {
+        return Asn1Util.openSignedAndEnvelopedData(envelope, signKeyPair.getPrivate());
+    }
+}
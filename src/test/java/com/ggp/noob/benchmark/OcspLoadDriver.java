@@ -0,0 +1,154 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.Constant;
+import com.ggp.noob.util.CertUtil;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.OCSPReqBuilder;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.DigestCalculator;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/28 17:20
+ * @Description: OCSP服务压测，多个线程循环发送POST请求，输出吞吐量和延迟分位数
+ * 证书取自certDir下除root.cer外的所有.cer文件(如-issueBatch的输出)，签发者为Constant.rootCert
+ * java -cp ... com.ggp.noob.benchmark.OcspLoadDriver url certDir [threads] [seconds]
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.ggp.noob.benchmark.OcspLoadDriver -Dexec.args="http://127.0.0.1:8081/ /cert/batch 8 30"
+ */
+public class OcspLoadDriver {
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new BouncyCastleProvider());
+        final URL url = new URL(args[0]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 30;
+
+        List<File> files = new ArrayList<>();
+        collect(new File(args[1]), files);
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("没有找到证书:" + args[1]);
+        }
+        X509CertificateHolder issuer = (X509CertificateHolder) CertUtil.readPEM(new File(Constant.rootCert));
+        DigestCalculator sha1 = new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1);
+        final byte[][] requests = new byte[files.size()][];
+        for (int i = 0; i < requests.length; i++) {
+            X509CertificateHolder cert = (X509CertificateHolder) CertUtil.readPEM(files.get(i));
+            requests[i] = new OCSPReqBuilder().addRequest(new CertificateID(sha1, issuer, cert.getSerialNumber())).build().getEncoded();
+        }
+        System.out.println("证书数:" + requests.length + " 线程数:" + threads + " 时长:" + seconds + "s");
+
+        /** 预热，让服务端缓存所有响应 */
+        for (byte[] request : requests) {
+            post(url, request);
+        }
+
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        final long[][] latencies = new long[threads][];
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] samples = new long[1 << 16];
+                    int count = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    try {
+                        long start;
+                        while ((start = System.nanoTime()) < deadline) {
+                            try {
+                                if (OCSPResp.SUCCESSFUL != new OCSPResp(post(url, requests[random.nextInt(requests.length)])).getStatus()) {
+                                    errors.incrementAndGet();
+                                }
+                            } catch (Exception e) {
+                                errors.incrementAndGet();
+                            }
+                            if (count == samples.length) {
+                                samples = Arrays.copyOf(samples, count * 2);
+                            }
+                            samples[count++] = System.nanoTime() - start;
+                        }
+                    } finally {
+                        latencies[index] = Arrays.copyOf(samples, count);
+                        done.countDown();
+                    }
+                }
+            }, "ocsp-load-" + t).start();
+        }
+        done.await();
+
+        int total = 0;
+        for (long[] samples : latencies) {
+            total += samples.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] samples : latencies) {
+            System.arraycopy(samples, 0, all, offset, samples.length);
+            offset += samples.length;
+        }
+        Arrays.sort(all);
+        System.out.printf("请求数:%d 错误:%d 吞吐量:%.1f/s%n", total, errors.get(), total / (double) seconds);
+        System.out.printf("p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms%n",
+                percentile(all, 0.5), percentile(all, 0.9), percentile(all, 0.99), percentile(all, 0.999),
+                total == 0 ? 0 : all[total - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+    private static void collect(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (null != children) {
+                for (File child : children) {
+                    collect(child, files);
+                }
+            }
+        } else if (file.getName().endsWith(".cer") && !"root.cer".equals(file.getName())) {
+            files.add(file);
+        }
+    }
+
+    private static byte[] post(URL url, byte[] request) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/ocsp-request");
+        OutputStream os = connection.getOutputStream();
+        os.write(request);
+        os.close();
+        InputStream in = connection.getInputStream();
+        byte[] response = new byte[connection.getContentLength()];
+        int read = 0;
+        while (read < response.length) {
+            int len = in.read(response, read, response.length - read);
+            if (len < 0) {
+                break;
+            }
+            read += len;
+        }
+        in.close();
+        return response;
+    }
+}
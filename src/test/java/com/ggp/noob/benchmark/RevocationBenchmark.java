@@ -0,0 +1,58 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.RevokedSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/29 15:00
+ * @Description: 吊销检查，未吊销的由布隆过滤器直接返回，已吊销的还要查基准和增量
+ */
+@State(Scope.Benchmark)
+public class RevocationBenchmark {
+    private static final int QUERIES = 1 << 16;
+
+    @Param({"100000", "1000000"})
+    public int revoked;
+
+    private RevokedSet set;
+    private BigInteger[] good;
+    private BigInteger[] bad;
+    private int index;
+
+    @Setup
+    public void setup() {
+        SecureRandom random = new SecureRandom();
+        set = new RevokedSet();
+        bad = new BigInteger[QUERIES];
+        for (int i = 0; i < revoked; i++) {
+            BigInteger serial = new BigInteger(128, random);
+            set.add(serial, i, 0);
+            if (i < QUERIES) {
+                bad[i] = serial;
+            }
+        }
+        set.rebase();
+        good = new BigInteger[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            good[i] = new BigInteger(128, random);
+        }
+    }
+
+    @Benchmark
+    public boolean notRevoked() {
+        return set.contains(good[index++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public boolean isRevoked() {
+        return set.contains(bad[index++ & (QUERIES - 1)]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.asn1.SignAlgEnum;
+import com.ggp.noob.util.SignatureUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.security.Signature;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/9 16:10
+ * @Description: 签名验签，原文为信封签名内容大小的短消息
+ */
+@State(Scope.Benchmark)
+public class SignatureBenchmark {
+    @Param({"SM2", "RSA"})
+    public String alg;
+
+    private KeyPair keyPair;
+    private SignAlgEnum signAlg;
+    private byte[] plain;
+    private byte[] signature;
+
+    @Setup
+    public void setup() throws Exception {
+        keyPair = BenchmarkSupport.createKeyPair(alg);
+        signAlg = BenchmarkSupport.signAlg(alg);
+        plain = new byte[512];
+        new SecureRandom().nextBytes(plain);
+        signature = SignatureUtil.sign(plain, keyPair.getPrivate(), signAlg);
+    }
+
+    @Benchmark
+    public byte[] sign() throws Exception {
+        return SignatureUtil.sign(plain, keyPair.getPrivate(), signAlg);
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return SignatureUtil.verify(plain, signature, keyPair.getPublic(), signAlg);
+    }
+
+    /**
+     * 对照：每次getInstance+init，即引入EngineCache之前的做法
+     */
+    @Benchmark
+    public byte[] signWithoutCache() throws Exception {
+        Signature engine = Signature.getInstance(signAlg.value, BouncyCastleProvider.PROVIDER_NAME);
+        engine.initSign(keyPair.getPrivate());
+        engine.update(plain);
+        return engine.sign();
+    }
+
+    @Benchmark
+    public boolean verifyWithoutCache() throws Exception {
+        Signature engine = Signature.getInstance(signAlg.value, BouncyCastleProvider.PROVIDER_NAME);
+        engine.initVerify(keyPair.getPublic());
+        engine.update(plain);
+        return engine.verify(signature);
+    }
+}
@@ -0,0 +1,37 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.pki.key.KeyUtil;
+import com.ggp.noob.util.Sm2Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.KeyPair;
+
+/**
+ * @Author:ggp
+ * @Date:2020/10/14 10:00
+ * @Description: SM2密钥生成，定点窗口表和KeyPairGenerator对比；签名见SignatureBenchmark
+ */
+@State(Scope.Benchmark)
+public class Sm2Benchmark {
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.registerProvider();
+    }
+
+    @Benchmark
+    public KeyPair createKeyPair() {
+        return Sm2Util.createKeyPair();
+    }
+
+    /**
+     * 对照：KeyPairGenerator，基点乘法为BC默认的梳状表
+     */
+    @Benchmark
+    public KeyPair createKeyPairWithGenerator() throws Exception {
+        return KeyUtil.createSm2KeyPair();
+    }
+}
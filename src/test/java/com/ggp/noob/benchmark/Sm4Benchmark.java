@@ -0,0 +1,57 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.util.Sm4Util;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.SecureRandom;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/9 16:10
+ * @Description: sm4加密，64字节对应数字信封中的私钥，其余为一般数据
+ */
+@State(Scope.Benchmark)
+public class Sm4Benchmark {
+    @Param({"64", "4096", "1048576"})
+    public int size;
+
+    private byte[] key;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        SecureRandom random = new SecureRandom();
+        key = new byte[16];
+        random.nextBytes(key);
+        data = new byte[size];
+        random.nextBytes(data);
+        BenchmarkSupport.registerProvider();
+    }
+
+    @Benchmark
+    public byte[] ecbNoPadding() throws Exception {
+        return Sm4Util.sm4_encrypt_ecb_no_padding(key, data);
+    }
+
+    @Benchmark
+    public byte[] ecbPkcs5Padding() throws Exception {
+        return Sm4Util.sm4_encrypt_ecb_pkcs5_padding(key, data);
+    }
+
+    /**
+     * 对照：每次getInstance+init，即引入EngineCache之前的做法；Sm4Util复用线程的Cipher，每次只init
+     */
+    @Benchmark
+    public byte[] ecbNoPaddingWithoutCache() throws Exception {
+        Cipher cipher = Cipher.getInstance("SM4/ECB/NoPadding", BouncyCastleProvider.PROVIDER_NAME);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "SM4"));
+        return cipher.doFinal(data);
+    }
+}
@@ -0,0 +1,84 @@
+package com.ggp.noob.benchmark;
+
+import com.ggp.noob.util.Sm4ParallelUtil;
+import com.ggp.noob.util.Sm4StreamUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @Author:ggp
+ * @Date:2020/9/18 15:12
+ * @Description: 大文件sm4加密随线程数的扩展情况，每次操作处理sizeMb大小的文件
+ * 吞吐量(MB/s) = sizeMb / 每次耗时(s)，threads=0为Sm4StreamUtil顺序加密的对照
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class Sm4ParallelBenchmark {
+    @Param({"CTR", "GCM"})
+    public String mode;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"256"})
+    public int sizeMb;
+
+    private Sm4StreamUtil.Mode sm4Mode;
+    private ForkJoinPool pool;
+    private File plain;
+    private File encrypted;
+    private byte[] key;
+    private byte[] iv;
+
+    @Setup
+    public void setup() throws Exception {
+        sm4Mode = Sm4StreamUtil.Mode.valueOf(mode);
+        pool = threads > 0 ? new ForkJoinPool(threads) : null;
+        SecureRandom random = new SecureRandom();
+        key = new byte[16];
+        iv = new byte[sm4Mode.ivLength];
+        random.nextBytes(key);
+        random.nextBytes(iv);
+        plain = File.createTempFile("sm4-bench", ".plain");
+        encrypted = File.createTempFile("sm4-bench", ".enc");
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream os = new FileOutputStream(plain)) {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(block);
+                os.write(block);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (null != pool) {
+            pool.shutdown();
+        }
+        plain.delete();
+        encrypted.delete();
+    }
+
+    @Benchmark
+    public long encrypt() throws Exception {
+        if (null == pool) {
+            return Sm4StreamUtil.encrypt(sm4Mode, key, iv, plain.toPath(), encrypted.toPath());
+        }
+        return Sm4ParallelUtil.process(sm4Mode, true, key, iv, plain.toPath(), encrypted.toPath(), pool, Sm4ParallelUtil.DEFAULT_CHUNK_SIZE);
+    }
+}